@@ -0,0 +1,106 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.util.ArraySerialisers;
+import com.acunu.util.Serialiser;
+import com.acunu.util.SerialiserUtils;
+
+/**
+ * The bulk array serialisers of {@link ArraySerialisers} against writing and
+ * reading the same 4096-element long[] and double[] one boxed element at a
+ * time through serLong and serDouble, as a histogram counter would without
+ * them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArraySerialiserBenchmark {
+
+	public static final int LENGTH = 4096;
+
+	@Param({ "heap", "direct" })
+	public String buffer;
+
+	private long[] longs;
+	private double[] doubles;
+	private ByteBuffer buf;
+
+	@Setup
+	public void setup() {
+		longs = BenchmarkData.longs(LENGTH);
+		doubles = BenchmarkData.doubles(LENGTH);
+		int size = 8 * LENGTH + 8;
+		buf = buffer.equals("heap") ? ByteBuffer.allocate(size) : ByteBuffer.allocateDirect(size);
+	}
+
+	@Benchmark
+	public long[] longsBulk() throws IOException {
+		return roundTrip(ArraySerialisers.serLongs, longs);
+	}
+
+	@Benchmark
+	public long[] longsOrderedBulk() throws IOException {
+		return roundTrip(ArraySerialisers.serOrderedLongs, longs);
+	}
+
+	@Benchmark
+	public long[] longsBoxed() throws IOException {
+		buf.clear();
+		SerialiserUtils.putUnsignedVarLong(buf, longs.length);
+		for (long value : longs)
+			Serialiser.serLong.write(buf, value);
+		buf.flip();
+		long[] values = new long[SerialiserUtils.getUnsignedVarInt(buf)];
+		for (int i = 0; i < values.length; i++)
+			values[i] = Serialiser.serLong.fromBytes(buf);
+		return values;
+	}
+
+	@Benchmark
+	public double[] doublesBulk() throws IOException {
+		return roundTrip(ArraySerialisers.serDoubles, doubles);
+	}
+
+	@Benchmark
+	public double[] doublesOrderedBulk() throws IOException {
+		return roundTrip(ArraySerialisers.serOrderedDoubles, doubles);
+	}
+
+	@Benchmark
+	public double[] doublesBoxed() throws IOException {
+		buf.clear();
+		SerialiserUtils.putUnsignedVarLong(buf, doubles.length);
+		for (double value : doubles)
+			Serialiser.serDouble.write(buf, value);
+		buf.flip();
+		double[] values = new double[SerialiserUtils.getUnsignedVarInt(buf)];
+		for (int i = 0; i < values.length; i++)
+			values[i] = Serialiser.serDouble.fromBytes(buf);
+		return values;
+	}
+
+	private <X> X roundTrip(Serialiser<X> serialiser, X value) throws IOException {
+		buf.clear();
+		serialiser.write(buf, value);
+		buf.flip();
+		return serialiser.fromBytes(buf);
+	}
+}
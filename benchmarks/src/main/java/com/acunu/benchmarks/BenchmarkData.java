@@ -0,0 +1,128 @@
+package com.acunu.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventSchema;
+import com.acunu.analytics.model.DimensionType;
+import com.acunu.analytics.model.Field;
+import com.acunu.analytics.model.SimpleField;
+
+/**
+ * Deterministic test data for the benchmarks. Everything is generated from a
+ * fixed seed so that runs are comparable with a stored baseline.
+ *
+ * The shapes are modelled on typical ingest: events of around thirty fields,
+ * a mix of numeric and string dimensions, string values of 8 to 64 chars
+ * drawn from a bounded vocabulary.
+ */
+public class BenchmarkData {
+
+	public static final long SEED = 0x5eed1e55L;
+
+	/** Number of fields in a "wide" event. */
+	public static final int EVENT_WIDTH = 30;
+
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_/.";
+
+	public static Random random() {
+		return new Random(SEED);
+	}
+
+	public static String randomString(Random random, int minLength, int maxLength) {
+		int length = minLength + random.nextInt(maxLength - minLength + 1);
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		return builder.toString();
+	}
+
+	public static String[] strings(int count, int minLength, int maxLength) {
+		Random random = random();
+		String[] strings = new String[count];
+		for (int i = 0; i < count; i++)
+			strings[i] = randomString(random, minLength, maxLength);
+		return strings;
+	}
+
+	public static long[] longs(int count) {
+		Random random = random();
+		long[] longs = new long[count];
+		for (int i = 0; i < count; i++) {
+			// Mostly small counters, some large values and negatives.
+			switch (i % 4) {
+			case 0:
+				longs[i] = random.nextInt(1000);
+				break;
+			case 1:
+				longs[i] = random.nextLong();
+				break;
+			case 2:
+				longs[i] = 1380000000000L + random.nextInt(86400000);
+				break;
+			default:
+				longs[i] = -random.nextInt(100000);
+			}
+		}
+		return longs;
+	}
+
+	public static double[] doubles(int count) {
+		Random random = random();
+		double[] doubles = new double[count];
+		for (int i = 0; i < count; i++)
+			doubles[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12));
+		return doubles;
+	}
+
+	/** The field names of a wide event. */
+	public static String[] fieldNames() {
+		String[] names = new String[EVENT_WIDTH];
+		for (int i = 0; i < EVENT_WIDTH; i++)
+			names[i] = "field_" + i;
+		return names;
+	}
+
+	/**
+	 * The schema of {@link #wideEvent(Random)}.
+	 */
+	public static EventSchema wideSchema() {
+		String[] names = fieldNames();
+		List<Field> fields = new ArrayList<Field>(names.length);
+		for (int i = 0; i < names.length; i++)
+			fields.add(new SimpleField(names[i], i % 3 == 0 ? DimensionType.LONG : i % 3 == 1 ? DimensionType.DOUBLE : DimensionType.STRING));
+		return new EventSchema(fields);
+	}
+
+	/**
+	 * An event with {@link #EVENT_WIDTH} fields: a third longs, a third
+	 * doubles and a third strings.
+	 */
+	public static Event wideEvent(Random random) {
+		Event event = new Event();
+		String[] names = fieldNames();
+		for (int i = 0; i < names.length; i++) {
+			switch (i % 3) {
+			case 0:
+				event.put(names[i], Long.valueOf(random.nextInt(100000)));
+				break;
+			case 1:
+				event.put(names[i], Double.valueOf(random.nextDouble() * 1000));
+				break;
+			default:
+				event.put(names[i], randomString(random, 8, 32));
+			}
+		}
+		return event;
+	}
+
+	public static Event[] wideEvents(int count) {
+		Random random = random();
+		Event[] events = new Event[count];
+		for (int i = 0; i < count; i++)
+			events[i] = wideEvent(random);
+		return events;
+	}
+}
@@ -0,0 +1,81 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.conf.SimpleConfig;
+import com.acunu.analytics.ingest.BinaryEventDecoder;
+import com.acunu.analytics.ingest.DecodeException;
+import com.acunu.analytics.ingest.JsonDecoder;
+import com.acunu.util.EventBatchSerialiser;
+
+/**
+ * The binary event format of {@link EventBatchSerialiser} against JSON for the
+ * same 1000 wide events: decoding through each format's Decoder, and encoding.
+ * The encoded sizes are printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BinaryEventBenchmark {
+
+	public static final int EVENTS = 1000;
+
+	private List<Event> events;
+	private byte[] binary;
+	private byte[] json;
+	private BinaryEventDecoder binaryDecoder;
+	private JsonDecoder jsonDecoder;
+
+	@Setup
+	public void setup() {
+		Event[] wide = BenchmarkData.wideEvents(EVENTS);
+		events = Arrays.asList(wide);
+		ByteBuffer buf = EventBatchSerialiser.serEventBatch.toBytes(events);
+		binary = new byte[buf.remaining()];
+		buf.get(binary);
+		json = JsonDecoderBenchmark.jsonArray(wide).getBytes(Charset.forName("UTF-8"));
+		binaryDecoder = new BinaryEventDecoder(new SimpleConfig());
+		jsonDecoder = new JsonDecoder(new SimpleConfig());
+		System.out.println(String.format("%n%d events: binary %d bytes, JSON %d bytes", EVENTS, binary.length, json.length));
+	}
+
+	@Benchmark
+	public List<Event> decodeBinary() throws DecodeException {
+		return binaryDecoder.decode(binary);
+	}
+
+	@Benchmark
+	public List<Event> decodeJson() throws DecodeException {
+		return jsonDecoder.decode(json);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeBinary() {
+		return EventBatchSerialiser.serEventBatch.toBytes(events);
+	}
+
+	@Benchmark
+	public byte[] encodeJson() throws IOException {
+		return JsonDecoderBenchmark.jsonArray(events.toArray(new Event[EVENTS])).getBytes(Charset.forName("UTF-8"));
+	}
+}
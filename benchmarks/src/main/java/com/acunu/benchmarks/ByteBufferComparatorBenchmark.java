@@ -0,0 +1,121 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.util.ByteBufferComparator;
+import com.acunu.util.OrderedSerialiser;
+import com.acunu.util.OrderedSerialiser.OrderedCompositeSerialiser;
+
+/**
+ * Sorting 1024 serialised (String, Long, Double) keys with
+ * {@link ByteBufferComparator}, with a byte-at-a-time unsigned comparison,
+ * and by decoding both keys with fromBytes and comparing the objects. The
+ * strings share a long prefix, as URLs or paths do, so comparisons run deep.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteBufferComparatorBenchmark {
+
+	public static final int KEYS = 1024;
+
+	@Param({ "heap", "direct" })
+	public String buffer;
+
+	private final OrderedCompositeSerialiser serialiser = new OrderedCompositeSerialiser(
+			OrderedSerialiser.serOrderedString, OrderedSerialiser.serOrderedLong, OrderedSerialiser.serOrderedDouble);
+
+	private ByteBuffer[] keys;
+
+	@Setup
+	public void setup() {
+		String[] suffixes = BenchmarkData.strings(64, 4, 12);
+		long[] longs = BenchmarkData.longs(KEYS);
+		double[] doubles = BenchmarkData.doubles(KEYS);
+		keys = new ByteBuffer[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			Object[] key = { "http://www.example.com/analytics/" + suffixes[i % suffixes.length], longs[i] % 16, doubles[i] };
+			ByteBuffer heap = serialiser.toBytes(key);
+			if (buffer.equals("heap")) {
+				keys[i] = heap;
+			} else {
+				keys[i] = ByteBuffer.allocateDirect(heap.remaining());
+				keys[i].put(heap);
+				keys[i].flip();
+			}
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer[] sortWordAtATime() {
+		ByteBuffer[] sorted = keys.clone();
+		Arrays.sort(sorted, ByteBufferComparator.INSTANCE);
+		return sorted;
+	}
+
+	@Benchmark
+	public ByteBuffer[] sortByteAtATime() {
+		ByteBuffer[] sorted = keys.clone();
+		Arrays.sort(sorted, BYTE_AT_A_TIME);
+		return sorted;
+	}
+
+	@Benchmark
+	public ByteBuffer[] sortDecoding() {
+		ByteBuffer[] sorted = keys.clone();
+		Arrays.sort(sorted, decoding);
+		return sorted;
+	}
+
+	private static final Comparator<ByteBuffer> BYTE_AT_A_TIME = new Comparator<ByteBuffer>() {
+		@Override
+		public int compare(ByteBuffer a, ByteBuffer b) {
+			int n = Math.min(a.remaining(), b.remaining());
+			for (int i = 0; i < n; i++) {
+				int x = a.get(a.position() + i) & 0xff;
+				int y = b.get(b.position() + i) & 0xff;
+				if (x != y)
+					return x - y;
+			}
+			return a.remaining() - b.remaining();
+		}
+	};
+
+	private final Comparator<ByteBuffer> decoding = new Comparator<ByteBuffer>() {
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public int compare(ByteBuffer a, ByteBuffer b) {
+			try {
+				Object[] x = serialiser.fromBytes(a.duplicate());
+				Object[] y = serialiser.fromBytes(b.duplicate());
+				for (int i = 0; i < x.length; i++) {
+					int c = ((Comparable) x[i]).compareTo(y[i]);
+					if (c != 0)
+						return c;
+				}
+				return 0;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+}
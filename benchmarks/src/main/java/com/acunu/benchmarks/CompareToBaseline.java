@@ -0,0 +1,135 @@
+package com.acunu.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Compare a JMH JSON result file against a stored baseline and report
+ * regressions. JSON is read with SnakeYAML, which the connectors already
+ * depend on, so this needs nothing beyond the benchmark jar.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.acunu.benchmarks.CompareToBaseline baseline.json results.json [threshold%]
+ * </pre>
+ *
+ * A benchmark has regressed if its score is worse than the baseline by more
+ * than the threshold (default 10%) and by more than the combined error of the
+ * two measurements. "Worse" depends on the mode: lower is better for
+ * avgt/sample/ss, higher is better for thrpt. Exits with status 1 if anything
+ * regressed, so it can gate a CI job.
+ */
+public class CompareToBaseline {
+
+	private static class Score {
+		final String mode;
+		final double score;
+		final double error;
+		final String unit;
+
+		Score(String mode, double score, double error, String unit) {
+			this.mode = mode;
+			this.score = score;
+			this.error = error;
+			this.unit = unit;
+		}
+
+		boolean higherIsBetter() {
+			return "thrpt".equals(mode);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: CompareToBaseline <baseline.json> <results.json> [threshold%]");
+			System.exit(2);
+		}
+		Map<String, Score> baseline = load(new File(args[0]));
+		Map<String, Score> results = load(new File(args[1]));
+		double threshold = (args.length > 2 ? Double.parseDouble(args[2]) : 10.0) / 100.0;
+
+		int regressions = 0;
+		for (Map.Entry<String, Score> entry : results.entrySet()) {
+			Score now = entry.getValue();
+			Score then = baseline.get(entry.getKey());
+			if (then == null) {
+				System.out.println(String.format("%-8s %s: %.3f %s (no baseline)", "NEW", entry.getKey(), now.score, now.unit));
+				continue;
+			}
+			if (!then.unit.equals(now.unit) || !then.mode.equals(now.mode)) {
+				System.out.println(String.format("%-8s %s: units or mode changed, not comparable", "SKIP", entry.getKey()));
+				continue;
+			}
+
+			double change = (now.score - then.score) / then.score;
+			double improvement = now.higherIsBetter() ? change : -change;
+			boolean significant = Math.abs(now.score - then.score) > errorOf(now) + errorOf(then);
+
+			String verdict;
+			if (significant && improvement < -threshold) {
+				verdict = "REGRESSED";
+				regressions++;
+			} else if (significant && improvement > threshold)
+				verdict = "IMPROVED";
+			else
+				verdict = "OK";
+			System.out.println(String.format("%-8s %s: %.3f -> %.3f %s (%+.1f%%)", verdict, entry.getKey(), then.score, now.score,
+					now.unit, 100 * change));
+		}
+		for (String key : baseline.keySet()) {
+			if (!results.containsKey(key))
+				System.out.println(String.format("%-8s %s: in baseline but not in results", "MISSING", key));
+		}
+
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmark(s) regressed by more than " + (100 * threshold) + "%");
+			System.exit(1);
+		}
+	}
+
+	private static double errorOf(Score score) {
+		return Double.isNaN(score.error) ? 0 : score.error;
+	}
+
+	/**
+	 * Read a JMH JSON result file into a map of benchmark (with params) to
+	 * primary score.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Score> load(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			List<Map<String, Object>> runs = (List<Map<String, Object>>) new Yaml().load(in);
+			Map<String, Score> scores = new LinkedHashMap<String, Score>();
+			for (Map<String, Object> run : runs) {
+				StringBuilder key = new StringBuilder((String) run.get("benchmark"));
+				Map<String, Object> params = (Map<String, Object>) run.get("params");
+				if (params != null)
+					key.append(new TreeMap<String, Object>(params));
+				Map<String, Object> metric = (Map<String, Object>) run.get("primaryMetric");
+				scores.put(key.toString(), new Score((String) run.get("mode"), asDouble(metric.get("score")),
+						asDouble(metric.get("scoreError")), (String) metric.get("scoreUnit")));
+			}
+			return scores;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static double asDouble(Object obj) {
+		if (obj instanceof Number)
+			return ((Number) obj).doubleValue();
+		// JMH writes "NaN" as a string when there are too few iterations to
+		// compute an error.
+		return Double.parseDouble(String.valueOf(obj));
+	}
+}
@@ -0,0 +1,78 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.util.ArraySerialisers;
+import com.acunu.util.CompressingSerialiser;
+import com.acunu.util.Serialiser;
+
+/**
+ * A counter of longs drawn from 64 distinct values, as a histogram of
+ * bucketed latencies would be, through {@link ArraySerialisers#serLongs}
+ * as it is and wrapped in a {@link CompressingSerialiser}. Sizes are printed
+ * in setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressingSerialiserBenchmark {
+
+	@Param({ "128", "8192" })
+	public int length;
+
+	private final Serialiser<long[]> compressing = new CompressingSerialiser<long[]>(ArraySerialisers.serLongs);
+
+	private long[] counter;
+	private ByteBuffer rawBytes;
+	private ByteBuffer compressedBytes;
+
+	@Setup
+	public void setup() {
+		long[] values = BenchmarkData.longs(64);
+		Random random = BenchmarkData.random();
+		counter = new long[length];
+		for (int i = 0; i < length; i++)
+			counter[i] = values[random.nextInt(64)];
+		rawBytes = ArraySerialisers.serLongs.toBytes(counter);
+		compressedBytes = compressing.toBytes(counter);
+		System.out.println("raw " + rawBytes.remaining() + " bytes, compressed " + compressedBytes.remaining() + " bytes");
+	}
+
+	@Benchmark
+	public ByteBuffer toBytesRaw() {
+		return ArraySerialisers.serLongs.toBytes(counter);
+	}
+
+	@Benchmark
+	public ByteBuffer toBytesCompressed() {
+		return compressing.toBytes(counter);
+	}
+
+	@Benchmark
+	public long[] fromBytesRaw() throws IOException {
+		return ArraySerialisers.serLongs.fromBytes(rawBytes.duplicate());
+	}
+
+	@Benchmark
+	public long[] fromBytesCompressed() throws IOException {
+		return compressing.fromBytes(compressedBytes.duplicate());
+	}
+}
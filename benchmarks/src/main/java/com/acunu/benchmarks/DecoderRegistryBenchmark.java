@@ -0,0 +1,65 @@
+package com.acunu.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.analytics.Decoder;
+import com.acunu.analytics.conf.ConfigProperties;
+import com.acunu.analytics.conf.SimpleConfig;
+import com.acunu.analytics.ingest.DecoderRegistry;
+
+/**
+ * Finding the decoder for a request on a mixed-content flow: through
+ * {@link DecoderRegistry}, against loading the class and calling its
+ * constructor by reflection each time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderRegistryBenchmark {
+
+	private static final String[] CONTENT_TYPES = { "application/json", "text/csv; charset=UTF-8", "application/x-acunu-events" };
+	private static final String[] CLASS_NAMES = { "com.acunu.analytics.ingest.JsonDecoder", "com.acunu.analytics.ingest.DelimitedDecoder",
+			"com.acunu.analytics.ingest.BinaryEventDecoder" };
+
+	private DecoderRegistry registry;
+	private SimpleConfig properties;
+	private int next;
+
+	@Setup
+	public void setup() {
+		registry = DecoderRegistry.getDefault();
+		properties = new SimpleConfig();
+		properties.put("delimited_fields", Arrays.asList("a:LONG", "b"));
+	}
+
+	@Benchmark
+	public Decoder registryPerThread() throws Exception {
+		return registry.getDecoder(CONTENT_TYPES[next++ % 3], properties);
+	}
+
+	@Benchmark
+	public Decoder registryNewInstance() throws Exception {
+		return registry.newDecoder(CONTENT_TYPES[next++ % 3], properties);
+	}
+
+	@Benchmark
+	public Decoder reflection() throws Exception {
+		Class<?> c = Class.forName(CLASS_NAMES[next++ % 3]);
+		return (Decoder) c.getConstructor(ConfigProperties.class).newInstance(properties);
+	}
+}
@@ -0,0 +1,86 @@
+package com.acunu.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventBatch;
+import com.acunu.analytics.EventSchema;
+
+/**
+ * A filter and sum over 1000 wide events: row by row over Event maps, and as
+ * loops over the columns of an {@link EventBatch}. Also the cost of building
+ * the batch from events.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventBatchBenchmark {
+
+	public static final int EVENTS = 1000;
+
+	private EventSchema schema;
+	private List<Event> events;
+	private EventBatch batch;
+	private String longField;
+	private String doubleField;
+
+	@Setup
+	public void setup() {
+		schema = BenchmarkData.wideSchema();
+		events = Arrays.asList(BenchmarkData.wideEvents(EVENTS));
+		batch = EventBatch.fromEvents(schema, events);
+		longField = schema.getName(0);
+		doubleField = schema.getName(1);
+	}
+
+	/** Sum of a double field where a long field is over a threshold, by row. */
+	@Benchmark
+	public double filterSumRows() {
+		double sum = 0;
+		for (Event event : events) {
+			Object l = event.get(longField);
+			Object d = event.get(doubleField);
+			if (l != null && d != null && ((Long) l).longValue() > 50000)
+				sum += ((Double) d).doubleValue();
+		}
+		return sum;
+	}
+
+	/** The same over the columns. */
+	@Benchmark
+	public double filterSumColumns() {
+		long[] l = batch.getLongs(0);
+		long[] lPresent = batch.getPresence(0);
+		double[] d = batch.getDoubles(1);
+		long[] dPresent = batch.getPresence(1);
+		double sum = 0;
+		for (int row = 0, n = batch.size(); row < n; row++) {
+			long bit = 1L << row;
+			int word = row >>> 6;
+			if ((lPresent[word] & dPresent[word] & bit) != 0 && l[row] > 50000)
+				sum += d[row];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public EventBatch build() {
+		return EventBatch.fromEvents(schema, events);
+	}
+}
@@ -0,0 +1,171 @@
+package com.acunu.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventSchema;
+import com.acunu.analytics.SchemaEvent;
+
+/**
+ * Building and reading {@link Event}s of realistic width -- what every decoder
+ * and receiver does once per event. The schema* benchmarks do the same with
+ * {@link SchemaEvent}s, by index and through the Map interface.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventBenchmark {
+
+	private String[] names;
+	private Object[] values;
+	private Event event;
+	private Event same;
+	private EventSchema schema;
+	private SchemaEvent schemaEvent;
+	private SchemaEvent schemaNumbers;
+
+	@Setup
+	public void setup() {
+		names = BenchmarkData.fieldNames();
+		Random random = BenchmarkData.random();
+		event = BenchmarkData.wideEvent(random);
+		same = new Event();
+		same.putAll(event);
+		values = new Object[names.length];
+		for (int i = 0; i < names.length; i++)
+			values[i] = event.get(names[i]);
+		schema = BenchmarkData.wideSchema();
+		schemaEvent = schema.newEvent();
+		schemaEvent.putAll(event);
+		schemaNumbers = schemaBuildUnboxed();
+	}
+
+	/** A decoder filling in a fresh event. */
+	@Benchmark
+	public Event build() {
+		Event e = new Event();
+		for (int i = 0; i < names.length; i++)
+			e.put(names[i], values[i]);
+		return e;
+	}
+
+	/** A receiver reading every field by name. */
+	@Benchmark
+	public void getAll(Blackhole bh) {
+		for (int i = 0; i < names.length; i++)
+			bh.consume(event.get(names[i]));
+	}
+
+	/** A preprocessor reading a handful of fields. */
+	@Benchmark
+	public void getFew(Blackhole bh) {
+		bh.consume(event.get(names[0]));
+		bh.consume(event.get(names[7]));
+		bh.consume(event.get(names[23]));
+	}
+
+	/** Generic code walking the map. */
+	@Benchmark
+	public void iterate(Blackhole bh) {
+		for (Map.Entry<String, Object> entry : event.entrySet()) {
+			bh.consume(entry.getKey());
+			bh.consume(entry.getValue());
+		}
+	}
+
+	@Benchmark
+	public boolean deepEquals() {
+		return event.equals(same);
+	}
+
+	@Benchmark
+	public Event fromArray() {
+		return Event.fromArray(values);
+	}
+
+	@Benchmark
+	public SchemaEvent schemaBuild() {
+		SchemaEvent e = schema.newEvent();
+		for (int i = 0; i < values.length; i++)
+			e.put(i, values[i]);
+		return e;
+	}
+
+	@Benchmark
+	public SchemaEvent schemaBuildByName() {
+		SchemaEvent e = schema.newEvent();
+		for (int i = 0; i < names.length; i++)
+			e.put(names[i], values[i]);
+		return e;
+	}
+
+	@Benchmark
+	public void schemaGetAll(Blackhole bh) {
+		for (int i = 0; i < values.length; i++)
+			bh.consume(schemaEvent.get(i));
+	}
+
+	@Benchmark
+	public void schemaGetAllByName(Blackhole bh) {
+		for (int i = 0; i < names.length; i++)
+			bh.consume(schemaEvent.get(names[i]));
+	}
+
+	/** A decoder filling in numbers unboxed, strings as objects. */
+	@Benchmark
+	public SchemaEvent schemaBuildUnboxed() {
+		SchemaEvent e = schema.newEvent();
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] instanceof Long)
+				e.putLong(i, ((Long) values[i]).longValue());
+			else if (values[i] instanceof Double)
+				e.putDouble(i, ((Double) values[i]).doubleValue());
+			else
+				e.put(i, values[i]);
+		}
+		return e;
+	}
+
+	/** A receiver summing the numeric fields, boxed. */
+	@Benchmark
+	public double sumNumbers() {
+		double sum = 0;
+		for (int i = 0; i < names.length; i += 3)
+			sum += ((Number) event.get(names[i])).doubleValue() + ((Number) event.get(names[i + 1])).doubleValue();
+		return sum;
+	}
+
+	/** The same through the typed accessors, unboxed. */
+	@Benchmark
+	public double schemaSumNumbers() {
+		double sum = 0;
+		for (int i = 0; i < values.length; i += 3)
+			sum += schemaNumbers.getLong(i, 0) + schemaNumbers.getDouble(i + 1, 0);
+		return sum;
+	}
+
+	@Benchmark
+	public void schemaIterate(Blackhole bh) {
+		for (Map.Entry<String, Object> entry : schemaEvent.entrySet()) {
+			bh.consume(entry.getKey());
+			bh.consume(entry.getValue());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.acunu.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.analytics.Event;
+import com.acunu.util.EventBatchSerialiser;
+import com.acunu.util.EventSerialiser;
+
+/**
+ * {@link EventSerialiser} and {@link EventBatchSerialiser} against Java
+ * serialisation, which is what code without a Serialiser for events ends up
+ * using: one 30-field event, and a list of 1000. Event is not Serializable,
+ * so Java serialisation writes the same data as HashMaps. The encoded sizes
+ * are printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventSerialiserBenchmark {
+
+	public static final int EVENTS = 1000;
+
+	private Event event;
+	private HashMap<String, Object> map;
+	private List<Event> events;
+	private ArrayList<HashMap<String, Object>> maps;
+
+	private byte[] eventBytes;
+	private byte[] eventJava;
+	private byte[] batchBytes;
+	private byte[] batchJava;
+	private ByteBuffer out;
+
+	@Setup
+	public void setup() throws IOException {
+		Event[] wide = BenchmarkData.wideEvents(EVENTS);
+		event = wide[0];
+		map = new HashMap<String, Object>(event);
+		events = Arrays.asList(wide);
+		maps = new ArrayList<HashMap<String, Object>>();
+		for (Event e : wide)
+			maps.add(new HashMap<String, Object>(e));
+
+		eventBytes = bytes(EventSerialiser.serEvent.toBytes(event));
+		eventJava = javaSerialise(map);
+		batchBytes = bytes(EventBatchSerialiser.serEventBatch.toBytes(events));
+		batchJava = javaSerialise(maps);
+		out = ByteBuffer.allocate(2 * eventBytes.length);
+		System.out.println(String.format("%none event: serEvent %d bytes, Java %d bytes; %d events: serEventBatch %d bytes, Java %d bytes",
+				eventBytes.length, eventJava.length, EVENTS, batchBytes.length, batchJava.length));
+	}
+
+	private static byte[] bytes(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.remaining()];
+		buf.get(bytes);
+		return bytes;
+	}
+
+	private static byte[] javaSerialise(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object javaDeserialise(byte[] bytes) throws IOException, ClassNotFoundException {
+		return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+	}
+
+	@Benchmark
+	public int eventSizeInBytes() {
+		return EventSerialiser.serEvent.sizeInBytes(event);
+	}
+
+	@Benchmark
+	public ByteBuffer eventWrite() throws IOException {
+		out.clear();
+		EventSerialiser.serEvent.write(out, event);
+		return out;
+	}
+
+	@Benchmark
+	public ByteBuffer eventToBytes() {
+		return EventSerialiser.serEvent.toBytes(event);
+	}
+
+	@Benchmark
+	public byte[] eventToBytesJava() throws IOException {
+		return javaSerialise(map);
+	}
+
+	@Benchmark
+	public Event eventFromBytes() throws IOException {
+		return EventSerialiser.serEvent.fromBytes(ByteBuffer.wrap(eventBytes));
+	}
+
+	@Benchmark
+	public Object eventFromBytesJava() throws IOException, ClassNotFoundException {
+		return javaDeserialise(eventJava);
+	}
+
+	@Benchmark
+	public ByteBuffer batchToBytes() {
+		return EventBatchSerialiser.serEventBatch.toBytes(events);
+	}
+
+	@Benchmark
+	public byte[] batchToBytesJava() throws IOException {
+		return javaSerialise(maps);
+	}
+
+	@Benchmark
+	public List<Event> batchFromBytes() throws IOException {
+		return EventBatchSerialiser.serEventBatch.fromBytes(ByteBuffer.wrap(batchBytes));
+	}
+
+	@Benchmark
+	public Object batchFromBytesJava() throws IOException, ClassNotFoundException {
+		return javaDeserialise(batchJava);
+	}
+}
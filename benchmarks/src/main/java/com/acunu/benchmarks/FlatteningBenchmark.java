@@ -0,0 +1,125 @@
+package com.acunu.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.analytics.Context;
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventPool;
+import com.acunu.analytics.conf.SimpleConfig;
+import com.acunu.analytics.preprocess.FlatteningPreprocessor;
+
+/**
+ * {@link FlatteningPreprocessor} on 100 deeply nested events -- five levels
+ * of maps, three keys each, with a two-element array at the bottom, 487
+ * fields per event -- against the obvious recursive flattening that joins
+ * path Strings as it goes. Also with an {@link EventPool} recycling the flat
+ * events.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlatteningBenchmark {
+
+	public static final int EVENTS = 100;
+	public static final int DEPTH = 5;
+	public static final int FANOUT = 3;
+
+	private Event[] events;
+	private FlatteningPreprocessor flattener;
+	private EventPool pool;
+
+	@Setup
+	public void setup() {
+		Random random = BenchmarkData.random();
+		events = new Event[EVENTS];
+		for (int i = 0; i < EVENTS; i++) {
+			Event event = new Event();
+			event.put("id", Long.valueOf(i));
+			event.putAll(nested(random, DEPTH));
+			events[i] = event;
+		}
+		SimpleConfig config = new SimpleConfig();
+		config.put(FlatteningPreprocessor.TARGET_KEY, "table");
+		config.put(FlatteningPreprocessor.MAX_DEPTH_KEY, 16);
+		flattener = new FlatteningPreprocessor("flatten", new Context.SimpleContext(config, null, null, null));
+		pool = new EventPool(false);
+	}
+
+	private static Map<String, Object> nested(Random random, int depth) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < FANOUT; i++) {
+			String key = "level" + depth + "_" + i;
+			if (depth == 1)
+				map.put(key, new Object[] { Long.valueOf(random.nextInt(1000)), BenchmarkData.randomString(random, 4, 12) });
+			else
+				map.put(key, nested(random, depth - 1));
+		}
+		return map;
+	}
+
+	@Benchmark
+	public int flattenTrie() {
+		int fields = 0;
+		for (Event event : events)
+			fields += flattener.flatten(event).size();
+		return fields;
+	}
+
+	@Benchmark
+	public int flattenTriePooled() {
+		EventPool.setCurrent(pool);
+		try {
+			int fields = 0;
+			for (Event event : events) {
+				Event flat = flattener.flatten(event);
+				fields += flat.size();
+				pool.release(flat);
+			}
+			return fields;
+		} finally {
+			EventPool.setCurrent(null);
+		}
+	}
+
+	@Benchmark
+	public int flattenConcatenating() {
+		int fields = 0;
+		for (Event event : events) {
+			Event flat = new Event();
+			for (Map.Entry<String, Object> entry : event.entrySet())
+				concatenate(flat, entry.getKey(), entry.getValue());
+			fields += flat.size();
+		}
+		return fields;
+	}
+
+	private static void concatenate(Event flat, String path, Object value) {
+		if (value instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+				concatenate(flat, path + "." + entry.getKey(), entry.getValue());
+		} else if (value instanceof Object[]) {
+			Object[] values = (Object[]) value;
+			for (int i = 0; i < values.length; i++)
+				concatenate(flat, path + "." + i, values[i]);
+		} else {
+			flat.put(path, value);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.analytics.Context;
+import com.acunu.analytics.Decoder;
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventReceiver;
+import com.acunu.analytics.Flow;
+import com.acunu.analytics.conf.SimpleConfig;
+import com.acunu.analytics.ingest.AbstractIngester;
+import com.acunu.analytics.ingest.DecodeException;
+import com.acunu.analytics.ingest.FlowSource;
+import com.acunu.analytics.ingest.IngestException;
+
+/**
+ * End-to-end handoff through {@link AbstractIngester}: a producer enqueues
+ * batches of raw events, the consumer threads decode them and submit them to
+ * a receiver. The decoder is a pass-through so that this measures the queue,
+ * the consumer loop and the per-event dispatch rather than any parsing. One
+ * operation is one enqueued batch of {@link #batchSize} raw events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngesterHandoffBenchmark {
+
+	/** Raw events per enqueued batch. */
+	@Param({ "1", "100", "1000" })
+	public int batchSize;
+
+	public static final int BATCHES = 64;
+
+	private BenchmarkIngester ingester;
+	private Flow flow;
+	private final AtomicLong received = new AtomicLong();
+	private List<List<Object>> batches;
+	private long expected;
+
+	/** Hands each raw event (already an Event) straight through. */
+	public static class PassThroughDecoder implements Decoder {
+		public List<String> getRegisterableContentTypes() {
+			return Collections.emptyList();
+		}
+
+		public List<Event> decode(Object rawEvent) throws DecodeException {
+			return Collections.singletonList((Event) rawEvent);
+		}
+	}
+
+	public static class BenchmarkIngester extends AbstractIngester {
+		public BenchmarkIngester(Context context) throws IngestException {
+			super("benchmark", context);
+		}
+
+		@Override
+		protected FlowSource<? extends AbstractIngester> createFlowSource(Flow flow) throws IngestException {
+			throw new IngestException("Flows are driven directly by the benchmark");
+		}
+
+		public void enqueue(Flow flow, List<?> events) throws InterruptedException {
+			enqueueEventsForFlow(flow, events);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IngestException {
+		ingester = new BenchmarkIngester(new Context.SimpleContext(new SimpleConfig(), null, null, null));
+		flow = new StubFlow("handoff", new PassThroughDecoder(), new EventReceiver() {
+			public String getName() {
+				return "counter";
+			}
+
+			public void submitEvent(Event event) throws IOException {
+				received.incrementAndGet();
+			}
+
+			public void flush() throws IOException {
+			}
+		});
+
+		Event[] events = BenchmarkData.wideEvents(batchSize);
+		batches = new ArrayList<List<Object>>(BATCHES);
+		for (int b = 0; b < BATCHES; b++) {
+			List<Object> batch = new ArrayList<Object>(batchSize);
+			for (int i = 0; i < batchSize; i++)
+				batch.add(events[i]);
+			batches.add(batch);
+		}
+		expected = 0;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ingester.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCHES)
+	public long handoff() throws InterruptedException {
+		for (int b = 0; b < BATCHES; b++)
+			ingester.enqueue(flow, batches.get(b));
+		expected += (long) BATCHES * batchSize;
+		while (received.get() < expected)
+			Thread.yield();
+		return expected;
+	}
+}
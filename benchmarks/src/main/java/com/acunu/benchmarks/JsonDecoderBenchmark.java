@@ -0,0 +1,129 @@
+package com.acunu.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.conf.SimpleConfig;
+import com.acunu.analytics.ingest.DecodeException;
+import com.acunu.analytics.ingest.JsonDecoder;
+
+/**
+ * {@link JsonDecoder} on a batch of wide events, with and without a field
+ * projection, from a heap array and from a direct buffer. The read3 cases
+ * decode and then read three of the thirty fields of each event, eagerly
+ * and with lazy events.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonDecoderBenchmark {
+
+	public static final int EVENTS = 1000;
+
+	private byte[] batch;
+	private ByteBuffer directBatch;
+	private JsonDecoder decoder;
+	private JsonDecoder projecting;
+	private JsonDecoder lazy;
+	private String[] names;
+
+	@Setup
+	public void setup() {
+		batch = jsonArray(BenchmarkData.wideEvents(EVENTS)).getBytes(Charset.forName("UTF-8"));
+		directBatch = ByteBuffer.allocateDirect(batch.length);
+		directBatch.put(batch);
+		directBatch.flip();
+
+		decoder = new JsonDecoder(new SimpleConfig());
+		SimpleConfig config = new SimpleConfig();
+		names = BenchmarkData.fieldNames();
+		config.put(JsonDecoder.FIELDS_KEY, Arrays.asList(names[0], names[7], names[23]));
+		projecting = new JsonDecoder(config);
+		SimpleConfig lazyConfig = new SimpleConfig();
+		lazyConfig.put(JsonDecoder.LAZY_KEY, true);
+		lazy = new JsonDecoder(lazyConfig);
+	}
+
+	/** Render events as a JSON array. Values are numbers or plain strings. */
+	public static String jsonArray(Event[] events) {
+		StringBuilder builder = new StringBuilder();
+		builder.append('[');
+		for (int i = 0; i < events.length; i++) {
+			if (i > 0)
+				builder.append(",\n");
+			builder.append('{');
+			boolean first = true;
+			for (Map.Entry<String, Object> entry : events[i].entrySet()) {
+				if (!first)
+					builder.append(',');
+				first = false;
+				builder.append('"').append(entry.getKey()).append("\":");
+				if (entry.getValue() instanceof String)
+					builder.append('"').append(entry.getValue()).append('"');
+				else
+					builder.append(entry.getValue());
+			}
+			builder.append('}');
+		}
+		builder.append(']');
+		return builder.toString();
+	}
+
+	@Benchmark
+	public List<Event> decodeAll() throws DecodeException {
+		return decoder.decode(batch);
+	}
+
+	@Benchmark
+	public List<Event> decodeProjected() throws DecodeException {
+		return projecting.decode(batch);
+	}
+
+	@Benchmark
+	public List<Event> decodeDirectBuffer() throws DecodeException {
+		return decoder.decode(directBatch);
+	}
+
+	@Benchmark
+	public List<Event> decodeLazy() throws DecodeException {
+		return lazy.decode(batch);
+	}
+
+	@Benchmark
+	public void read3Eager(Blackhole bh) throws DecodeException {
+		read3(decoder.decode(batch), bh);
+	}
+
+	@Benchmark
+	public void read3Lazy(Blackhole bh) throws DecodeException {
+		read3(lazy.decode(batch), bh);
+	}
+
+	private void read3(List<Event> events, Blackhole bh) {
+		for (Event event : events) {
+			bh.consume(event.get(names[0]));
+			bh.consume(event.get(names[7]));
+			bh.consume(event.get(names[23]));
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.acunu.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.acunu.analytics.conf.ConfigProperties;
+import com.acunu.analytics.conf.NestedConfig;
+import com.acunu.analytics.conf.SimpleConfig;
+
+/**
+ * Property lookups through a global / ingester / flow nesting of configs, as
+ * seen by a decoder reading its flow properties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NestedConfigBenchmark {
+
+	private ConfigProperties config;
+
+	@Setup
+	public void setup() {
+		SimpleConfig global = new SimpleConfig();
+		SimpleConfig ingester = new SimpleConfig();
+		SimpleConfig flow = new SimpleConfig();
+		for (int i = 0; i < 50; i++) {
+			global.put("global_key_" + i, "value_" + i);
+			ingester.put("ingester_key_" + i, i);
+			flow.put("flow_key_" + i, (long) i);
+		}
+		global.put("consumer_threads", "4");
+		ingester.put("batch_size", 1000);
+		flow.put("charset", "UTF-8");
+		config = NestedConfig.nest(global, ingester, flow);
+	}
+
+	/** Found in the innermost config. */
+	@Benchmark
+	public String getLocalString() {
+		return config.getString("charset");
+	}
+
+	/** Has to fall through every level. */
+	@Benchmark
+	public String getGlobalString() {
+		return config.getString("global_key_17");
+	}
+
+	@Benchmark
+	public int getInteger() {
+		return config.getInteger("batch_size", 100);
+	}
+
+	@Benchmark
+	public Object getMissing() {
+		return config.get("no_such_key");
+	}
+
+	@Benchmark
+	public void asMap(Blackhole bh) {
+		bh.consume(config.asMap());
+	}
+}
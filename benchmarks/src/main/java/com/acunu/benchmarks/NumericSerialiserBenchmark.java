@@ -0,0 +1,117 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.util.NumericSerialisers;
+import com.acunu.util.Serialiser;
+
+/**
+ * The variable-length serialisers of {@link NumericSerialisers} against the
+ * fixed 8 bytes of serLong, writing and reading 1024 small counters, and
+ * delta-of-delta against serLong for 1024 regular timestamps. Bytes per value
+ * are printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NumericSerialiserBenchmark {
+
+	public static final int BATCH = 1024;
+
+	private Long[] counters;
+	private long[] timestamps;
+	private ByteBuffer buf;
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = BenchmarkData.random();
+		counters = new Long[BATCH];
+		timestamps = new long[BATCH];
+		long time = 1380000000000L;
+		for (int i = 0; i < BATCH; i++) {
+			counters[i] = Long.valueOf(random.nextInt(10000));
+			time += 1000 + random.nextInt(5);
+			timestamps[i] = time;
+		}
+		buf = ByteBuffer.allocate(10 * BATCH + 16);
+
+		int varLong = 0, ordered = 0;
+		for (Long counter : counters) {
+			varLong += NumericSerialisers.serVarLong.sizeInBytes(counter);
+			ordered += NumericSerialisers.serOrderedVarLong.sizeInBytes(counter);
+		}
+		int delta = NumericSerialisers.serDeltaOfDeltaLongs.sizeInBytes(timestamps);
+		System.out.println(String.format("%ncounters: serLong 8, serVarLong %.2f, serOrderedVarLong %.2f bytes each; "
+				+ "timestamps: serLong 8, serDeltaOfDeltaLongs %.2f bytes each", (double) varLong / BATCH,
+				(double) ordered / BATCH, (double) delta / BATCH));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long counterRoundTripLong() throws IOException {
+		return roundTrip(Serialiser.serLong);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long counterRoundTripVarLong() throws IOException {
+		return roundTrip(NumericSerialisers.serVarLong);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long counterRoundTripOrderedVarLong() throws IOException {
+		return roundTrip(NumericSerialisers.serOrderedVarLong);
+	}
+
+	private long roundTrip(Serialiser<Long> serialiser) throws IOException {
+		buf.clear();
+		for (int i = 0; i < BATCH; i++)
+			serialiser.write(buf, counters[i]);
+		buf.flip();
+		long sum = 0;
+		for (int i = 0; i < BATCH; i++)
+			sum += serialiser.fromBytes(buf);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long timestampRoundTripLong() throws IOException {
+		buf.clear();
+		for (int i = 0; i < BATCH; i++)
+			Serialiser.serLong.write(buf, timestamps[i]);
+		buf.flip();
+		long sum = 0;
+		for (int i = 0; i < BATCH; i++)
+			sum += Serialiser.serLong.fromBytes(buf);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long[] timestampRoundTripDeltaOfDelta() throws IOException {
+		buf.clear();
+		NumericSerialisers.serDeltaOfDeltaLongs.write(buf, timestamps);
+		buf.flip();
+		return NumericSerialisers.serDeltaOfDeltaLongs.fromBytes(buf);
+	}
+}
@@ -0,0 +1,140 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.acunu.util.ByteBufferComparator;
+import com.acunu.util.OrderedSerialiser;
+import com.acunu.util.OrderedSerialiser.OrderedCompositeSerialiser;
+import com.acunu.util.Serialiser;
+import com.acunu.util.Serialiser.CompositeSerialiser;
+
+/**
+ * (String, Long, Double) keys through {@link OrderedCompositeSerialiser}
+ * against {@link CompositeSerialiser}: encoding and decoding, and sorting
+ * 1024 encoded keys by their bytes against decoding each to compare tuples,
+ * which is all CompositeSerialiser's bytes allow.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderedCompositeBenchmark {
+
+	public static final int BATCH = 1024;
+
+	private final OrderedCompositeSerialiser ordered = new OrderedCompositeSerialiser(OrderedSerialiser.serOrderedString,
+			OrderedSerialiser.serOrderedLong, OrderedSerialiser.serOrderedDouble);
+
+	@SuppressWarnings("rawtypes")
+	private final CompositeSerialiser composite = new CompositeSerialiser(new Serialiser[] { Serialiser.serString,
+			Serialiser.serLong, Serialiser.serDouble });
+
+	private Object[][] keys;
+	private ByteBuffer[] orderedKeys;
+	private ByteBuffer[] compositeKeys;
+	private ByteBuffer buf;
+
+	@Setup
+	public void setup() {
+		String[] strings = BenchmarkData.strings(16, 4, 12);
+		long[] longs = BenchmarkData.longs(BATCH);
+		double[] doubles = BenchmarkData.doubles(BATCH);
+		keys = new Object[BATCH][];
+		orderedKeys = new ByteBuffer[BATCH];
+		compositeKeys = new ByteBuffer[BATCH];
+		int size = 0;
+		for (int i = 0; i < BATCH; i++) {
+			// few distinct strings, so that comparisons often go past the
+			// first component
+			keys[i] = new Object[] { strings[i % strings.length], longs[i] % 8, doubles[i] };
+			orderedKeys[i] = ordered.toBytes(keys[i]);
+			compositeKeys[i] = composite.toBytes(keys[i]);
+			size += Math.max(orderedKeys[i].remaining(), compositeKeys[i].remaining());
+		}
+		buf = ByteBuffer.allocate(size);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeOrdered() throws IOException {
+		buf.clear();
+		for (int i = 0; i < BATCH; i++)
+			ordered.write(buf, keys[i]);
+		return buf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeComposite() throws IOException {
+		buf.clear();
+		for (int i = 0; i < BATCH; i++)
+			composite.write(buf, keys[i]);
+		return buf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readOrdered(Blackhole bh) throws IOException {
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(ordered.fromBytes(orderedKeys[i].duplicate()));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readComposite(Blackhole bh) throws IOException {
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(composite.fromBytes(compositeKeys[i].duplicate()));
+	}
+
+	@Benchmark
+	public ByteBuffer[] sortOrderedBytes() {
+		ByteBuffer[] sorted = orderedKeys.clone();
+		Arrays.sort(sorted, ByteBufferComparator.INSTANCE);
+		return sorted;
+	}
+
+	@Benchmark
+	public ByteBuffer[] sortCompositeDecoding() {
+		ByteBuffer[] sorted = compositeKeys.clone();
+		Arrays.sort(sorted, decoding);
+		return sorted;
+	}
+
+	private final Comparator<ByteBuffer> decoding = new Comparator<ByteBuffer>() {
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public int compare(ByteBuffer a, ByteBuffer b) {
+			try {
+				Object[] x = composite.fromBytes(a.duplicate());
+				Object[] y = composite.fromBytes(b.duplicate());
+				for (int i = 0; i < x.length; i++) {
+					int c = ((Comparable) x[i]).compareTo(y[i]);
+					if (c != 0)
+						return c;
+				}
+				return 0;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+}
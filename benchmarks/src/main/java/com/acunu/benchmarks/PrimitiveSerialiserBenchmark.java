@@ -0,0 +1,159 @@
+package com.acunu.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.util.Serialiser;
+import com.acunu.util.SerialiserUtils;
+
+/**
+ * serLong and serDouble writing and reading a batch of values in heap,
+ * direct and memory-mapped buffers, against the former implementation, which
+ * built each value in a new byte[8] under a lock on the buffer and could only
+ * read heap buffers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrimitiveSerialiserBenchmark {
+
+	public static final int BATCH = 1024;
+
+	@Param({ "heap", "direct", "mapped" })
+	public String buffer;
+
+	private Long[] longs;
+	private Double[] doubles;
+	private ByteBuffer buf;
+
+	private RandomAccessFile file;
+	private File path;
+
+	@Setup
+	public void setup() throws IOException {
+		long[] rawLongs = BenchmarkData.longs(BATCH);
+		double[] rawDoubles = BenchmarkData.doubles(BATCH);
+		longs = new Long[BATCH];
+		doubles = new Double[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			longs[i] = rawLongs[i];
+			doubles[i] = rawDoubles[i];
+		}
+
+		int size = 16 * BATCH;
+		if (buffer.equals("heap")) {
+			buf = ByteBuffer.allocate(size);
+		} else if (buffer.equals("direct")) {
+			buf = ByteBuffer.allocateDirect(size);
+		} else {
+			path = File.createTempFile("serialiser", ".bench");
+			file = new RandomAccessFile(path, "rw");
+			buf = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		writeLongs();
+		writeDoubles();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (file != null) {
+			file.close();
+			path.delete();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeLongs() throws IOException {
+		buf.clear();
+		for (int i = 0; i < BATCH; i++)
+			Serialiser.serLong.write(buf, longs[i]);
+		return buf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long readLongs() throws IOException {
+		buf.rewind();
+		long sum = 0;
+		for (int i = 0; i < BATCH; i++)
+			sum += Serialiser.serLong.fromBytes(buf);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeDoubles() throws IOException {
+		buf.clear();
+		for (int i = 0; i < BATCH; i++)
+			Serialiser.serDouble.write(buf, doubles[i]);
+		return buf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public double readDoubles() throws IOException {
+		buf.rewind();
+		double sum = 0;
+		for (int i = 0; i < BATCH; i++)
+			sum += Serialiser.serDouble.fromBytes(buf);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeLongsLegacy() {
+		buf.clear();
+		for (int i = 0; i < BATCH; i++) {
+			byte[] bytes = new byte[8];
+			SerialiserUtils.orderedBytesOfLong(bytes, 0, longs[i]);
+			synchronized (buf) {
+				buf.put(bytes);
+			}
+		}
+		return buf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long readLongsLegacy() {
+		// the old code read through buf.array(), which only heap buffers have
+		buf.rewind();
+		byte[] bytes = new byte[8];
+		long sum = 0;
+		for (int i = 0; i < BATCH; i++) {
+			synchronized (buf) {
+				if (buf.hasArray()) {
+					int pos = buf.position();
+					sum += SerialiserUtils.longOfOrderedBytes(buf.array(), buf.arrayOffset() + pos);
+					buf.position(pos + 8);
+				} else {
+					buf.get(bytes);
+					sum += SerialiserUtils.longOfOrderedBytes(bytes, 0);
+				}
+			}
+		}
+		return sum;
+	}
+}
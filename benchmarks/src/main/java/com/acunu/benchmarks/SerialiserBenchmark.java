@@ -0,0 +1,170 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.acunu.util.Serialiser;
+import com.acunu.util.Serialiser.CompositeSerialiser;
+
+/**
+ * Throughput of the built-in serialisers in {@link Serialiser}, both writing a
+ * batch of values into one buffer (the storage path) and the per-value
+ * toBytes/fromBytes round trip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerialiserBenchmark {
+
+	public static final int BATCH = 1024;
+
+	private Long[] longs;
+	private Double[] doubles;
+	private String[] strings;
+	private Object[][] composites;
+
+	private ByteBuffer longBuf;
+	private ByteBuffer doubleBuf;
+	private ByteBuffer stringBuf;
+	private ByteBuffer compositeBuf;
+
+	@SuppressWarnings("rawtypes")
+	private final CompositeSerialiser composite = new CompositeSerialiser(new Serialiser[] { Serialiser.serString,
+			Serialiser.serLong, Serialiser.serDouble });
+
+	@Setup
+	public void setup() throws IOException {
+		long[] rawLongs = BenchmarkData.longs(BATCH);
+		double[] rawDoubles = BenchmarkData.doubles(BATCH);
+		strings = BenchmarkData.strings(BATCH, 8, 64);
+
+		longs = new Long[BATCH];
+		doubles = new Double[BATCH];
+		composites = new Object[BATCH][];
+		for (int i = 0; i < BATCH; i++) {
+			longs[i] = rawLongs[i];
+			doubles[i] = rawDoubles[i];
+			composites[i] = new Object[] { strings[i], longs[i], doubles[i] };
+		}
+
+		longBuf = ByteBuffer.allocate(8 * BATCH);
+		doubleBuf = ByteBuffer.allocate(8 * BATCH);
+		int stringSize = 0, compositeSize = 0;
+		for (int i = 0; i < BATCH; i++) {
+			stringSize += Serialiser.serString.sizeInBytes(strings[i]);
+			compositeSize += composite.sizeInBytes(composites[i]);
+		}
+		stringBuf = ByteBuffer.allocate(stringSize);
+		compositeBuf = ByteBuffer.allocate(compositeSize);
+
+		// pre-fill the buffers so that the read benchmarks have something to
+		// read.
+		writeLongs();
+		writeDoubles();
+		writeStrings();
+		writeComposites();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeLongs() throws IOException {
+		longBuf.clear();
+		for (int i = 0; i < BATCH; i++)
+			Serialiser.serLong.write(longBuf, longs[i]);
+		return longBuf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readLongs(Blackhole bh) throws IOException {
+		longBuf.rewind();
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(Serialiser.serLong.fromBytes(longBuf));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeDoubles() throws IOException {
+		doubleBuf.clear();
+		for (int i = 0; i < BATCH; i++)
+			Serialiser.serDouble.write(doubleBuf, doubles[i]);
+		return doubleBuf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readDoubles(Blackhole bh) throws IOException {
+		doubleBuf.rewind();
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(Serialiser.serDouble.fromBytes(doubleBuf));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeStrings() throws IOException {
+		stringBuf.clear();
+		for (int i = 0; i < BATCH; i++)
+			Serialiser.serString.write(stringBuf, strings[i]);
+		return stringBuf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readStrings(Blackhole bh) throws IOException {
+		stringBuf.rewind();
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(Serialiser.serString.fromBytes(stringBuf));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void sizeAndWriteStrings(Blackhole bh) throws IOException {
+		// The usual storage pattern: size, reserve, then write.
+		stringBuf.clear();
+		for (int i = 0; i < BATCH; i++) {
+			bh.consume(Serialiser.serString.sizeInBytes(strings[i]));
+			Serialiser.serString.write(stringBuf, strings[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public ByteBuffer writeComposites() throws IOException {
+		compositeBuf.clear();
+		for (int i = 0; i < BATCH; i++)
+			composite.write(compositeBuf, composites[i]);
+		return compositeBuf;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readComposites(Blackhole bh) throws IOException {
+		compositeBuf.rewind();
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(composite.fromBytes(compositeBuf));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void compositeRoundTrip(Blackhole bh) throws IOException {
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(composite.fromBytes(composite.toBytes(composites[i])));
+	}
+}
@@ -0,0 +1,466 @@
+package com.acunu.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.acunu.analytics.DoubleUserAggregate;
+import com.acunu.analytics.Event;
+import com.acunu.analytics.LongUserAggregate;
+import com.acunu.analytics.model.Field;
+import com.acunu.util.ArraySerialisers;
+import com.acunu.util.BufferPool;
+import com.acunu.util.ChunkedInputStream;
+import com.acunu.util.ChunkedOutputStream;
+import com.acunu.util.CompressingSerialiser;
+import com.acunu.util.EventBatchSerialiser;
+import com.acunu.util.EventSerialiser;
+import com.acunu.util.NumericSerialisers;
+import com.acunu.util.OrderedSerialiser;
+import com.acunu.util.Serialiser;
+import com.acunu.util.SerialiserConformance;
+import com.acunu.util.StreamingSerialiser;
+import com.acunu.util.Utf8StringSerialiser;
+
+/**
+ * Runs {@link SerialiserConformance} over every serialiser in the
+ * connectors, on samples covering empty, zero, negative, extreme and large
+ * values, and round-trips values of many chunks through the channel methods
+ * of {@link StreamingSerialiser}.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.acunu.benchmarks.SerialiserConformanceCheck
+ * </pre>
+ *
+ * Prints every problem found and exits with status 1 if there were any, so
+ * it can gate a CI job.
+ */
+public class SerialiserConformanceCheck {
+
+	private static final List<Field> NO_FIELDS = Collections.emptyList();
+
+	/** Longs in a value big enough to take many chunks on a channel. */
+	private static final int LARGE = 4 * ChunkedOutputStream.CHUNK_SIZE / 8 + 3;
+
+	private static final class LongSum extends LongUserAggregate<Long> {
+		LongSum() {
+			super(NO_FIELDS, new String[0]);
+		}
+
+		@Override
+		public long longCounterFromEvent(Comparable[] event) {
+			return ((Long) event[0]).longValue();
+		}
+
+		@Override
+		public long accumulate(long older, long newer) {
+			return older + newer;
+		}
+
+		@Override
+		public Long evalCounter(long counter) {
+			return counter;
+		}
+
+		@Override
+		public Class<Long> rawValueType() {
+			return Long.class;
+		}
+	}
+
+	private static final class DoubleSum extends DoubleUserAggregate<Double> {
+		DoubleSum() {
+			super(NO_FIELDS, new String[0]);
+		}
+
+		@Override
+		public double doubleCounterFromEvent(Comparable[] event) {
+			return ((Double) event[0]).doubleValue();
+		}
+
+		@Override
+		public double accumulate(double older, double newer) {
+			return older + newer;
+		}
+
+		@Override
+		public Double evalCounter(double counter) {
+			return counter;
+		}
+
+		@Override
+		public Class<Double> rawValueType() {
+			return Double.class;
+		}
+	}
+
+	/** Streams a long[] as a count and big-endian longs. */
+	private static final StreamingSerialiser.AbstractStreamingSerialiser<long[]> streamingLongs = new StreamingSerialiser.AbstractStreamingSerialiser<long[]>() {
+		@Override
+		protected void writeTo(OutputStream out, long[] values) throws IOException {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(values.length);
+			for (long value : values)
+				data.writeLong(value);
+			data.flush();
+		}
+
+		@Override
+		protected long[] readFrom(InputStream in) throws IOException {
+			DataInputStream data = new DataInputStream(in);
+			long[] values = new long[data.readInt()];
+			for (int i = 0; i < values.length; i++)
+				values[i] = data.readLong();
+			return values;
+		}
+
+		@Override
+		public int sizeInBytes(long[] values) {
+			return 4 + 8 * values.length;
+		}
+
+		public String toString() {
+			return "streamingLongs";
+		}
+	};
+
+	/** Strings by Unicode code point, the order of their UTF-8 bytes. */
+	private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			int i = 0;
+			int j = 0;
+			while (i < a.length() && j < b.length()) {
+				int x = a.codePointAt(i);
+				int y = b.codePointAt(j);
+				if (x != y)
+					return x < y ? -1 : 1;
+				i += Character.charCount(x);
+				j += Character.charCount(y);
+			}
+			return (a.length() - i) - (b.length() - j);
+		}
+	};
+
+	/** (long, string) keys, as tuples. */
+	private static final Comparator<Object[]> KEY_ORDER = new Comparator<Object[]>() {
+		@Override
+		public int compare(Object[] a, Object[] b) {
+			int c = ((Long) a[0]).compareTo((Long) b[0]);
+			return c != 0 ? c : CODE_POINT_ORDER.compare((String) a[1], (String) b[1]);
+		}
+	};
+
+	private static final List<String> problems = new ArrayList<String>();
+	private static int checked = 0;
+
+	public static void main(String[] args) throws IOException {
+		Random random = BenchmarkData.random();
+		List<Long> longs = longs(random);
+		List<Integer> ints = ints(random);
+		List<Double> doubles = doubles(random);
+		List<String> strings = strings(random);
+		List<long[]> longArrays = longArrays(random);
+
+		check(Serialiser.serLong, longs);
+		check(Serialiser.serDouble, doubles);
+		// serString encodes in the platform charset, which may not cover the rest
+		check(Serialiser.serString, ascii(strings));
+		check(Utf8StringSerialiser.serUtf8String, strings);
+
+		check(NumericSerialisers.serVarLong, longs);
+		check(NumericSerialisers.serVarInt, ints);
+		checkOrdered(NumericSerialisers.serOrderedVarLong, longs);
+		checkOrdered(NumericSerialisers.serOrderedVarInt, ints);
+		check(NumericSerialisers.serDeltaOfDeltaLongs, longArrays);
+
+		check(ArraySerialisers.serLongs, longArrays);
+		check(ArraySerialisers.serOrderedLongs, longArrays);
+		check(ArraySerialisers.serDoubles, doubleArrays(random));
+		check(ArraySerialisers.serOrderedDoubles, doubleArrays(random));
+		check(ArraySerialisers.serInts, intArrays(random));
+		check(ArraySerialisers.serOrderedInts, intArrays(random));
+
+		checkOrdered(OrderedSerialiser.serOrderedLong, longs);
+		checkOrdered(OrderedSerialiser.serOrderedInt, ints);
+		checkOrdered(OrderedSerialiser.serOrderedDouble, doubles);
+		checkOrdered(OrderedSerialiser.serOrderedString, strings, CODE_POINT_ORDER);
+		checkOrdered(new OrderedSerialiser.OrderedCompositeSerialiser(OrderedSerialiser.serOrderedLong,
+				OrderedSerialiser.serOrderedString), keys(longs, strings), KEY_ORDER);
+
+		CompressingSerialiser<long[]> compressedLongs = new CompressingSerialiser<long[]>(ArraySerialisers.serLongs);
+		check(compressedLongs, longArrays);
+		compressedLongs.close();
+		CompressingSerialiser<String> compressedStrings = new CompressingSerialiser<String>(Utf8StringSerialiser.serUtf8String, 16);
+		check(compressedStrings, strings);
+		compressedStrings.close();
+
+		check(EventSerialiser.serEvent, events(random));
+		check(EventBatchSerialiser.serEventBatch, batches(random));
+
+		check(new LongSum().getSerialiser(), longs);
+		check(new DoubleSum().getSerialiser(), doubles);
+
+		StreamingSerialiser.Adapter<long[]> adapter = new StreamingSerialiser.Adapter<long[]>(ArraySerialisers.serLongs);
+		check(adapter, longArrays);
+		check(streamingLongs, longArrays);
+		checkChannels(adapter, streamingLongs, longArrays);
+		checkSkip(adapter, longArrays);
+
+		for (String problem : problems)
+			System.out.println(problem);
+		if (!problems.isEmpty()) {
+			System.out.println(problems.size() + " problem(s) in " + checked + " serialiser(s)");
+			System.exit(1);
+		}
+		System.out.println(checked + " serialiser(s) conform");
+	}
+
+	private static <X> void check(Serialiser<X> ser, List<X> samples) {
+		checked++;
+		problems.addAll(SerialiserConformance.check(ser, samples));
+	}
+
+	private static <X extends Comparable<? super X>> void checkOrdered(OrderedSerialiser<X> ser, List<X> samples) {
+		checked++;
+		problems.addAll(SerialiserConformance.checkOrdered(ser, samples));
+	}
+
+	private static <X> void checkOrdered(OrderedSerialiser<X> ser, List<X> samples, Comparator<? super X> order) {
+		checked++;
+		problems.addAll(SerialiserConformance.checkOrdered(ser, samples, order));
+	}
+
+	/**
+	 * Every value written to one channel, alternating between the two
+	 * serialisers, then read back in turn. A buffer bigger than a chunk is
+	 * left in the pool first, as a serialiser that ran before would leave it.
+	 */
+	private static void checkChannels(StreamingSerialiser<long[]> a, StreamingSerialiser<long[]> b, List<long[]> values)
+			throws IOException {
+		BufferPool.release(ByteBuffer.allocate(BufferPool.MAX_POOLED_SIZE));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WritableByteChannel out = Channels.newChannel(bytes);
+		for (int i = 0; i < values.size(); i++)
+			((i % 2 == 0) ? a : b).write(out, values.get(i));
+
+		ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+		for (int i = 0; i < values.size(); i++) {
+			StreamingSerialiser<long[]> ser = (i % 2 == 0) ? a : b;
+			String where = ser + " on a channel, value " + i + " of " + values.get(i).length + " longs";
+			try {
+				if (!Arrays.equals(values.get(i), ser.read(in)))
+					problems.add(where + ": read gives a different value");
+			} catch (Exception exn) {
+				problems.add(where + ": threw " + exn);
+				return;
+			}
+		}
+		if (in.read(ByteBuffer.allocate(1)) >= 0)
+			problems.add(a + " and " + b + " on a channel: bytes left after the last value");
+	}
+
+	/**
+	 * Closing a chunked stream part way through a value skips the rest of
+	 * it, so the next value reads back whole.
+	 */
+	private static void checkSkip(StreamingSerialiser<long[]> ser, List<long[]> values) throws IOException {
+		long[] large = values.get(values.size() - 1);
+		long[] next = values.get(1);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WritableByteChannel out = Channels.newChannel(bytes);
+		ser.write(out, large);
+		ser.write(out, next);
+
+		ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+		String where = ser + " on a channel after an unread value";
+		try {
+			ChunkedInputStream chunks = new ChunkedInputStream(in);
+			chunks.read(new byte[100]);
+			chunks.close();
+			if (!Arrays.equals(next, ser.read(in)))
+				problems.add(where + ": read gives a different value");
+		} catch (Exception exn) {
+			problems.add(where + ": threw " + exn);
+		}
+	}
+
+	private static List<Long> longs(Random random) {
+		List<Long> longs = new ArrayList<Long>(Arrays.asList(0L, 1L, -1L, 63L, 64L, -64L, -65L, 127L, 128L, 255L, 256L,
+				(long) Integer.MAX_VALUE, (long) Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1,
+				Long.MIN_VALUE + 1));
+		for (int shift = 0; shift < 64; shift += 7) {
+			longs.add(1L << shift);
+			longs.add(-(1L << shift));
+		}
+		for (long value : BenchmarkData.longs(64))
+			longs.add(value);
+		for (int i = 0; i < 64; i++)
+			longs.add(random.nextLong());
+		return longs;
+	}
+
+	private static List<Integer> ints(Random random) {
+		List<Integer> ints = new ArrayList<Integer>(Arrays.asList(0, 1, -1, 63, 64, -64, -65, 127, 128, 255, 256,
+				(int) Short.MAX_VALUE, (int) Short.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE - 1,
+				Integer.MIN_VALUE + 1));
+		for (int shift = 0; shift < 32; shift += 7) {
+			ints.add(1 << shift);
+			ints.add(-(1 << shift));
+		}
+		for (int i = 0; i < 64; i++)
+			ints.add(random.nextInt());
+		return ints;
+	}
+
+	private static List<Double> doubles(Random random) {
+		List<Double> doubles = new ArrayList<Double>(Arrays.asList(0.0, -0.0, 1.0, -1.0, 0.1, -0.1, Double.MIN_VALUE,
+				-Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE, -Double.MAX_VALUE, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NaN, 1e300, -1e-300));
+		for (double value : BenchmarkData.doubles(64))
+			doubles.add(value);
+		for (int i = 0; i < 64; i++)
+			doubles.add(Double.longBitsToDouble(random.nextLong()));
+		return doubles;
+	}
+
+	private static List<String> strings(Random random) {
+		List<String> strings = new ArrayList<String>(Arrays.asList("", "a", "ab", "a\0", "a\0b", "\0", "\u007f", "\u0080",
+				"\u00e9t\u00e9", "\u07ff", "\u0800", "\u20ac", "\ue000", "\uffff", "\ud83d\ude00", "x\ud83d\ude00y",
+				"\u65e5\u672c\u8a9e"));
+		for (String s : BenchmarkData.strings(32, 0, 64))
+			strings.add(s);
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; large.length() < 100000; i++)
+			large.append(BenchmarkData.randomString(random, 8, 64)).append(i % 7 == 0 ? "\u20ac " : " ");
+		strings.add(large.toString());
+		return strings;
+	}
+
+	private static List<String> ascii(List<String> strings) {
+		List<String> ascii = new ArrayList<String>();
+		for (String s : strings)
+			if (s.matches("\\p{ASCII}*"))
+				ascii.add(s);
+		return ascii;
+	}
+
+	private static List<Object[]> keys(List<Long> longs, List<String> strings) {
+		List<Object[]> keys = new ArrayList<Object[]>();
+		for (int i = 0; i < 64; i++) {
+			// few distinct longs, so that many keys tie on the first component
+			keys.add(new Object[] { longs.get(i % 8), strings.get(i % strings.size()) });
+		}
+		return keys;
+	}
+
+	/** Empty, short and random arrays, then one of many chunks last. */
+	private static List<long[]> longArrays(Random random) {
+		List<long[]> arrays = new ArrayList<long[]>();
+		arrays.add(new long[0]);
+		arrays.add(new long[] { 0L });
+		arrays.add(new long[] { Long.MIN_VALUE, -1L, 0L, 1L, Long.MAX_VALUE });
+		long[] timestamps = new long[1000];
+		for (int i = 0; i < timestamps.length; i++)
+			timestamps[i] = 1400000000000L + 1000L * i + random.nextInt(10);
+		arrays.add(timestamps);
+		arrays.add(BenchmarkData.longs(1000));
+		long[] large = new long[LARGE];
+		long[] longs = BenchmarkData.longs(1024);
+		for (int i = 0; i < large.length; i++)
+			large[i] = longs[i & 1023];
+		arrays.add(large);
+		return arrays;
+	}
+
+	private static List<double[]> doubleArrays(Random random) {
+		List<double[]> arrays = new ArrayList<double[]>();
+		arrays.add(new double[0]);
+		arrays.add(new double[] { -0.0, 0.0, Double.NaN, Double.NEGATIVE_INFINITY, Double.MAX_VALUE });
+		arrays.add(BenchmarkData.doubles(1000));
+		double[] bits = new double[1000];
+		for (int i = 0; i < bits.length; i++)
+			bits[i] = Double.longBitsToDouble(random.nextLong());
+		arrays.add(bits);
+		return arrays;
+	}
+
+	private static List<int[]> intArrays(Random random) {
+		List<int[]> arrays = new ArrayList<int[]>();
+		arrays.add(new int[0]);
+		arrays.add(new int[] { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE });
+		int[] ints = new int[1000];
+		for (int i = 0; i < ints.length; i++)
+			ints[i] = random.nextInt();
+		arrays.add(ints);
+		return arrays;
+	}
+
+	/**
+	 * Events of every type serEvent keeps as itself: Integer and Float too,
+	 * but no Short or Byte, which come back as Long.
+	 */
+	private static List<Event> events(Random random) {
+		List<Event> events = new ArrayList<Event>();
+		events.add(new Event());
+		Event event = nested(random);
+		event.put("int", Integer.valueOf(-7));
+		event.put("float", Float.valueOf(2.5f));
+		events.add(event);
+		events.add(Event.fromArray(new Object[] { 1L, "two", 3.0, null, new Object[] { "nested" } }));
+		events.add(BenchmarkData.wideEvent(random));
+		return events;
+	}
+
+	/** Batches of events of the types serEventBatch keeps as themselves. */
+	private static List<List<Event>> batches(Random random) {
+		List<List<Event>> batches = new ArrayList<List<Event>>();
+		batches.add(new ArrayList<Event>());
+		batches.add(Arrays.asList(new Event()));
+		batches.add(Arrays.asList(nested(random), nested(random)));
+		batches.add(Arrays.asList(BenchmarkData.wideEvents(1000)));
+		return batches;
+	}
+
+	private static Event nested(Random random) {
+		Map<String, Object> inner = new HashMap<String, Object>();
+		inner.put("n", random.nextLong());
+		inner.put("s", "\u20ac" + BenchmarkData.randomString(random, 0, 16));
+		List<Object> list = new ArrayList<Object>();
+		list.add("x");
+		list.add(null);
+		list.add(inner);
+
+		Event event = new Event();
+		event.put("long", Long.MIN_VALUE);
+		event.put("double", -0.5);
+		event.put("true", Boolean.TRUE);
+		event.put("false", Boolean.FALSE);
+		event.put("null", null);
+		event.put("", "empty key");
+		event.put("cl\u00e9", "");
+		event.put("bytes", new byte[] { 0, -1, 127 });
+		event.put("map", inner);
+		event.put("array", new Object[] { 1L, "a", new Object[0], inner });
+		event.put("list", list);
+		return event;
+	}
+}
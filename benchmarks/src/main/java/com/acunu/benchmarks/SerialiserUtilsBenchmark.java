@@ -0,0 +1,81 @@
+package com.acunu.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.util.SerialiserUtils;
+
+/**
+ * The order-preserving encodings in {@link SerialiserUtils}, which underlie
+ * the key serialisers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerialiserUtilsBenchmark {
+
+	public static final int BATCH = 1024;
+
+	private long[] longs;
+	private double[] doubles;
+	private byte[] longBytes;
+	private byte[] doubleBytes;
+
+	@Setup
+	public void setup() {
+		longs = BenchmarkData.longs(BATCH);
+		doubles = BenchmarkData.doubles(BATCH);
+		longBytes = new byte[8 * BATCH];
+		doubleBytes = new byte[8 * BATCH];
+		encodeLongs();
+		encodeDoubles();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public byte[] encodeLongs() {
+		for (int i = 0; i < BATCH; i++)
+			SerialiserUtils.orderedBytesOfLong(longBytes, 8 * i, longs[i]);
+		return longBytes;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long decodeLongs() {
+		long sum = 0;
+		for (int i = 0; i < BATCH; i++)
+			sum += SerialiserUtils.longOfOrderedBytes(longBytes, 8 * i);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public byte[] encodeDoubles() {
+		for (int i = 0; i < BATCH; i++)
+			SerialiserUtils.orderedBytesOfDouble(doubleBytes, 8 * i, doubles[i]);
+		return doubleBytes;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public double decodeDoubles() {
+		double sum = 0;
+		for (int i = 0; i < BATCH; i++)
+			sum += SerialiserUtils.doubleOfOrderedBytes(doubleBytes, 8 * i);
+		return sum;
+	}
+}
@@ -0,0 +1,110 @@
+package com.acunu.benchmarks;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.util.ArraySerialisers;
+import com.acunu.util.BufferPool;
+import com.acunu.util.StreamingSerialiser;
+
+/**
+ * {@link BufferPool#toBytes} against toBytes for a 1024-long counter, and a
+ * 1M-long counter written to a channel by a {@link StreamingSerialiser} in
+ * 64KB chunks against toBytes into one 8MB buffer and writing that.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamingSerialiserBenchmark {
+
+	private long[] small;
+	private long[] large;
+
+	private final StreamingSerialiser.AbstractStreamingSerialiser<long[]> streaming = new StreamingSerialiser.AbstractStreamingSerialiser<long[]>() {
+		@Override
+		protected void writeTo(OutputStream out, long[] values) throws IOException {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(values.length);
+			for (long value : values)
+				data.writeLong(value);
+			data.flush();
+		}
+
+		@Override
+		protected long[] readFrom(InputStream in) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int sizeInBytes(long[] values) {
+			return 4 + 8 * values.length;
+		}
+	};
+
+	/** Discards everything written to it. */
+	private final WritableByteChannel sink = new WritableByteChannel() {
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	@Setup
+	public void setup() {
+		small = BenchmarkData.longs(1024);
+		large = new long[1 << 20];
+		long[] longs = BenchmarkData.longs(1024);
+		for (int i = 0; i < large.length; i++)
+			large[i] = longs[i & 1023];
+	}
+
+	@Benchmark
+	public ByteBuffer toBytesSmall() {
+		return ArraySerialisers.serLongs.toBytes(small);
+	}
+
+	@Benchmark
+	public ByteBuffer toBytesSmallPooled() {
+		return BufferPool.toBytes(ArraySerialisers.serLongs, small);
+	}
+
+	@Benchmark
+	public void writeLargeToChannelStreaming() throws IOException {
+		streaming.write(sink, large);
+	}
+
+	@Benchmark
+	public void writeLargeToChannelWhole() throws IOException {
+		sink.write(ArraySerialisers.serLongs.toBytes(large));
+	}
+}
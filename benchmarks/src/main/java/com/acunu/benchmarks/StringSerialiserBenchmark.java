@@ -0,0 +1,116 @@
+package com.acunu.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.acunu.util.Serialiser;
+import com.acunu.util.Utf8StringSerialiser;
+
+/**
+ * {@link Utf8StringSerialiser} against {@link Serialiser#serString} for the
+ * usual size-then-write pattern and for reading back, on ASCII strings and on
+ * strings where one char in four is outside ASCII, into heap and direct
+ * buffers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringSerialiserBenchmark {
+
+	public static final int BATCH = 1024;
+
+	@Param({ "ascii", "mixed" })
+	public String text;
+
+	@Param({ "heap", "direct" })
+	public String buffer;
+
+	private String[] strings;
+	private ByteBuffer legacyBuf;
+	private ByteBuffer utf8Buf;
+
+	@Setup
+	public void setup() throws IOException {
+		strings = BenchmarkData.strings(BATCH, 8, 64);
+		if (text.equals("mixed")) {
+			Random random = BenchmarkData.random();
+			for (int i = 0; i < BATCH; i++) {
+				char[] chars = strings[i].toCharArray();
+				for (int j = 0; j < chars.length; j += 4)
+					chars[j] = (char) (0xa0 + random.nextInt(0x2000));
+				strings[i] = new String(chars);
+			}
+		}
+		int legacySize = 0, utf8Size = 0;
+		for (String str : strings) {
+			legacySize += Serialiser.serString.sizeInBytes(str);
+			utf8Size += Utf8StringSerialiser.serUtf8String.sizeInBytes(str);
+		}
+		// room for any default charset
+		legacySize *= 3;
+		boolean direct = buffer.equals("direct");
+		legacyBuf = direct ? ByteBuffer.allocateDirect(legacySize) : ByteBuffer.allocate(legacySize);
+		utf8Buf = direct ? ByteBuffer.allocateDirect(utf8Size) : ByteBuffer.allocate(utf8Size);
+		// pre-fill the buffers so that the read benchmarks have something to
+		// read.
+		for (String str : strings) {
+			Serialiser.serString.write(legacyBuf, str);
+			Utf8StringSerialiser.serUtf8String.write(utf8Buf, str);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void sizeAndWriteLegacy(Blackhole bh) throws IOException {
+		legacyBuf.clear();
+		for (int i = 0; i < BATCH; i++) {
+			bh.consume(Serialiser.serString.sizeInBytes(strings[i]));
+			Serialiser.serString.write(legacyBuf, strings[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void sizeAndWriteUtf8(Blackhole bh) throws IOException {
+		utf8Buf.clear();
+		for (int i = 0; i < BATCH; i++) {
+			bh.consume(Utf8StringSerialiser.serUtf8String.sizeInBytes(strings[i]));
+			Utf8StringSerialiser.serUtf8String.write(utf8Buf, strings[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readLegacy(Blackhole bh) throws IOException {
+		legacyBuf.rewind();
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(Serialiser.serString.fromBytes(legacyBuf));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void readUtf8(Blackhole bh) throws IOException {
+		utf8Buf.rewind();
+		for (int i = 0; i < BATCH; i++)
+			bh.consume(Utf8StringSerialiser.serUtf8String.fromBytes(utf8Buf));
+	}
+}
@@ -0,0 +1,61 @@
+package com.acunu.benchmarks;
+
+import com.acunu.analytics.Decoder;
+import com.acunu.analytics.EventReceiver;
+import com.acunu.analytics.Flow;
+import com.acunu.analytics.conf.ConfigProperties;
+import com.acunu.analytics.conf.SimpleConfig;
+
+/**
+ * A flow wired straight to a given decoder and receiver, for driving an
+ * ingester without a server.
+ */
+public class StubFlow implements Flow {
+	private final String name;
+	private final Decoder decoder;
+	private final EventReceiver receiver;
+	private final ConfigProperties properties;
+
+	public StubFlow(String name, Decoder decoder, EventReceiver receiver) {
+		this(name, decoder, receiver, new SimpleConfig());
+	}
+
+	public StubFlow(String name, Decoder decoder, EventReceiver receiver, ConfigProperties properties) {
+		this.name = name;
+		this.decoder = decoder;
+		this.receiver = receiver;
+		this.properties = properties;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getIngesterName() {
+		return "benchmark";
+	}
+
+	public String getDecoderClassName() {
+		return decoder.getClass().getName();
+	}
+
+	public Decoder getDecoder() {
+		return decoder;
+	}
+
+	public String getReceiverName() {
+		return receiver.getName();
+	}
+
+	public EventReceiver getReceiver() {
+		return receiver;
+	}
+
+	public String toAQLString() {
+		return "CREATE FLOW " + name;
+	}
+
+	public ConfigProperties getProperties() {
+		return properties;
+	}
+}
@@ -0,0 +1,133 @@
+package com.acunu.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acunu.analytics.LongUserAggregate;
+import com.acunu.analytics.UserAggregate;
+import com.acunu.analytics.model.Field;
+import com.acunu.util.Serialiser;
+
+/**
+ * SUM over 4096 events through a generic UserAggregate&lt;Long, Long&gt;,
+ * which boxes every counter and every partial sum, against a
+ * {@link LongUserAggregate} through its primitive methods, and through its
+ * generic adapters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserAggregateBenchmark {
+
+	private static final List<Field> NO_FIELDS = Collections.emptyList();
+
+	private static final class BoxedSum extends UserAggregate<Long, Long> {
+		BoxedSum() {
+			super(NO_FIELDS, new String[0]);
+		}
+
+		@Override
+		public Long counterFromEvent(Comparable[] event) {
+			return (Long) event[0];
+		}
+
+		@Override
+		public Long accumulate(Long older, Long newer) {
+			return older + newer;
+		}
+
+		@Override
+		public Long evalCounter(Long counter) {
+			return counter;
+		}
+
+		@Override
+		public Serialiser<Long> getSerialiser() {
+			return Serialiser.serLong;
+		}
+
+		@Override
+		public Class<Long> rawValueType() {
+			return Long.class;
+		}
+	}
+
+	private static final class PrimitiveSum extends LongUserAggregate<Long> {
+		PrimitiveSum() {
+			super(NO_FIELDS, new String[0]);
+		}
+
+		@Override
+		public long longCounterFromEvent(Comparable[] event) {
+			return ((Long) event[0]).longValue();
+		}
+
+		@Override
+		public long accumulate(long older, long newer) {
+			return older + newer;
+		}
+
+		@Override
+		public Long evalCounter(long counter) {
+			return counter;
+		}
+
+		@Override
+		public Class<Long> rawValueType() {
+			return Long.class;
+		}
+	}
+
+	private final BoxedSum boxed = new BoxedSum();
+	private final PrimitiveSum primitive = new PrimitiveSum();
+	private final UserAggregate<Long, Long> adapted = primitive;
+
+	private Comparable[][] events;
+
+	@Setup
+	public void setup() {
+		long[] values = BenchmarkData.longs(4096);
+		events = new Comparable[values.length][];
+		for (int i = 0; i < values.length; i++)
+			events[i] = new Comparable[] { values[i] };
+	}
+
+	@Benchmark
+	public Long sumBoxed() {
+		Long sum = boxed.counterFromEvent(events[0]);
+		for (int i = 1; i < events.length; i++)
+			sum = boxed.accumulate(sum, boxed.counterFromEvent(events[i]));
+		return boxed.evalCounter(sum);
+	}
+
+	@Benchmark
+	public long sumPrimitive() {
+		long sum = primitive.longCounterFromEvent(events[0]);
+		for (int i = 1; i < events.length; i++)
+			sum = primitive.accumulate(sum, primitive.longCounterFromEvent(events[i]));
+		return sum;
+	}
+
+	@Benchmark
+	public Long sumAdapted() {
+		Long sum = adapted.counterFromEvent(events[0]);
+		for (int i = 1; i < events.length; i++)
+			sum = adapted.accumulate(sum, adapted.counterFromEvent(events[i]));
+		return adapted.evalCounter(sum);
+	}
+}
@@ -0,0 +1,19 @@
+package com.acunu.analytics;
+
+import com.acunu.analytics.ingest.DecodeException;
+
+/**
+ * A decoder that can decode a raw event straight into a columnar
+ * {@link EventBatch}, for receivers that take batches.
+ */
+public interface BatchDecoder extends Decoder {
+
+	/**
+	 * Decode a raw event into a batch.
+	 * 
+	 * @return the events, in the order they should be ingested.
+	 * @throws DecodeException
+	 *             when the raw event is invalid.
+	 */
+	public EventBatch decodeBatch(Object rawEvent) throws DecodeException;
+}
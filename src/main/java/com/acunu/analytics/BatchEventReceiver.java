@@ -0,0 +1,26 @@
+package com.acunu.analytics;
+
+import java.io.IOException;
+
+/**
+ * An event receiver that can also take a whole columnar {@link EventBatch} at
+ * once. The ingester passes batches to it when the flow's decoder is a
+ * {@link BatchDecoder}, in place of decoding and submitting events one at a
+ * time.
+ *
+ * Receivers opt in by implementing this interface; Preprocessors do not by
+ * default. An exception from submitBatch loses the rest of the batch, so a
+ * receiver that goes through the rows should log and skip a row it fails on,
+ * as the ingester does for single events.
+ */
+public interface BatchEventReceiver extends EventReceiver {
+
+	/**
+	 * Register a batch of events, in row order. The batch is only valid for
+	 * the duration of the call.
+	 * 
+	 * @throws IOException
+	 *             if there's a problem storing the events in the back-end.
+	 */
+	void submitBatch(EventBatch batch) throws IOException;
+}
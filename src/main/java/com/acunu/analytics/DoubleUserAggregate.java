@@ -0,0 +1,120 @@
+package com.acunu.analytics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.acunu.analytics.model.Field;
+import com.acunu.util.Serialiser;
+import com.acunu.util.SerialiserUtils;
+
+/**
+ * A {@link UserAggregate} whose counter is a single double, as for SUM, MIN
+ * and MAX of decimals. Subclasses implement the primitive methods
+ * {@link #doubleCounterFromEvent}, {@link #accumulate(double, double)} and
+ * {@link #evalCounter(double)}; callers that know the aggregate is a
+ * DoubleUserAggregate use them to accumulate with no boxing and no
+ * allocation.
+ *
+ * The generic methods of UserAggregate are final adapters over the
+ * primitive ones, as in {@link LongUserAggregate}.
+ *
+ * Counters are serialised in the 8 bytes of {@link Serialiser#serDouble};
+ * override {@link #counterSize}, {@link #writeCounter} and
+ * {@link #readCounter} together for another encoding.
+ */
+public abstract class DoubleUserAggregate<X extends Comparable<X>> extends UserAggregate<X, Double> {
+
+	private final Serialiser<Double> serialiser = new Serialiser.AbstractLookaheadSerialiser<Double>() {
+		@Override
+		public Double fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			return readCounter(buf);
+		}
+
+		@Override
+		public int sizeInBytes(Double value) {
+			return counterSize(value);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Double value) throws IOException {
+			writeCounter(buf, value);
+		}
+
+		public String toString() {
+			return DoubleUserAggregate.this.getClass().getName() + ".counters";
+		}
+	};
+
+	public DoubleUserAggregate(List<Field> fields, String[] args) {
+		super(fields, args);
+	}
+
+	/**
+	 * Produce a counter from an event.
+	 */
+	public abstract double doubleCounterFromEvent(Comparable[] event);
+
+	/**
+	 * Accumulate two counters together.
+	 */
+	public abstract double accumulate(double older, double newer);
+
+	/**
+	 * Extract the final value from an aggregated counter.
+	 */
+	public abstract X evalCounter(double counter);
+
+	/**
+	 * How many bytes {@link #writeCounter} takes for a counter.
+	 */
+	public int counterSize(double counter) {
+		return 8;
+	}
+
+	/**
+	 * Write a counter, without rewinding.
+	 */
+	public void writeCounter(ByteBuffer buf, double counter) throws IOException {
+		SerialiserUtils.putOrderedDouble(buf, counter);
+	}
+
+	/**
+	 * Read a counter written by {@link #writeCounter}, without rewinding.
+	 */
+	public double readCounter(ByteBuffer buf) throws IOException {
+		return SerialiserUtils.getOrderedDouble(buf);
+	}
+
+	@Override
+	public final Double counterFromEvent(Comparable[] event) {
+		return doubleCounterFromEvent(event);
+	}
+
+	@Override
+	public final Double accumulate(Double older, Double newer) {
+		if (older == null)
+			return newer;
+		if (newer == null)
+			return older;
+		return accumulate(older.doubleValue(), newer.doubleValue());
+	}
+
+	@Override
+	public final X evalCounter(Double counter) {
+		if (counter == null)
+			return null;
+		return evalCounter(counter.doubleValue());
+	}
+
+	/**
+	 * A serialiser over {@link #counterSize}, {@link #writeCounter} and
+	 * {@link #readCounter}.
+	 */
+	@Override
+	public final Serialiser<Double> getSerialiser() {
+		return serialiser;
+	}
+}
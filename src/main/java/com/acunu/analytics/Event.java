@@ -21,6 +21,12 @@ public class Event implements Map<String, Object> {
 
 	private final Map<String, Object> data;
 
+	/** The pool this event was taken from, if any. */
+	EventPool pool;
+
+	/** Whether the event is out of its pool. */
+	boolean acquired;
+
 	public Event() {
 		this(new HashMap<String, Object>());
 	}
@@ -41,6 +47,15 @@ public class Event implements Map<String, Object> {
 		return event;
 	}
 
+	/**
+	 * A copy of this event that belongs to no {@link EventPool}, for
+	 * receivers that keep events after submitEvent returns. Values are shared,
+	 * not copied.
+	 */
+	public Event copy() {
+		return new Event(new HashMap<String, Object>(data));
+	}
+
 	@Override
 	public String toString() {
 		return data.toString();
@@ -70,6 +85,54 @@ public class Event implements Map<String, Object> {
 		return data.put(key, value);
 	}
 
+	/**
+	 * A numeric field as a long, or the default if it is not set or null.
+	 * Strings are parsed.
+	 */
+	public long getLong(String key, long defaultValue) {
+		return asLong(get(key), defaultValue);
+	}
+
+	/**
+	 * A numeric field as a double, or the default if it is not set or null.
+	 * Strings are parsed.
+	 */
+	public double getDouble(String key, double defaultValue) {
+		return asDouble(get(key), defaultValue);
+	}
+
+	/**
+	 * Set a field to a long. Reads through the map see a Long.
+	 */
+	public void putLong(String key, long value) {
+		put(key, Long.valueOf(value));
+	}
+
+	/**
+	 * Set a field to a double. Reads through the map see a Double.
+	 */
+	public void putDouble(String key, double value) {
+		put(key, Double.valueOf(value));
+	}
+
+	static long asLong(Object value, long defaultValue) {
+		if (value == null)
+			return defaultValue;
+		else if (value instanceof Number)
+			return ((Number) value).longValue();
+		else
+			return Long.parseLong(value.toString());
+	}
+
+	static double asDouble(Object value, double defaultValue) {
+		if (value == null)
+			return defaultValue;
+		else if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		else
+			return Double.parseDouble(value.toString());
+	}
+
 	public Object remove(Object key) {
 		return data.remove(key);
 	}
@@ -0,0 +1,403 @@
+package com.acunu.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.acunu.analytics.model.DimensionType;
+
+/**
+ * A batch of events over one {@link EventSchema}, stored by column rather
+ * than by row, so that filters and aggregates can run as plain loops over
+ * arrays.
+ *
+ * Each field is one column: LONG and TIME fields a long[], DOUBLE and DECIMAL
+ * a double[], and the string types an int[] of codes into a per-column
+ * dictionary of distinct values. Every column has a presence bitmap, bit
+ * (row % 64) of word (row / 64), set for the rows that have a value.
+ *
+ * The column arrays are exposed as they are, for speed: they may be longer
+ * than {@link #size()}, and are replaced when the batch grows, so fetch them
+ * again after adding rows. Values in rows without the presence bit are
+ * undefined.
+ *
+ * Unlike an Event, a batch has no room for keys outside the schema, and a
+ * null value is the same as no value. Values of the wrong type are converted
+ * to the column's type, parsing strings if need be.
+ *
+ * Not thread-safe.
+ */
+public class EventBatch {
+
+	private static final int LONG = 0;
+	private static final int DOUBLE = 1;
+	private static final int STRING = 2;
+
+	private final EventSchema schema;
+	private final int[] kinds;
+	private final long[][] longs;
+	private final double[][] doubles;
+	private final int[][] codes;
+	private final Dictionary[] dictionaries;
+	private final long[][] presence;
+
+	private int size;
+	private int capacity;
+
+	public EventBatch(EventSchema schema) {
+		this(schema, 64);
+	}
+
+	public EventBatch(EventSchema schema, int capacity) {
+		int n = schema.size();
+		this.schema = schema;
+		this.capacity = Math.max(capacity, 1);
+		this.kinds = new int[n];
+		this.longs = new long[n][];
+		this.doubles = new double[n][];
+		this.codes = new int[n][];
+		this.dictionaries = new Dictionary[n];
+		this.presence = new long[n][];
+		for (int i = 0; i < n; i++) {
+			DimensionType type = schema.getType(i);
+			if (type.rawType == Long.class) {
+				kinds[i] = LONG;
+				longs[i] = new long[this.capacity];
+			} else if (type.rawType == Double.class) {
+				kinds[i] = DOUBLE;
+				doubles[i] = new double[this.capacity];
+			} else {
+				kinds[i] = STRING;
+				codes[i] = new int[this.capacity];
+				dictionaries[i] = new Dictionary();
+			}
+			presence[i] = new long[words(this.capacity)];
+		}
+	}
+
+	/**
+	 * A batch holding the given events. Keys outside the schema are dropped.
+	 */
+	public static EventBatch fromEvents(EventSchema schema, List<? extends Map<String, ?>> events) {
+		EventBatch batch = new EventBatch(schema, events.size());
+		for (Map<String, ?> event : events)
+			batch.addEvent(event);
+		return batch;
+	}
+
+	public EventSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Number of rows.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove all rows, keeping the arrays for reuse.
+	 */
+	public void clear() {
+		for (int i = 0; i < presence.length; i++) {
+			Arrays.fill(presence[i], 0, words(size), 0L);
+			if (dictionaries[i] != null)
+				dictionaries[i].clear();
+		}
+		size = 0;
+	}
+
+	/**
+	 * Add an empty row.
+	 *
+	 * @return its index.
+	 */
+	public int addRow() {
+		if (size == capacity)
+			grow(capacity * 2);
+		return size++;
+	}
+
+	/**
+	 * Add a row holding the schema fields of an event.
+	 *
+	 * @return its index.
+	 */
+	public int addEvent(Map<String, ?> event) {
+		int row = addRow();
+		if (event instanceof SchemaEvent && ((SchemaEvent) event).getSchema() == schema) {
+			// straight from the slots, without boxing numbers
+			SchemaEvent from = (SchemaEvent) event;
+			for (int i = 0; i < kinds.length; i++) {
+				if (!from.isSet(i))
+					continue;
+				if (kinds[i] == LONG)
+					setLong(row, i, from.getLong(i, 0L));
+				else if (kinds[i] == DOUBLE)
+					setDouble(row, i, from.getDouble(i, 0.0));
+				else
+					set(row, i, from.get(i));
+			}
+		} else {
+			for (int i = 0; i < kinds.length; i++)
+				set(row, i, event.get(schema.getName(i)));
+		}
+		return row;
+	}
+
+	/**
+	 * The row as an event over the schema.
+	 */
+	public SchemaEvent getEvent(int row) {
+		checkRow(row);
+		SchemaEvent event = schema.newEvent();
+		for (int i = 0; i < kinds.length; i++) {
+			if (!isSet(row, i))
+				continue;
+			if (kinds[i] == LONG)
+				event.putLong(i, longs[i][row]);
+			else if (kinds[i] == DOUBLE)
+				event.putDouble(i, doubles[i][row]);
+			else
+				event.put(i, dictionaries[i].values[codes[i][row]]);
+		}
+		return event;
+	}
+
+	/**
+	 * All the rows as events.
+	 */
+	public List<Event> toEvents() {
+		List<Event> events = new ArrayList<Event>(size);
+		for (int row = 0; row < size; row++)
+			events.add(getEvent(row));
+		return events;
+	}
+
+	public boolean isSet(int row, int column) {
+		checkRow(row);
+		return (presence[column][row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * Clear a value.
+	 */
+	public void unset(int row, int column) {
+		checkRow(row);
+		presence[column][row >>> 6] &= ~(1L << row);
+	}
+
+	public void setLong(int row, int column, long value) {
+		checkRow(row);
+		switch (kinds[column]) {
+		case LONG:
+			longs[column][row] = value;
+			break;
+		case DOUBLE:
+			doubles[column][row] = value;
+			break;
+		default:
+			codes[column][row] = dictionaries[column].code(String.valueOf(value));
+		}
+		presence[column][row >>> 6] |= 1L << row;
+	}
+
+	public void setDouble(int row, int column, double value) {
+		checkRow(row);
+		switch (kinds[column]) {
+		case LONG:
+			longs[column][row] = (long) value;
+			break;
+		case DOUBLE:
+			doubles[column][row] = value;
+			break;
+		default:
+			codes[column][row] = dictionaries[column].code(String.valueOf(value));
+		}
+		presence[column][row >>> 6] |= 1L << row;
+	}
+
+	/**
+	 * Set a value of any type, converting it to the column's type. Null
+	 * clears the value.
+	 */
+	public void set(int row, int column, Object value) {
+		if (value == null) {
+			unset(row, column);
+			return;
+		}
+		switch (kinds[column]) {
+		case LONG:
+			setLong(row, column, Event.asLong(value, 0L));
+			break;
+		case DOUBLE:
+			setDouble(row, column, Event.asDouble(value, 0.0));
+			break;
+		default:
+			checkRow(row);
+			codes[column][row] = dictionaries[column].code(value.toString());
+			presence[column][row >>> 6] |= 1L << row;
+		}
+	}
+
+	public long getLong(int row, int column, long defaultValue) {
+		if (!isSet(row, column))
+			return defaultValue;
+		switch (kinds[column]) {
+		case LONG:
+			return longs[column][row];
+		case DOUBLE:
+			return (long) doubles[column][row];
+		default:
+			return Long.parseLong(dictionaries[column].values[codes[column][row]]);
+		}
+	}
+
+	public double getDouble(int row, int column, double defaultValue) {
+		if (!isSet(row, column))
+			return defaultValue;
+		switch (kinds[column]) {
+		case LONG:
+			return longs[column][row];
+		case DOUBLE:
+			return doubles[column][row];
+		default:
+			return Double.parseDouble(dictionaries[column].values[codes[column][row]]);
+		}
+	}
+
+	/**
+	 * A value as an object: Long, Double or String, or null if not set.
+	 */
+	public Object get(int row, int column) {
+		if (!isSet(row, column))
+			return null;
+		switch (kinds[column]) {
+		case LONG:
+			return Long.valueOf(longs[column][row]);
+		case DOUBLE:
+			return Double.valueOf(doubles[column][row]);
+		default:
+			return dictionaries[column].values[codes[column][row]];
+		}
+	}
+
+	/**
+	 * The values of a LONG or TIME column.
+	 */
+	public long[] getLongs(int column) {
+		if (kinds[column] != LONG)
+			throw new IllegalArgumentException("Field " + schema.getName(column) + " is " + schema.getType(column) + ", not a long");
+		return longs[column];
+	}
+
+	/**
+	 * The values of a DOUBLE or DECIMAL column.
+	 */
+	public double[] getDoubles(int column) {
+		if (kinds[column] != DOUBLE)
+			throw new IllegalArgumentException("Field " + schema.getName(column) + " is " + schema.getType(column) + ", not a double");
+		return doubles[column];
+	}
+
+	/**
+	 * The dictionary codes of a string column: indexes into
+	 * {@link #getDictionary(int)}.
+	 */
+	public int[] getCodes(int column) {
+		if (kinds[column] != STRING)
+			throw new IllegalArgumentException("Field " + schema.getName(column) + " is " + schema.getType(column) + ", not a string");
+		return codes[column];
+	}
+
+	/**
+	 * The distinct values of a string column, by code. Only the first
+	 * {@link #getDictionarySize(int)} entries are used.
+	 */
+	public String[] getDictionary(int column) {
+		getCodes(column);
+		return dictionaries[column].values;
+	}
+
+	public int getDictionarySize(int column) {
+		getCodes(column);
+		return dictionaries[column].size;
+	}
+
+	/**
+	 * The code of a value in a string column's dictionary, or -1 if no row
+	 * has it -- for filtering on a string without comparing strings.
+	 */
+	public int getCode(int column, String value) {
+		getCodes(column);
+		Integer code = dictionaries[column].ids.get(value);
+		return (code == null) ? -1 : code.intValue();
+	}
+
+	/**
+	 * The presence bitmap of a column.
+	 */
+	public long[] getPresence(int column) {
+		return presence[column];
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+	}
+
+	private void grow(int newCapacity) {
+		for (int i = 0; i < kinds.length; i++) {
+			if (longs[i] != null)
+				longs[i] = Arrays.copyOf(longs[i], newCapacity);
+			if (doubles[i] != null)
+				doubles[i] = Arrays.copyOf(doubles[i], newCapacity);
+			if (codes[i] != null)
+				codes[i] = Arrays.copyOf(codes[i], newCapacity);
+			presence[i] = Arrays.copyOf(presence[i], words(newCapacity));
+		}
+		capacity = newCapacity;
+	}
+
+	private static int words(int rows) {
+		return (rows + 63) >>> 6;
+	}
+
+	@Override
+	public String toString() {
+		return "EventBatch(" + size + " rows of " + schema + ")";
+	}
+
+	/**
+	 * Distinct values of a string column, numbered in order of first use.
+	 */
+	private static final class Dictionary {
+		String[] values = new String[16];
+		int size;
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		int code(String value) {
+			Integer id = ids.get(value);
+			if (id != null)
+				return id.intValue();
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size] = value;
+			ids.put(value, size);
+			return size++;
+		}
+
+		void clear() {
+			Arrays.fill(values, 0, size, null);
+			ids.clear();
+			size = 0;
+		}
+	}
+}
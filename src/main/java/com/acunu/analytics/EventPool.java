@@ -0,0 +1,169 @@
+package com.acunu.analytics;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A per-thread pool of events, so that an ingester thread can reuse the same
+ * few events (and their maps) rather than making garbage of every one.
+ *
+ * Decoders get events from {@link #newEvent()} and
+ * {@link #newEvent(EventSchema)}, which take them from the current thread's
+ * pool if it has one and otherwise just allocate. The ingester releases each
+ * event once the receiver's submitEvent has returned; the event is then
+ * cleared and handed out again. Receivers that keep hold of an event after
+ * submitEvent returns must keep a {@link Event#copy()} instead.
+ *
+ * Pooling is opt-in per ingester. With debug logging enabled for this class,
+ * the pool records where each event was taken, and reports those not given
+ * back at {@link #checkLeaks()}.
+ *
+ * Not thread-safe: each pool belongs to one thread.
+ */
+public final class EventPool {
+
+	private static Logger logger = LoggerFactory.getLogger(EventPool.class);
+
+	/** Most free events to keep, of each kind. */
+	public static final int MAX_POOLED = 1024;
+
+	private static final ThreadLocal<EventPool> current = new ThreadLocal<EventPool>();
+
+	private final boolean debug;
+	private final List<Event> free = new ArrayList<Event>();
+	private final Map<EventSchema, List<SchemaEvent>> freeBySchema = new IdentityHashMap<EventSchema, List<SchemaEvent>>();
+
+	/** Events handed out and not yet released. */
+	private int outstanding;
+
+	/** Where each outstanding event was taken, in debug mode. */
+	private final Map<Event, Throwable> acquiredAt;
+
+	public EventPool() {
+		this(logger.isDebugEnabled());
+	}
+
+	public EventPool(boolean debug) {
+		this.debug = debug;
+		this.acquiredAt = debug ? new IdentityHashMap<Event, Throwable>() : null;
+	}
+
+	/**
+	 * The pool of the current thread, or null if it does not pool events.
+	 */
+	public static EventPool current() {
+		return current.get();
+	}
+
+	/**
+	 * Make this the pool of the current thread; null to stop pooling.
+	 */
+	public static void setCurrent(EventPool pool) {
+		if (pool == null)
+			current.remove();
+		else
+			current.set(pool);
+	}
+
+	/**
+	 * An empty event, from the current thread's pool if there is one.
+	 */
+	public static Event newEvent() {
+		EventPool pool = current.get();
+		return (pool == null) ? new Event() : pool.acquire();
+	}
+
+	/**
+	 * An empty event over a schema, from the current thread's pool if there
+	 * is one.
+	 */
+	public static SchemaEvent newEvent(EventSchema schema) {
+		EventPool pool = current.get();
+		return (pool == null) ? schema.newEvent() : pool.acquire(schema);
+	}
+
+	public Event acquire() {
+		int n = free.size();
+		return taken(n == 0 ? new Event() : free.remove(n - 1));
+	}
+
+	public SchemaEvent acquire(EventSchema schema) {
+		List<SchemaEvent> events = freeBySchema.get(schema);
+		int n = (events == null) ? 0 : events.size();
+		return taken(n == 0 ? schema.newEvent() : events.remove(n - 1));
+	}
+
+	private <E extends Event> E taken(E event) {
+		event.pool = this;
+		event.acquired = true;
+		outstanding++;
+		if (debug)
+			acquiredAt.put(event, new Throwable("Event acquired here"));
+		return event;
+	}
+
+	/**
+	 * Clear an event and return it to the pool. Events from other pools, or
+	 * from none, are left alone.
+	 *
+	 * @throws IllegalStateException
+	 *             if the event has already been released.
+	 */
+	public void release(Event event) {
+		if (event.pool != this)
+			return;
+		if (!event.acquired)
+			throw new IllegalStateException("Event released twice");
+		event.acquired = false;
+		if (outstanding > 0)
+			outstanding--;
+		if (debug)
+			acquiredAt.remove(event);
+
+		event.clear();
+		if (event instanceof SchemaEvent) {
+			SchemaEvent schemaEvent = (SchemaEvent) event;
+			List<SchemaEvent> events = freeBySchema.get(schemaEvent.getSchema());
+			if (events == null) {
+				events = new ArrayList<SchemaEvent>();
+				freeBySchema.put(schemaEvent.getSchema(), events);
+			}
+			if (events.size() < MAX_POOLED)
+				events.add(schemaEvent);
+		} else if (free.size() < MAX_POOLED) {
+			free.add(event);
+		}
+	}
+
+	/**
+	 * Events handed out and not yet released.
+	 */
+	public int getOutstanding() {
+		return outstanding;
+	}
+
+	/**
+	 * Report any events handed out and not released since the last check,
+	 * then forget them. Call when every event taken should have come back.
+	 *
+	 * @return the number of events leaked.
+	 */
+	public int checkLeaks() {
+		int leaked = outstanding;
+		if (leaked == 0)
+			return 0;
+		if (debug) {
+			for (Throwable where : acquiredAt.values())
+				logger.debug("Pooled event not released", where);
+			acquiredAt.clear();
+		}
+		logger.warn("{} pooled events were not released{}", leaked, debug ? "" : "; enable debug logging for EventPool to see where they were acquired");
+		outstanding = 0;
+		return leaked;
+	}
+}
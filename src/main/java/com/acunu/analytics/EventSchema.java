@@ -0,0 +1,75 @@
+package com.acunu.analytics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.acunu.analytics.model.DimensionType;
+import com.acunu.analytics.model.Field;
+
+/**
+ * An ordered set of fields, shared by all the {@link SchemaEvent}s built
+ * against it. Maps field names to slot positions. Immutable.
+ */
+public final class EventSchema {
+
+	private final List<Field> fields;
+	private final String[] names;
+	private final DimensionType[] types;
+	private final Map<String, Integer> indexes;
+
+	public EventSchema(List<? extends Field> fields) {
+		this.fields = Collections.unmodifiableList(new ArrayList<Field>(fields));
+		this.names = new String[fields.size()];
+		this.types = new DimensionType[fields.size()];
+		this.indexes = new HashMap<String, Integer>(fields.size() * 2);
+		for (int i = 0; i < names.length; i++) {
+			Field field = fields.get(i);
+			names[i] = field.getName();
+			types[i] = field.getDimensionType();
+			if (indexes.put(names[i], i) != null)
+				throw new IllegalArgumentException("Field '" + names[i] + "' appears twice in schema");
+		}
+	}
+
+	/**
+	 * Number of fields.
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	public List<Field> getFields() {
+		return fields;
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	public DimensionType getType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * Position of the named field, or -1 if it is not in the schema.
+	 */
+	public int indexOf(Object name) {
+		Integer index = indexes.get(name);
+		return (index == null) ? -1 : index.intValue();
+	}
+
+	/**
+	 * A new, empty event with a slot for each field.
+	 */
+	public SchemaEvent newEvent() {
+		return new SchemaEvent(this);
+	}
+
+	@Override
+	public String toString() {
+		return fields.toString();
+	}
+}
@@ -0,0 +1,19 @@
+package com.acunu.analytics;
+
+/**
+ * Where a {@link StreamingDecoder} puts events as it decodes them.
+ *
+ * A sink may itself decode, on the same thread, while the decoder feeding it
+ * is still under way, e.g. a preprocessor unpacking a nested payload. The
+ * decoders of this library take their per-thread buffers and parsers for the
+ * length of a decode and give them back after, so a nested decode gets its
+ * own rather than disturbing the outer one.
+ */
+public interface EventSink {
+
+	/**
+	 * Take the next decoded event. Events arrive in the order they should be
+	 * ingested.
+	 */
+	public void accept(Event event);
+}
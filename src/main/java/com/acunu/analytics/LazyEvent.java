@@ -0,0 +1,319 @@
+package com.acunu.analytics;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An event over the raw bytes it was decoded from, parsing each value only
+ * when it is first read. The decoder finds where each field's value lies; a
+ * receiver or preprocessor that looks at three fields of thirty pays for
+ * parsing three.
+ *
+ * Parsed values are cached. Iterating the entries parses values only as each
+ * entry's value is read, so walking the keys costs nothing. Fields may be
+ * changed, added and removed as with any Map; a value that cannot be parsed
+ * when read throws IllegalArgumentException.
+ *
+ * Unlike other Maps, put and remove return null for a field whose value has
+ * not been parsed yet, rather than parse it only to return it: overwriting or
+ * dropping fields unread costs nothing. Read the value first if it is
+ * needed.
+ *
+ * The event keeps its own copy of its bytes, never a reference to the
+ * decoder's input buffer. Not thread-safe.
+ */
+public class LazyEvent extends Event {
+
+	/**
+	 * Turns the raw bytes of one value into an object. Called on the thread
+	 * reading the event, possibly while the decoder is still running.
+	 */
+	public interface ValueParser {
+		/**
+		 * @throws IllegalArgumentException
+		 *             if the bytes are not a valid value.
+		 */
+		Object parse(byte[] bytes, int offset, int length);
+	}
+
+	private final Fields fields;
+
+	/**
+	 * @param bytes
+	 *            the raw bytes, owned by the event from now on.
+	 * @param keys
+	 *            field names, without duplicates.
+	 * @param offsets
+	 *            start of each field's value in bytes.
+	 * @param lengths
+	 *            length of each field's value.
+	 * @param count
+	 *            number of fields; the arrays may be longer.
+	 */
+	public LazyEvent(byte[] bytes, String[] keys, int[] offsets, int[] lengths, int count, ValueParser parser) {
+		this(new Fields(bytes, keys, offsets, lengths, count, parser));
+	}
+
+	private LazyEvent(Fields fields) {
+		super(fields);
+		this.fields = fields;
+	}
+
+	/**
+	 * Whether a field's value has been parsed yet.
+	 */
+	public boolean isParsed(String key) {
+		int index = fields.indexOf(key);
+		return index < 0 || fields.values[index] != null;
+	}
+
+	/** Marks a field parsed as null. */
+	private static final Object NULL = new Object();
+
+	/** Marks a field removed. */
+	private static final Object REMOVED = new Object();
+
+	/**
+	 * The map behind the event: fields from the bytes, parsed on demand, and
+	 * fields added since in a HashMap.
+	 */
+	private static final class Fields extends AbstractMap<String, Object> {
+		final byte[] bytes;
+		final String[] keys;
+		final int[] offsets;
+		final int[] lengths;
+		final int n;
+		final ValueParser parser;
+
+		/** Parsed values; null until parsed. */
+		final Object[] values;
+		int count;
+		Map<String, Object> extra;
+
+		Fields(byte[] bytes, String[] keys, int[] offsets, int[] lengths, int count, ValueParser parser) {
+			this.bytes = bytes;
+			this.keys = keys;
+			this.offsets = offsets;
+			this.lengths = lengths;
+			this.n = count;
+			this.count = count;
+			this.parser = parser;
+			this.values = new Object[count];
+		}
+
+		int indexOf(Object key) {
+			// keys are usually canonical, so try identity first
+			for (int i = 0; i < n; i++)
+				if (keys[i] == key)
+					return i;
+			if (key == null)
+				return -1;
+			int hash = key.hashCode();
+			for (int i = 0; i < n; i++)
+				if (keys[i].hashCode() == hash && keys[i].equals(key))
+					return i;
+			return -1;
+		}
+
+		Object value(int index) {
+			Object value = values[index];
+			if (value == null) {
+				value = parser.parse(bytes, offsets[index], lengths[index]);
+				values[index] = (value == null) ? NULL : value;
+				return value;
+			}
+			return (value == NULL) ? null : value;
+		}
+
+		boolean present(int index) {
+			return values[index] != REMOVED;
+		}
+
+		@Override
+		public int size() {
+			return count + (extra == null ? 0 : extra.size());
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			int index = indexOf(key);
+			if (index >= 0)
+				return present(index);
+			return extra != null && extra.containsKey(key);
+		}
+
+		@Override
+		public Object get(Object key) {
+			int index = indexOf(key);
+			if (index >= 0)
+				return present(index) ? value(index) : null;
+			return (extra == null) ? null : extra.get(key);
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			int index = indexOf(key);
+			if (index < 0) {
+				if (extra == null)
+					extra = new HashMap<String, Object>();
+				return extra.put(key, value);
+			}
+			Object previous = null;
+			if (present(index))
+				previous = parsedValue(index);
+			else
+				count++;
+			values[index] = (value == null) ? NULL : value;
+			return previous;
+		}
+
+		@Override
+		public Object remove(Object key) {
+			int index = indexOf(key);
+			if (index < 0)
+				return (extra == null) ? null : extra.remove(key);
+			return present(index) ? removeAt(index) : null;
+		}
+
+		Object removeAt(int index) {
+			Object previous = parsedValue(index);
+			values[index] = REMOVED;
+			count--;
+			return previous;
+		}
+
+		/**
+		 * A present field's value if parsed already, and otherwise null
+		 * without parsing it.
+		 */
+		private Object parsedValue(int index) {
+			Object value = values[index];
+			return (value == NULL) ? null : value;
+		}
+
+		@Override
+		public void clear() {
+			for (int i = 0; i < n; i++)
+				values[i] = REMOVED;
+			count = 0;
+			extra = null;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Object>>() {
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return Fields.this.size();
+				}
+
+				@Override
+				public void clear() {
+					Fields.this.clear();
+				}
+			};
+		}
+
+		/**
+		 * Fields from the bytes in their original order, then added ones.
+		 */
+		private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+			private int next = advance(0);
+			private int last = -1;
+			private Iterator<Map.Entry<String, Object>> others;
+
+			private int advance(int from) {
+				while (from < n && !present(from))
+					from++;
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				if (next < n)
+					return true;
+				if (others == null)
+					others = (extra == null) ? null : extra.entrySet().iterator();
+				return others != null && others.hasNext();
+			}
+
+			@Override
+			public Map.Entry<String, Object> next() {
+				if (next < n) {
+					last = next;
+					next = advance(next + 1);
+					return new FieldEntry(last);
+				}
+				if (!hasNext())
+					throw new NoSuchElementException();
+				last = -1;
+				return others.next();
+			}
+
+			@Override
+			public void remove() {
+				if (last >= 0) {
+					removeAt(last);
+					last = -1;
+				} else if (others != null) {
+					others.remove();
+				} else {
+					throw new IllegalStateException();
+				}
+			}
+		}
+
+		private final class FieldEntry implements Map.Entry<String, Object> {
+			private final int index;
+
+			FieldEntry(int index) {
+				this.index = index;
+			}
+
+			@Override
+			public String getKey() {
+				return keys[index];
+			}
+
+			@Override
+			public Object getValue() {
+				return present(index) ? value(index) : null;
+			}
+
+			@Override
+			public Object setValue(Object value) {
+				return put(keys[index], value);
+			}
+
+			@Override
+			public boolean equals(Object o) {
+				if (!(o instanceof Map.Entry))
+					return false;
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+				Object value = getValue();
+				return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+			}
+
+			@Override
+			public int hashCode() {
+				Object value = getValue();
+				return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+			}
+
+			@Override
+			public String toString() {
+				return getKey() + "=" + getValue();
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.acunu.analytics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.acunu.analytics.model.Field;
+import com.acunu.util.NumericSerialisers;
+import com.acunu.util.Serialiser;
+import com.acunu.util.SerialiserUtils;
+
+/**
+ * A {@link UserAggregate} whose counter is a single long, as for SUM, COUNT,
+ * MIN and MAX of integers. Subclasses implement the primitive methods
+ * {@link #longCounterFromEvent}, {@link #accumulate(long, long)} and
+ * {@link #evalCounter(long)}; callers that know the aggregate is a
+ * LongUserAggregate use them to accumulate with no boxing and no allocation.
+ *
+ * The generic methods of UserAggregate are final adapters over the
+ * primitive ones, so the aggregate still works wherever a
+ * UserAggregate&lt;X, Long&gt; is expected. A null counter there counts as no
+ * counter: accumulating it with another gives the other.
+ *
+ * Counters are serialised as zig-zag varints, the bytes of
+ * {@link NumericSerialisers#serVarLong}; override {@link #counterSize},
+ * {@link #writeCounter} and {@link #readCounter} together for another
+ * encoding.
+ */
+public abstract class LongUserAggregate<X extends Comparable<X>> extends UserAggregate<X, Long> {
+
+	private final Serialiser<Long> serialiser = new Serialiser.AbstractLookaheadSerialiser<Long>() {
+		@Override
+		public Long fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			return readCounter(buf);
+		}
+
+		@Override
+		public int sizeInBytes(Long value) {
+			return counterSize(value);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Long value) throws IOException {
+			writeCounter(buf, value);
+		}
+
+		public String toString() {
+			return LongUserAggregate.this.getClass().getName() + ".counters";
+		}
+	};
+
+	public LongUserAggregate(List<Field> fields, String[] args) {
+		super(fields, args);
+	}
+
+	/**
+	 * Produce a counter from an event.
+	 */
+	public abstract long longCounterFromEvent(Comparable[] event);
+
+	/**
+	 * Accumulate two counters together.
+	 */
+	public abstract long accumulate(long older, long newer);
+
+	/**
+	 * Extract the final value from an aggregated counter.
+	 */
+	public abstract X evalCounter(long counter);
+
+	/**
+	 * How many bytes {@link #writeCounter} takes for a counter.
+	 */
+	public int counterSize(long counter) {
+		return SerialiserUtils.varLongSize(counter);
+	}
+
+	/**
+	 * Write a counter, without rewinding.
+	 */
+	public void writeCounter(ByteBuffer buf, long counter) throws IOException {
+		SerialiserUtils.putVarLong(buf, counter);
+	}
+
+	/**
+	 * Read a counter written by {@link #writeCounter}, without rewinding.
+	 */
+	public long readCounter(ByteBuffer buf) throws IOException {
+		return SerialiserUtils.getVarLong(buf);
+	}
+
+	@Override
+	public final Long counterFromEvent(Comparable[] event) {
+		return longCounterFromEvent(event);
+	}
+
+	@Override
+	public final Long accumulate(Long older, Long newer) {
+		if (older == null)
+			return newer;
+		if (newer == null)
+			return older;
+		return accumulate(older.longValue(), newer.longValue());
+	}
+
+	@Override
+	public final X evalCounter(Long counter) {
+		if (counter == null)
+			return null;
+		return evalCounter(counter.longValue());
+	}
+
+	/**
+	 * A serialiser over {@link #counterSize}, {@link #writeCounter} and
+	 * {@link #readCounter}.
+	 */
+	@Override
+	public final Serialiser<Long> getSerialiser() {
+		return serialiser;
+	}
+}
@@ -0,0 +1,389 @@
+package com.acunu.analytics;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An event bound to an {@link EventSchema}, holding the values of schema
+ * fields in an array indexed by field position rather than in a hash map.
+ * That saves the table, the entry objects and the key hashing of each event,
+ * and gives decoders and receivers that know the schema O(1) access by index.
+ *
+ * It is still a full Map: keys outside the schema are kept in a map on the
+ * side, created only when first needed, and iteration visits schema fields in
+ * order, then the others. A field holding null is present, as with HashMap.
+ *
+ * Numbers set with putLong or putDouble are kept unboxed, and read back
+ * unboxed by getLong and getDouble; reads through the Map interface box them
+ * as Long or Double, exactly as a HashMap-backed event would hold them.
+ *
+ * Not thread-safe.
+ */
+public class SchemaEvent extends Event {
+
+	private final Slots slots;
+
+	public SchemaEvent(EventSchema schema) {
+		this(new Slots(schema));
+	}
+
+	private SchemaEvent(Slots slots) {
+		super(slots);
+		this.slots = slots;
+	}
+
+	@Override
+	public SchemaEvent copy() {
+		SchemaEvent copy = new SchemaEvent(slots.schema);
+		Slots to = copy.slots;
+		System.arraycopy(slots.values, 0, to.values, 0, slots.values.length);
+		if (slots.longs != null)
+			to.longs = slots.longs.clone();
+		if (slots.doubles != null)
+			to.doubles = slots.doubles.clone();
+		to.count = slots.count;
+		if (slots.extra != null)
+			to.extra = new HashMap<String, Object>(slots.extra);
+		return copy;
+	}
+
+	public EventSchema getSchema() {
+		return slots.schema;
+	}
+
+	/**
+	 * Value of the field at this position in the schema; null if unset.
+	 */
+	public Object get(int index) {
+		return slots.value(index);
+	}
+
+	/**
+	 * Set the field at this position in the schema.
+	 *
+	 * @return the previous value.
+	 */
+	public Object put(int index, Object value) {
+		return slots.set(index, value);
+	}
+
+	/**
+	 * Whether the field at this position in the schema has been set.
+	 */
+	public boolean isSet(int index) {
+		return slots.values[index] != null;
+	}
+
+	/**
+	 * The field at this position as a long, or the default if it is not set
+	 * or null.
+	 */
+	public long getLong(int index, long defaultValue) {
+		Object value = slots.values[index];
+		if (value == LONG)
+			return slots.longs[index];
+		else if (value == DOUBLE)
+			return (long) slots.doubles[index];
+		return asLong(unmask(value), defaultValue);
+	}
+
+	/**
+	 * The field at this position as a double, or the default if it is not set
+	 * or null.
+	 */
+	public double getDouble(int index, double defaultValue) {
+		Object value = slots.values[index];
+		if (value == DOUBLE)
+			return slots.doubles[index];
+		else if (value == LONG)
+			return slots.longs[index];
+		return asDouble(unmask(value), defaultValue);
+	}
+
+	/**
+	 * Set the field at this position to a long, without boxing.
+	 */
+	public void putLong(int index, long value) {
+		slots.setLong(index, value);
+	}
+
+	/**
+	 * Set the field at this position to a double, without boxing.
+	 */
+	public void putDouble(int index, double value) {
+		slots.setDouble(index, value);
+	}
+
+	@Override
+	public long getLong(String key, long defaultValue) {
+		int index = slots.schema.indexOf(key);
+		return (index >= 0) ? getLong(index, defaultValue) : super.getLong(key, defaultValue);
+	}
+
+	@Override
+	public double getDouble(String key, double defaultValue) {
+		int index = slots.schema.indexOf(key);
+		return (index >= 0) ? getDouble(index, defaultValue) : super.getDouble(key, defaultValue);
+	}
+
+	@Override
+	public void putLong(String key, long value) {
+		int index = slots.schema.indexOf(key);
+		if (index >= 0)
+			slots.setLong(index, value);
+		else
+			super.putLong(key, value);
+	}
+
+	@Override
+	public void putDouble(String key, double value) {
+		int index = slots.schema.indexOf(key);
+		if (index >= 0)
+			slots.setDouble(index, value);
+		else
+			super.putDouble(key, value);
+	}
+
+	/** Marks a field set to null, to tell it from an unset one. */
+	private static final Object NULL = new Object();
+
+	/** Marks a field held unboxed in the longs array. */
+	private static final Object LONG = new Object();
+
+	/** Marks a field held unboxed in the doubles array. */
+	private static final Object DOUBLE = new Object();
+
+	private static Object mask(Object value) {
+		return (value == null) ? NULL : value;
+	}
+
+	private static Object unmask(Object value) {
+		return (value == NULL) ? null : value;
+	}
+
+	/**
+	 * The map behind the event: schema fields in slots, others in a HashMap.
+	 */
+	private static final class Slots extends AbstractMap<String, Object> {
+		final EventSchema schema;
+		final Object[] values;
+		/** Unboxed values, allocated on first use. */
+		long[] longs;
+		double[] doubles;
+		int count;
+		Map<String, Object> extra;
+
+		Slots(EventSchema schema) {
+			this.schema = schema;
+			this.values = new Object[schema.size()];
+		}
+
+		Object value(int index) {
+			Object value = values[index];
+			if (value == LONG)
+				return Long.valueOf(longs[index]);
+			else if (value == DOUBLE)
+				return Double.valueOf(doubles[index]);
+			return unmask(value);
+		}
+
+		Object set(int index, Object value) {
+			Object previous = value(index);
+			if (values[index] == null)
+				count++;
+			values[index] = mask(value);
+			return previous;
+		}
+
+		void setLong(int index, long value) {
+			if (longs == null)
+				longs = new long[values.length];
+			if (values[index] == null)
+				count++;
+			values[index] = LONG;
+			longs[index] = value;
+		}
+
+		void setDouble(int index, double value) {
+			if (doubles == null)
+				doubles = new double[values.length];
+			if (values[index] == null)
+				count++;
+			values[index] = DOUBLE;
+			doubles[index] = value;
+		}
+
+		Object unset(int index) {
+			Object previous = value(index);
+			if (values[index] != null) {
+				values[index] = null;
+				count--;
+			}
+			return previous;
+		}
+
+		@Override
+		public int size() {
+			return count + (extra == null ? 0 : extra.size());
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			int index = schema.indexOf(key);
+			if (index >= 0)
+				return values[index] != null;
+			return extra != null && extra.containsKey(key);
+		}
+
+		@Override
+		public Object get(Object key) {
+			int index = schema.indexOf(key);
+			if (index >= 0)
+				return value(index);
+			return (extra == null) ? null : extra.get(key);
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			int index = schema.indexOf(key);
+			if (index >= 0)
+				return set(index, value);
+			if (extra == null)
+				extra = new HashMap<String, Object>();
+			return extra.put(key, value);
+		}
+
+		@Override
+		public Object remove(Object key) {
+			int index = schema.indexOf(key);
+			if (index >= 0)
+				return unset(index);
+			return (extra == null) ? null : extra.remove(key);
+		}
+
+		@Override
+		public void clear() {
+			for (int i = 0; i < values.length; i++)
+				values[i] = null;
+			count = 0;
+			extra = null;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Object>>() {
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return Slots.this.size();
+				}
+
+				@Override
+				public void clear() {
+					Slots.this.clear();
+				}
+			};
+		}
+
+		/**
+		 * Set slots in schema order, then the extra entries.
+		 */
+		private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+			private int next = advance(0);
+			private int last = -1;
+			private Iterator<Map.Entry<String, Object>> others;
+
+			private int advance(int from) {
+				while (from < values.length && values[from] == null)
+					from++;
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				if (next < values.length)
+					return true;
+				if (others == null)
+					others = (extra == null) ? null : extra.entrySet().iterator();
+				return others != null && others.hasNext();
+			}
+
+			@Override
+			public Map.Entry<String, Object> next() {
+				if (next < values.length) {
+					last = next;
+					next = advance(next + 1);
+					return new SlotEntry(last);
+				}
+				if (!hasNext())
+					throw new NoSuchElementException();
+				last = -1;
+				return others.next();
+			}
+
+			@Override
+			public void remove() {
+				if (last >= 0) {
+					unset(last);
+					last = -1;
+				} else if (others != null) {
+					others.remove();
+				} else {
+					throw new IllegalStateException();
+				}
+			}
+		}
+
+		private final class SlotEntry implements Map.Entry<String, Object> {
+			private final int index;
+
+			SlotEntry(int index) {
+				this.index = index;
+			}
+
+			@Override
+			public String getKey() {
+				return schema.getName(index);
+			}
+
+			@Override
+			public Object getValue() {
+				return value(index);
+			}
+
+			@Override
+			public Object setValue(Object value) {
+				return set(index, value);
+			}
+
+			@Override
+			public boolean equals(Object o) {
+				if (!(o instanceof Map.Entry))
+					return false;
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+				Object value = getValue();
+				return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+			}
+
+			@Override
+			public int hashCode() {
+				Object value = getValue();
+				return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+			}
+
+			@Override
+			public String toString() {
+				return getKey() + "=" + getValue();
+			}
+		}
+	}
+}
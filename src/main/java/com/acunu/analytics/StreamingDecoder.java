@@ -0,0 +1,22 @@
+package com.acunu.analytics;
+
+import com.acunu.analytics.ingest.DecodeException;
+
+/**
+ * A decoder that can hand events on one at a time as it decodes them, rather
+ * than building the whole list first. A raw event that expands into many
+ * events, such as a large JSON array or a chunk of a file, is then never held
+ * in memory all at once.
+ */
+public interface StreamingDecoder extends Decoder {
+
+	/**
+	 * Decode a raw event, passing each Event to the sink as soon as it is
+	 * decoded.
+	 * 
+	 * @throws DecodeException
+	 *             when the raw event is invalid. Events already passed to the
+	 *             sink are not taken back.
+	 */
+	public void decode(Object rawEvent, EventSink sink) throws DecodeException;
+}
@@ -2,44 +2,138 @@ package com.acunu.analytics.ingest;
 
 import java.io.ByteArrayInputStream;
 import java.io.CharArrayReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.acunu.analytics.Decoder;
 import com.acunu.analytics.Event;
+import com.acunu.analytics.EventSink;
+import com.acunu.analytics.StreamingDecoder;
 import com.acunu.analytics.conf.ConfigProperties;
 import com.acunu.analytics.conf.SimpleConfig;
+import com.acunu.util.ByteBufferInputStream;
+import com.acunu.util.ByteSlice;
 
 /**
  * Helper class for building decoders.
- * 
+ *
+ * The helpers accept raw events of any of the following types, so that
+ * sources can pass buffers through without copying them first:
+ * <ul>
+ * <li>String, char[] -- text;</li>
+ * <li>byte[] -- the whole array;</li>
+ * <li>{@link ByteSlice} -- a region of a larger array;</li>
+ * <li>ByteBuffer -- the remaining bytes of a heap, direct, read-only or mapped
+ * buffer. The buffer's position is never moved.</li>
+ * </ul>
+ * Bytes are decoded to text with the charset given by the flow property
+ * {@value #CHARSET_KEY}, or the platform default if that is not set.
+ *
+ * Decoders that can produce events one at a time should override
+ * {@link #decode(Object, EventSink)} and implement {@link #decode(Object)}
+ * with {@link #decodeToList(Object)}. Otherwise the sink is fed from the list.
+ *
  * @author tmoreton
- * 
+ *
  * @param <RawEventType>
  */
-public abstract class AbstractDecoder implements Decoder {
+public abstract class AbstractDecoder implements StreamingDecoder {
+
+	/**
+	 * Flow property naming the charset of byte raw events.
+	 */
+	public static final String CHARSET_KEY = "charset";
 
 	protected AbstractDecoder() {
-		this.properties = new SimpleConfig();
+		this(new SimpleConfig());
 	}
 
 	/**
 	 * Called whenever a decoder is instantiated in the context of the flow.
-	 * 
+	 *
 	 * @param properties
 	 *            a read-only reference to the flow properties.
 	 */
 	protected AbstractDecoder(ConfigProperties properties) {
 		this.properties = properties;
+		String charsetName = (properties == null) ? null : properties.getString(CHARSET_KEY);
+		this.charset = (charsetName == null) ? Charset.defaultCharset() : Charset.forName(charsetName);
 	}
 
 	protected final ConfigProperties properties;
 
+	/**
+	 * Charset used to turn byte raw events into text.
+	 */
+	protected final Charset charset;
+
+	/**
+	 * Decode into a sink. By default, decode the whole list and pass it on.
+	 */
+	@Override
+	public void decode(Object rawEvent, EventSink sink) throws DecodeException {
+		for (Event event : decode(rawEvent))
+			sink.accept(event);
+	}
+
+	/**
+	 * Collect the events from {@link #decode(Object, EventSink)} into a list,
+	 * for decoders that stream natively.
+	 */
+	protected final List<Event> decodeToList(Object rawEvent) throws DecodeException {
+		final List<Event> events = new ArrayList<Event>(1);
+		decode(rawEvent, new EventSink() {
+			@Override
+			public void accept(Event event) {
+				events.add(event);
+			}
+		});
+		return events;
+	}
+
+	/**
+	 * Decode with any decoder into a sink, streaming if the decoder can.
+	 */
+	public static void decodeTo(Decoder decoder, Object rawEvent, EventSink sink) throws DecodeException {
+		if (decoder instanceof StreamingDecoder) {
+			((StreamingDecoder) decoder).decode(rawEvent, sink);
+		} else {
+			for (Event event : decoder.decode(rawEvent))
+				sink.accept(event);
+		}
+	}
+
+	/** Most scratch arrays a thread tracks as lent out at once. */
+	private static final int MAX_LENT = 8;
+
+	/**
+	 * Per-thread scratch space for copying out of buffers that have no
+	 * accessible array: a free array, grown to the largest event seen on the
+	 * thread, and the arrays lent out and not yet given back. A decoder whose
+	 * sink decodes again on the same thread gets an array of its own.
+	 */
+	private static final class Scratch {
+		byte[] free = new byte[4096];
+		final List<byte[]> lent = new ArrayList<byte[]>(2);
+	}
+
+	private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
 	/**
 	 * Decode a raw event.
-	 * 
+	 *
 	 * @return one or more Events, in the order they should be ingested.
 	 * @throws DecodeException
 	 *             when the raw event is invalid.
@@ -48,21 +142,204 @@ public abstract class AbstractDecoder implements Decoder {
 	public abstract List<Event> decode(Object rawEvent) throws DecodeException;
 
 	/**
-	 * Helper method to get a Reader over the raw event.
-	 * 
+	 * Helper method to get a Reader over the raw event, decoding bytes with
+	 * the flow's charset.
+	 *
 	 * @throws DecodeException
-	 *             If the raw event isn't a String, byte[] or char[].
+	 *             If the raw event isn't one of the supported types.
 	 */
 	protected Reader getStringReader(Object rawEvent) throws DecodeException {
+		return getStringReader(rawEvent, charset);
+	}
+
+	/**
+	 * Helper method to get a Reader over the raw event, decoding bytes with
+	 * the given charset.
+	 *
+	 * @throws DecodeException
+	 *             If the raw event isn't one of the supported types.
+	 */
+	protected Reader getStringReader(Object rawEvent, Charset charset) throws DecodeException {
 		if (rawEvent instanceof String) {
 			return new StringReader((String) rawEvent);
-		} else if (rawEvent instanceof byte[]) {
-			return new InputStreamReader(new ByteArrayInputStream((byte[]) rawEvent));
 		} else if (rawEvent instanceof char[]) {
 			return new CharArrayReader((char[]) rawEvent);
 		} else {
-			throw new DecodeException("Cannot decode a " + rawEvent.getClass().getCanonicalName());
+			return new InputStreamReader(getInputStream(rawEvent), charset);
 		}
 	}
-	
+
+	/**
+	 * Helper method to get the whole raw event as a String, decoding bytes
+	 * with the flow's charset.
+	 *
+	 * @throws DecodeException
+	 *             If the raw event isn't one of the supported types.
+	 */
+	protected String getString(Object rawEvent) throws DecodeException {
+		return getString(rawEvent, charset);
+	}
+
+	/**
+	 * Helper method to get the whole raw event as a String, decoding bytes
+	 * straight from the source array or buffer in one pass.
+	 *
+	 * @throws DecodeException
+	 *             If the raw event isn't one of the supported types.
+	 */
+	protected String getString(Object rawEvent, Charset charset) throws DecodeException {
+		if (rawEvent instanceof String) {
+			return (String) rawEvent;
+		} else if (rawEvent instanceof char[]) {
+			return new String((char[]) rawEvent);
+		} else if (rawEvent instanceof byte[]) {
+			return new String((byte[]) rawEvent, charset);
+		} else if (rawEvent instanceof ByteSlice) {
+			return ((ByteSlice) rawEvent).toString(charset);
+		} else if (rawEvent instanceof ByteBuffer) {
+			ByteBuffer buf = (ByteBuffer) rawEvent;
+			if (buf.hasArray())
+				return new String(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), charset);
+			return charset.decode(buf.duplicate()).toString();
+		} else {
+			throw cannotDecode(rawEvent);
+		}
+	}
+
+	/**
+	 * Helper method to get an InputStream over the bytes of the raw event.
+	 * Text raw events are encoded with the flow's charset.
+	 *
+	 * @throws DecodeException
+	 *             If the raw event isn't one of the supported types.
+	 */
+	protected InputStream getInputStream(Object rawEvent) throws DecodeException {
+		if (rawEvent instanceof byte[]) {
+			return new ByteArrayInputStream((byte[]) rawEvent);
+		} else if (rawEvent instanceof ByteBuffer) {
+			return new ByteBufferInputStream(((ByteBuffer) rawEvent).duplicate());
+		} else {
+			// slices are returned as they are; text is encoded into a fresh array.
+			ByteSlice slice = getByteSlice(rawEvent);
+			return new ByteArrayInputStream(slice.array(), slice.offset(), slice.length());
+		}
+	}
+
+	/**
+	 * Helper method to get a ByteBuffer view of the raw event, positioned at
+	 * its first byte. Arrays, slices and buffers are not copied: the returned
+	 * buffer shares their content. The caller's buffer position is not moved.
+	 *
+	 * @throws DecodeException
+	 *             If the raw event isn't one of the supported types.
+	 */
+	protected ByteBuffer getByteBuffer(Object rawEvent) throws DecodeException {
+		if (rawEvent instanceof ByteBuffer) {
+			return ((ByteBuffer) rawEvent).slice();
+		} else if (rawEvent instanceof byte[]) {
+			return ByteBuffer.wrap((byte[]) rawEvent);
+		} else if (rawEvent instanceof ByteSlice) {
+			return ((ByteSlice) rawEvent).asByteBuffer();
+		} else if (rawEvent instanceof String) {
+			return charset.encode((String) rawEvent);
+		} else if (rawEvent instanceof char[]) {
+			return charset.encode(CharBuffer.wrap((char[]) rawEvent));
+		} else {
+			throw cannotDecode(rawEvent);
+		}
+	}
+
+	/**
+	 * Helper method to get the bytes of the raw event as an array region, for
+	 * parsers that work directly on byte[].
+	 *
+	 * byte[], ByteSlice and heap ByteBuffers are returned as views without
+	 * copying. Direct and read-only buffers are copied into per-thread scratch
+	 * space: give the slice back with {@link #releaseByteSlice(ByteSlice)}
+	 * when done with it, after which it must not be used; a slice not given
+	 * back is simply garbage collected. Text raw events are encoded with the
+	 * flow's charset.
+	 *
+	 * @throws DecodeException
+	 *             If the raw event isn't one of the supported types.
+	 */
+	protected ByteSlice getByteSlice(Object rawEvent) throws DecodeException {
+		if (rawEvent instanceof byte[]) {
+			return ByteSlice.wrap((byte[]) rawEvent);
+		} else if (rawEvent instanceof ByteSlice) {
+			return (ByteSlice) rawEvent;
+		} else if (rawEvent instanceof ByteBuffer) {
+			ByteBuffer buf = (ByteBuffer) rawEvent;
+			if (buf.hasArray())
+				return ByteSlice.wrap(buf);
+			int length = buf.remaining();
+			byte[] bytes = scratch(length);
+			buf.duplicate().get(bytes, 0, length);
+			return new ByteSlice(bytes, 0, length);
+		} else if (rawEvent instanceof String) {
+			return ByteSlice.wrap(((String) rawEvent).getBytes(charset));
+		} else if (rawEvent instanceof char[]) {
+			ByteBuffer encoded = charset.encode(CharBuffer.wrap((char[]) rawEvent));
+			return new ByteSlice(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+		} else {
+			throw cannotDecode(rawEvent);
+		}
+	}
+
+	/**
+	 * Whether the raw event is one of the byte types (byte[], ByteSlice,
+	 * ByteBuffer) accepted by the helpers.
+	 */
+	protected static boolean isBytes(Object rawEvent) {
+		return rawEvent instanceof byte[] || rawEvent instanceof ByteSlice || rawEvent instanceof ByteBuffer;
+	}
+
+	/**
+	 * Give back a slice from {@link #getByteSlice(Object)}, so that its
+	 * scratch space, if any, is reused. Does nothing for slices that are
+	 * views of the raw event.
+	 */
+	protected static void releaseByteSlice(ByteSlice slice) {
+		if (slice != null)
+			releaseScratch(slice.array());
+	}
+
+	/**
+	 * Lend out the per-thread scratch array, grown to at least the given
+	 * length, or a new one if it is already lent. Give it back with
+	 * {@link #releaseScratch(byte[])}.
+	 */
+	protected static byte[] scratch(int length) {
+		Scratch holder = scratch.get();
+		byte[] bytes = holder.free;
+		if (bytes == null || bytes.length < length)
+			bytes = new byte[Math.max(length, (bytes == null) ? 4096 : 2 * bytes.length)];
+		holder.free = null;
+		if (holder.lent.size() == MAX_LENT)
+			holder.lent.remove(0);
+		holder.lent.add(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Give back an array from {@link #scratch(int)}, keeping the larger of it
+	 * and the current free array for reuse. Arrays that were not lent are
+	 * ignored.
+	 */
+	protected static void releaseScratch(byte[] bytes) {
+		Scratch holder = scratch.get();
+		for (int i = holder.lent.size() - 1; i >= 0; i--) {
+			if (holder.lent.get(i) == bytes) {
+				holder.lent.remove(i);
+				if (holder.free == null || holder.free.length < bytes.length)
+					holder.free = bytes;
+				return;
+			}
+		}
+	}
+
+	protected static DecodeException cannotDecode(Object rawEvent) {
+		return new DecodeException("Cannot decode a " + (rawEvent == null ? "null" : rawEvent.getClass().getCanonicalName()));
+	}
+
 }
@@ -6,6 +6,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -17,8 +19,15 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.acunu.analytics.BatchDecoder;
+import com.acunu.analytics.BatchEventReceiver;
 import com.acunu.analytics.Context;
+import com.acunu.analytics.Decoder;
 import com.acunu.analytics.Event;
+import com.acunu.analytics.EventBatch;
+import com.acunu.analytics.EventPool;
+import com.acunu.analytics.EventReceiver;
+import com.acunu.analytics.EventSink;
 import com.acunu.analytics.Flow;
 import com.acunu.analytics.Ingester;
 import com.acunu.analytics.conf.ConfigProperties;
@@ -49,12 +58,28 @@ public abstract class AbstractIngester extends Ingester {
 	 */
 	protected Map<String, FlowSource<? extends AbstractIngester>> flows = new HashMap<String, FlowSource<? extends AbstractIngester>>();
 
+	/**
+	 * Decoders by flow name, including any decompression stage asked for in
+	 * the flow properties.
+	 */
+	protected final ConcurrentMap<String, Decoder> decoders = new ConcurrentHashMap<String, Decoder>();
+
 	protected AtomicBoolean running = new AtomicBoolean(true);
 
 	protected static int systemThreads = 4;
 
 	protected int consumerThreads;
 
+	/**
+	 * Whether consumer threads recycle events through an {@link EventPool}.
+	 * Receivers must then not keep events after submitEvent returns, except
+	 * by {@link Event#copy()}.
+	 */
+	protected boolean poolEvents;
+
+	/** Ingester property turning on event pooling. */
+	public static final String POOL_EVENTS_KEY = "pool_events";
+
 	static {
 		// initialize thread pool
 		try {
@@ -134,6 +159,7 @@ public abstract class AbstractIngester extends Ingester {
 		super(name, context);
 		this.config = context.getConfig();
 		this.consumerThreads = getProperty(int.class, "consumer_threads", systemThreads);
+		this.poolEvents = config.getBoolean(POOL_EVENTS_KEY, false);
 
 		logger.info("Creating consumer thread pool with {} threads", consumerThreads);
 		pool = Executors.newFixedThreadPool(consumerThreads);
@@ -177,7 +203,7 @@ public abstract class AbstractIngester extends Ingester {
 
 	/**
 	 * Add a new Flow {@link Flow}. Build a fixed size pool of threads to
-	 * service the flow.
+	 * service the flow. Fails if the flow's decoder properties are invalid.
 	 */
 	public void addFlow(Flow flow) throws IngestException {
 
@@ -188,11 +214,21 @@ public abstract class AbstractIngester extends Ingester {
 			if (flows.containsKey(flow.getName()))
 				throw new IngestException(String.format("A flow named '%s' already exists", flow.getName()));
 
+			// Build the decoder now, so that bad properties fail here rather
+			// than on the flow's first event.
+			Decoder decoder;
+			try {
+				decoder = DecompressingDecoder.forFlow(flow);
+			} catch (IllegalArgumentException e) {
+				throw new IngestException(String.format("Invalid decoder properties for flow '%s': %s", flow.getName(), e.getMessage()), e);
+			}
+
 			// Create a new FlowSource.
 			fs = createFlowSource(flow);
 
 			// Started ok. Add the FlowSource to the map
 			flows.put(flow.getName(), fs);
+			decoders.put(flow.getName(), decoder);
 		}
 
 		// Try and start the FlowSource. May raise IngestException up.
@@ -201,6 +237,7 @@ public abstract class AbstractIngester extends Ingester {
 		} catch (IngestException e) {
 			synchronized (flows) {
 				flows.remove(flow.getName());
+				decoders.remove(flow.getName());
 			}
 			throw e;
 		}
@@ -221,6 +258,8 @@ public abstract class AbstractIngester extends Ingester {
 				throw new IngestException(String.format("No flow named %s currently exists", flow.getName()));
 		}
 
+		decoders.remove(flow.getName());
+
 		try {
 			fs.stop();
 		} catch (InterruptedException e) {
@@ -240,6 +279,21 @@ public abstract class AbstractIngester extends Ingester {
 	 */
 	protected abstract FlowSource<? extends AbstractIngester> createFlowSource(Flow flow) throws IngestException;
 
+	/**
+	 * The decoder for a flow: the flow's own decoder, behind a
+	 * {@link DecompressingDecoder} if the flow properties set
+	 * {@value DecompressingDecoder#COMPRESSION_KEY}. Built once per flow.
+	 */
+	protected Decoder getDecoder(Flow flow) {
+		Decoder decoder = decoders.get(flow.getName());
+		Decoder underlying = (decoder instanceof DecompressingDecoder) ? ((DecompressingDecoder) decoder).getDelegate() : decoder;
+		if (decoder == null || underlying != flow.getDecoder()) {
+			decoder = DecompressingDecoder.forFlow(flow);
+			decoders.put(flow.getName(), decoder);
+		}
+		return decoder;
+	}
+
 	/**
 	 * Push an event to an endpoint for processing on a particular thread.
 	 */
@@ -258,6 +312,11 @@ public abstract class AbstractIngester extends Ingester {
 	 * Task for processing events.
 	 */
 	protected Void processEvents(int taskId) throws InterruptedException {
+		final ReceiverSink sink = new ReceiverSink();
+		if (poolEvents) {
+			sink.pool = new EventPool();
+			EventPool.setCurrent(sink.pool);
+		}
 		int i = 0;
 		while (running.get()) {
 			try {
@@ -266,27 +325,28 @@ public abstract class AbstractIngester extends Ingester {
 				final Pair<Flow, List<?>> p = eventQueues[taskId].take();
 				final Flow flow = p.getKey();
 
-				// Decode and forward each event to the matching EventReceiver.
+				// Decode and forward each event to the matching EventReceiver
+				// as soon as it is decoded, or the whole batch at once if both
+				// sides work in columnar batches.
+				sink.receiver = flow.getReceiver();
 				for (final Object rawEvent : p.getValue()) {
-
-					// Decode events
-					final List<Event> events;
 					try {
-						events = flow.getDecoder().decode(rawEvent);
+						Decoder decoder = getDecoder(flow);
+						if (decoder instanceof BatchDecoder && sink.receiver instanceof BatchEventReceiver)
+							submitBatch((BatchEventReceiver) sink.receiver, ((BatchDecoder) decoder).decodeBatch(rawEvent));
+						else
+							AbstractDecoder.decodeTo(decoder, rawEvent, sink);
 					} catch (DecodeException e) {
 						logger.warn(String.format("Exception during decoding of %s: %s", rawEvent, e.getMessage()), e);
 						continue;
-					}
-
-					// Take each event separately and try to submit it.
-					// TODO - what are the semantics for a batch that we want
-					// here?
-					for (final Event event : events) {
-						try {
-							flow.getReceiver().submitEvent(event);
-						} catch (Exception e) {
-							logger.warn(String.format("Exception during processing of %s: %s", event, e.getMessage()), e);
-						}
+					} catch (RuntimeException e) {
+						// a decoder bug or bad flow properties: skip the event,
+						// but keep serving the queue
+						logger.warn(String.format("Exception during decoding of %s: %s", rawEvent, e.getMessage()), e);
+						continue;
+					} finally {
+						if (sink.pool != null)
+							sink.pool.checkLeaks();
 					}
 
 					// TODO semantics of stats: raw events, processed events.
@@ -301,6 +361,38 @@ public abstract class AbstractIngester extends Ingester {
 		return null;
 	}
 
+	private static void submitBatch(BatchEventReceiver receiver, EventBatch batch) {
+		try {
+			receiver.submitBatch(batch);
+		} catch (Exception e) {
+			logger.warn(String.format("Exception during processing of %s: %s", batch, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Submits decoded events to a receiver. Events the receiver fails on are
+	 * logged and skipped, so one bad event does not lose the rest of its
+	 * batch. Pooled events go back to the pool once submitted.
+	 */
+	protected static class ReceiverSink implements EventSink {
+		protected EventReceiver receiver;
+
+		/** Where to return events once submitted, if pooling. */
+		protected EventPool pool;
+
+		@Override
+		public void accept(Event event) {
+			try {
+				receiver.submitEvent(event);
+			} catch (Exception e) {
+				logger.warn(String.format("Exception during processing of %s: %s", event, e.getMessage()), e);
+			} finally {
+				if (pool != null)
+					pool.release(event);
+			}
+		}
+	}
+
 	/**
 	 * Shutdown all flows, then the consumer threads, finally the stats thread.
 	 */
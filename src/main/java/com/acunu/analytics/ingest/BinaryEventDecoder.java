@@ -0,0 +1,52 @@
+package com.acunu.analytics.ingest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventSink;
+import com.acunu.analytics.conf.ConfigProperties;
+import com.acunu.util.EventBatchSerialiser;
+
+/**
+ * A decoder for batches of events in the binary format of
+ * {@link EventBatchSerialiser}. Producers encode with
+ * {@code EventBatchSerialiser.serEventBatch.toBytes(events)} and send the bytes
+ * with Content-Type {@value #CONTENT_TYPE}.
+ *
+ * Raw events may be byte[], ByteSlice or ByteBuffer, read in place.
+ */
+public class BinaryEventDecoder extends AbstractDecoder {
+
+	public static final String CONTENT_TYPE = "application/x-acunu-events";
+
+	public BinaryEventDecoder() {
+		super();
+	}
+
+	public BinaryEventDecoder(ConfigProperties properties) {
+		super(properties);
+	}
+
+	@Override
+	public List<String> getRegisterableContentTypes() {
+		return Collections.singletonList(CONTENT_TYPE);
+	}
+
+	@Override
+	public List<Event> decode(Object rawEvent) throws DecodeException {
+		return decodeToList(rawEvent);
+	}
+
+	@Override
+	public void decode(Object rawEvent, EventSink sink) throws DecodeException {
+		if (!isBytes(rawEvent))
+			throw cannotDecode(rawEvent);
+		try {
+			EventBatchSerialiser.serEventBatch.read(getByteBuffer(rawEvent), sink);
+		} catch (IOException e) {
+			throw new DecodeException(e.getMessage(), e);
+		}
+	}
+}
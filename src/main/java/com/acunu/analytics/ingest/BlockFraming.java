@@ -0,0 +1,105 @@
+package com.acunu.analytics.ingest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * A simple block-framed compression format, for producers that want to send
+ * large batches compressed but still have them decoded a block at a time.
+ * Each block is compressed independently and should contain whole records,
+ * so that the decoder can hand each block to the downstream decoder as soon
+ * as it is inflated.
+ *
+ * <pre>
+ * header: 'A' 'C' 'B' version(1)
+ * block:  flag (0 stored, 1 raw deflate), uncompressed length, stored length, bytes
+ * </pre>
+ *
+ * Lengths are unsigned varints. Blocks run to the end of the payload.
+ *
+ * @see DecompressingDecoder
+ */
+public final class BlockFraming {
+
+	static final byte[] HEADER = { 'A', 'C', 'B', 1 };
+
+	static final int STORED = 0;
+	static final int DEFLATED = 1;
+
+	private BlockFraming() {
+	}
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+	};
+
+	private static final ThreadLocal<byte[][]> buffers = new ThreadLocal<byte[][]>() {
+		@Override
+		protected byte[][] initialValue() {
+			return new byte[][] { new byte[64 * 1024] };
+		}
+	};
+
+	/**
+	 * Whether the bytes start with a block-framing header.
+	 */
+	static boolean hasHeader(byte[] bytes, int offset, int length) {
+		if (length < HEADER.length)
+			return false;
+		for (int i = 0; i < HEADER.length; i++)
+			if (bytes[offset + i] != HEADER[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Write the header that starts a block-framed payload.
+	 */
+	public static void writeHeader(OutputStream out) throws IOException {
+		out.write(HEADER);
+	}
+
+	/**
+	 * Compress and write one block. Blocks that do not shrink are stored.
+	 */
+	public static void writeBlock(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+		Deflater deflater = deflaters.get();
+		byte[][] holder = buffers.get();
+		// deflate can expand incompressible input slightly; anything bigger
+		// than the input is stored instead.
+		if (holder[0].length < length)
+			holder[0] = new byte[length];
+		byte[] compressed = holder[0];
+
+		deflater.reset();
+		deflater.setInput(bytes, offset, length);
+		deflater.finish();
+		int compressedLength = 0;
+		while (!deflater.finished() && compressedLength < length)
+			compressedLength += deflater.deflate(compressed, compressedLength, length - compressedLength);
+
+		if (deflater.finished() && compressedLength < length) {
+			out.write(DEFLATED);
+			writeVarInt(out, length);
+			writeVarInt(out, compressedLength);
+			out.write(compressed, 0, compressedLength);
+		} else {
+			out.write(STORED);
+			writeVarInt(out, length);
+			writeVarInt(out, length);
+			out.write(bytes, offset, length);
+		}
+	}
+
+	private static void writeVarInt(OutputStream out, int num) throws IOException {
+		while ((num & ~0x7f) != 0) {
+			out.write((num & 0x7f) | 0x80);
+			num >>>= 7;
+		}
+		out.write(num);
+	}
+}
@@ -0,0 +1,322 @@
+package com.acunu.analytics.ingest;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acunu.analytics.Decoder;
+import com.acunu.analytics.conf.ConfigProperties;
+
+/**
+ * Finds decoders by content type or class name, doing the reflection once.
+ *
+ * Decoders are discovered with {@link ServiceLoader} from
+ * META-INF/services/com.acunu.analytics.Decoder files, and registered under
+ * each of their {@link Decoder#getRegisterableContentTypes()}. Decoders that
+ * cannot be built without properties are registered with
+ * {@link #register(Class, String...)}. The constructors of each decoder class
+ * are looked up once and cached.
+ *
+ * Content types are matched on the media type alone: "text/csv;
+ * charset=UTF-8" finds the decoder for "text/csv". Each distinct header value
+ * is resolved once, so a lookup is a single hash probe.
+ *
+ * {@link #getDecoder(String, ConfigProperties)} also keeps decoder instances
+ * per thread, by content type and properties, so a flow taking mixed content
+ * creates each decoder once per thread rather than once per request. The
+ * properties should be the flow's, not built per request.
+ *
+ * Instances are thread-safe.
+ */
+public class DecoderRegistry {
+
+	private static Logger logger = LoggerFactory.getLogger(DecoderRegistry.class);
+
+	/** Most header values to remember the resolution of. */
+	private static final int MAX_RESOLVED = 1024;
+
+	/** Most decoder instances to keep per thread. */
+	private static final int MAX_INSTANCES = 256;
+
+	private static DecoderRegistry defaultRegistry;
+
+	/**
+	 * A way of building instances of one decoder class, with its constructors
+	 * looked up in advance.
+	 */
+	public static final class Factory {
+		private final Class<? extends Decoder> decoderClass;
+		private final Constructor<? extends Decoder> noArgs;
+		private final Constructor<? extends Decoder> withProperties;
+
+		Factory(Class<? extends Decoder> decoderClass) {
+			this.decoderClass = decoderClass;
+			this.noArgs = constructor(decoderClass);
+			this.withProperties = constructor(decoderClass, ConfigProperties.class);
+			if (noArgs == null && withProperties == null)
+				throw new IllegalArgumentException(decoderClass.getName() + " has no public no-args or ConfigProperties constructor");
+		}
+
+		private static Constructor<? extends Decoder> constructor(Class<? extends Decoder> c, Class<?>... args) {
+			try {
+				return c.getConstructor(args);
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+
+		public Class<? extends Decoder> getDecoderClass() {
+			return decoderClass;
+		}
+
+		/**
+		 * A new decoder, given the properties if it takes them.
+		 */
+		public Decoder newDecoder(ConfigProperties properties) throws DecodeException {
+			try {
+				if (withProperties != null && (properties != null || noArgs == null))
+					return withProperties.newInstance(properties);
+				return noArgs.newInstance();
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof DecodeException)
+					throw (DecodeException) e.getCause();
+				throw new DecodeException(String.format("Cannot create decoder %s: %s", decoderClass.getName(), e.getCause()), e);
+			} catch (InstantiationException e) {
+				throw new DecodeException(String.format("Cannot create decoder %s", decoderClass.getName()), e);
+			} catch (IllegalAccessException e) {
+				throw new DecodeException(String.format("Cannot create decoder %s", decoderClass.getName()), e);
+			}
+		}
+
+		public String toString() {
+			return decoderClass.getName();
+		}
+	}
+
+	private final ClassLoader classLoader;
+
+	/** Factories by media type. */
+	private final ConcurrentMap<String, Factory> byContentType = new ConcurrentHashMap<String, Factory>();
+
+	/** Factories by decoder class name. */
+	private final ConcurrentMap<String, Factory> byClassName = new ConcurrentHashMap<String, Factory>();
+
+	/** Factories by header value as given, parameters and all. */
+	private final ConcurrentMap<String, Factory> resolved = new ConcurrentHashMap<String, Factory>();
+
+	/**
+	 * Bumped on each registration, so per-thread instances made for a
+	 * superseded decoder are dropped.
+	 */
+	private volatile int generation;
+
+	private final ThreadLocal<Instances> instances = new ThreadLocal<Instances>() {
+		@Override
+		protected Instances initialValue() {
+			return new Instances();
+		}
+	};
+
+	/**
+	 * One thread's decoders, by properties (identity) then header value.
+	 */
+	private static class Instances {
+		int generation;
+		int size;
+		final Map<ConfigProperties, Map<String, Decoder>> byProperties = new IdentityHashMap<ConfigProperties, Map<String, Decoder>>();
+
+		void clear(int generation) {
+			this.generation = generation;
+			this.size = 0;
+			byProperties.clear();
+		}
+	}
+
+	public DecoderRegistry() {
+		this(defaultClassLoader());
+	}
+
+	public DecoderRegistry(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	private static ClassLoader defaultClassLoader() {
+		ClassLoader cl = Thread.currentThread().getContextClassLoader();
+		return (cl == null) ? DecoderRegistry.class.getClassLoader() : cl;
+	}
+
+	/**
+	 * A shared registry holding the decoders discovered on the class path, and
+	 * the delimited decoders of this library.
+	 */
+	public static synchronized DecoderRegistry getDefault() {
+		if (defaultRegistry == null) {
+			DecoderRegistry registry = new DecoderRegistry();
+			registry.discover();
+			registry.register(DelimitedDecoder.class, DelimitedDecoder.CONTENT_TYPE);
+			registry.register(TabSeparatedDecoder.class, DelimitedDecoder.TSV_CONTENT_TYPE);
+			defaultRegistry = registry;
+		}
+		return defaultRegistry;
+	}
+
+	/**
+	 * Register every decoder listed in META-INF/services. Decoders that fail
+	 * to load are logged and skipped.
+	 *
+	 * @return the number of decoders registered.
+	 */
+	public int discover() {
+		int found = 0;
+		Iterator<Decoder> it = ServiceLoader.load(Decoder.class, classLoader).iterator();
+		while (true) {
+			try {
+				if (!it.hasNext())
+					break;
+				Decoder decoder = it.next();
+				register(decoder.getClass(), decoder.getRegisterableContentTypes());
+				found++;
+			} catch (ServiceConfigurationError e) {
+				logger.warn("Skipping decoder: {}", e.getMessage());
+			}
+		}
+		logger.debug("Discovered {} decoders", found);
+		return found;
+	}
+
+	/**
+	 * Register a decoder class under the given content types, replacing any
+	 * decoder already registered for them.
+	 */
+	public void register(Class<? extends Decoder> decoderClass, String... contentTypes) {
+		register(decoderClass, Arrays.asList(contentTypes));
+	}
+
+	private synchronized void register(Class<? extends Decoder> decoderClass, List<String> contentTypes) {
+		Factory factory = factoryFor(decoderClass);
+		if (contentTypes != null) {
+			for (String contentType : contentTypes) {
+				Factory previous = byContentType.put(mediaType(contentType), factory);
+				if (previous != null && previous != factory)
+					logger.info("Decoder {} replaces {} for {}", new Object[] { factory, previous, contentType });
+			}
+		}
+		resolved.clear();
+		generation++;
+	}
+
+	private Factory factoryFor(Class<? extends Decoder> decoderClass) {
+		Factory factory = byClassName.get(decoderClass.getName());
+		if (factory == null || factory.decoderClass != decoderClass) {
+			factory = new Factory(decoderClass);
+			byClassName.put(decoderClass.getName(), factory);
+		}
+		return factory;
+	}
+
+	/**
+	 * The factory for a content type, or null if none is registered.
+	 * Parameters are ignored.
+	 */
+	public Factory getFactory(String contentType) {
+		if (contentType == null)
+			return null;
+		Factory factory = resolved.get(contentType);
+		if (factory == null) {
+			factory = byContentType.get(mediaType(contentType));
+			if (factory != null && resolved.size() < MAX_RESOLVED)
+				resolved.put(contentType, factory);
+		}
+		return factory;
+	}
+
+	/**
+	 * The factory for a decoder class, as named by
+	 * {@link com.acunu.analytics.Flow#getDecoderClassName()}. The class is
+	 * loaded and its constructors looked up only the first time.
+	 */
+	public Factory getFactoryForClass(String className) throws DecodeException {
+		Factory factory = byClassName.get(className);
+		if (factory != null)
+			return factory;
+		Class<?> c;
+		try {
+			c = Class.forName(className, true, classLoader);
+		} catch (ClassNotFoundException e) {
+			throw new DecodeException("No decoder class " + className, e);
+		}
+		if (!Decoder.class.isAssignableFrom(c))
+			throw new DecodeException(className + " is not a Decoder");
+		try {
+			return factoryFor(c.asSubclass(Decoder.class));
+		} catch (IllegalArgumentException e) {
+			throw new DecodeException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * A new decoder for a content type.
+	 *
+	 * @throws DecodeException
+	 *             if no decoder is registered for it, or it cannot be built.
+	 */
+	public Decoder newDecoder(String contentType, ConfigProperties properties) throws DecodeException {
+		Factory factory = getFactory(contentType);
+		if (factory == null)
+			throw new DecodeException("No decoder registered for content type " + contentType);
+		return factory.newDecoder(properties);
+	}
+
+	/**
+	 * This thread's decoder for a content type and set of properties, created
+	 * on first use.
+	 *
+	 * @throws DecodeException
+	 *             if no decoder is registered for it, or it cannot be built.
+	 */
+	public Decoder getDecoder(String contentType, ConfigProperties properties) throws DecodeException {
+		Instances mine = instances.get();
+		if (mine.generation != generation)
+			mine.clear(generation);
+
+		Map<String, Decoder> decoders = mine.byProperties.get(properties);
+		Decoder decoder = (decoders == null) ? null : decoders.get(contentType);
+		if (decoder != null)
+			return decoder;
+
+		decoder = newDecoder(contentType, properties);
+		if (mine.size >= MAX_INSTANCES) {
+			mine.clear(generation);
+			decoders = null;
+		}
+		if (decoders == null) {
+			decoders = new HashMap<String, Decoder>();
+			mine.byProperties.put(properties, decoders);
+		}
+		decoders.put(contentType, decoder);
+		mine.size++;
+		return decoder;
+	}
+
+	/**
+	 * The media type of a Content-Type value: lower case, without parameters.
+	 */
+	public static String mediaType(String contentType) {
+		int semi = contentType.indexOf(';');
+		String type = (semi < 0) ? contentType : contentType.substring(0, semi);
+		return type.trim().toLowerCase(Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,422 @@
+package com.acunu.analytics.ingest;
+
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.acunu.analytics.Decoder;
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventSink;
+import com.acunu.analytics.Flow;
+import com.acunu.analytics.conf.ConfigProperties;
+import com.acunu.util.ByteSlice;
+
+/**
+ * A decompression stage in front of another decoder. Compressed raw events
+ * are inflated into a pooled per-thread buffer and handed to the downstream
+ * decoder as {@link ByteSlice}s, so no new array is allocated per payload.
+ *
+ * Flow properties:
+ * <ul>
+ * <li>{@value #COMPRESSION_KEY}: one of
+ * <ul>
+ * <li>none -- pass raw events straight through (the default);</li>
+ * <li>deflate -- zlib-wrapped deflate, as HTTP "deflate";</li>
+ * <li>gzip -- one or more gzip members, with CRC checking;</li>
+ * <li>block -- the block-framed format of {@link BlockFraming}: each block is
+ * inflated and decoded in turn, so memory is bounded by the block size.
+ * Stored blocks are passed on without copying;</li>
+ * <li>auto -- gzip or block if the payload starts with their header, and
+ * otherwise uncompressed.</li>
+ * </ul>
+ * </li>
+ * <li>{@value #RECORDS_KEY}: for deflate and gzip, "whole" (the default)
+ * decodes the whole inflated payload at once; "lines" hands on each
+ * {@value #CHUNK_SIZE_KEY} bytes, cut at the last newline, so that
+ * line-oriented payloads (CSV, newline-delimited JSON) are never held in
+ * memory in full. Records must then not span lines, as quoted CSV fields
+ * otherwise may.</li>
+ * <li>{@value #CHUNK_SIZE_KEY}: initial size of the inflate buffer. Default
+ * 64KB.</li>
+ * <li>{@value #MAX_BLOCK_SIZE_KEY}: largest uncompressed block accepted in
+ * the block format; a block claiming more fails to decode before anything
+ * is allocated for it. Inflate buffers grown beyond this are not kept for
+ * the next raw event. Default 16MB.</li>
+ * <li>{@value #MAX_SIZE_KEY}: most inflated bytes held at once for deflate
+ * and gzip: the whole payload, or with "lines" the longest run of bytes
+ * without a newline. A payload inflating to more fails to decode rather than
+ * exhausting memory. Default 64MB.</li>
+ * </ul>
+ *
+ * Decoding into a sink passes events on as each chunk or block is decoded.
+ * Decoded events must not hold on to the bytes they were decoded from: the
+ * buffer is reused as soon as the downstream decoder returns.
+ */
+public class DecompressingDecoder extends AbstractDecoder {
+
+	public static final String COMPRESSION_KEY = "compression";
+	public static final String RECORDS_KEY = "compression_records";
+	public static final String CHUNK_SIZE_KEY = "compression_chunk_size";
+	public static final String MAX_BLOCK_SIZE_KEY = "compression_max_block_size";
+	public static final String MAX_SIZE_KEY = "compression_max_size";
+
+	/** Most that deflate can expand: 1032 bytes out per byte in. */
+	private static final int MAX_DEFLATE_RATIO = 1032;
+
+	public static enum Compression {
+		NONE, DEFLATE, GZIP, BLOCK, AUTO;
+
+		public static Compression parse(String str) {
+			if (str == null)
+				return NONE;
+			try {
+				return valueOf(str.toUpperCase().trim());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Property '" + COMPRESSION_KEY + "' must be one of none, deflate, gzip, block or auto, not '"
+						+ str + "'");
+			}
+		}
+	}
+
+	private static final int GZIP_MAGIC_0 = 0x1f;
+	private static final int GZIP_MAGIC_1 = 0x8b;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	/**
+	 * What a decode inflates with: inflaters, zlib-wrapped and raw, a CRC and
+	 * the output buffer, kept separate from the input scratch space of
+	 * AbstractDecoder.
+	 */
+	private static final class Inflation {
+		final Inflater zlib = new Inflater(false);
+		final Inflater raw = new Inflater(true);
+		final CRC32 crc = new CRC32();
+		byte[] output = new byte[0];
+
+		/**
+		 * The output buffer, at least the given size.
+		 */
+		byte[] output(int size) {
+			if (output.length < size)
+				output = new byte[size];
+			return output;
+		}
+
+		/**
+		 * Double the output buffer, up to max bytes, keeping its first n
+		 * bytes.
+		 */
+		byte[] growOutput(int n, int max) throws DecodeException {
+			if (output.length >= max)
+				throw new DecodeException("Inflated payload over " + MAX_SIZE_KEY + " (" + max + " bytes)");
+			byte[] bigger = new byte[(int) Math.min(Math.max(1024, 2L * output.length), max)];
+			System.arraycopy(output, 0, bigger, 0, n);
+			output = bigger;
+			return bigger;
+		}
+
+		void end() {
+			zlib.end();
+			raw.end();
+		}
+	}
+
+	/**
+	 * Each thread's idle Inflation. A decode takes it and gives it back when
+	 * done, so one whose sink decodes again on the same thread, while the
+	 * first is still emitting from its buffer, gets an Inflation of its own.
+	 */
+	private static final ThreadLocal<Inflation[]> idle = new ThreadLocal<Inflation[]>() {
+		@Override
+		protected Inflation[] initialValue() {
+			return new Inflation[1];
+		}
+	};
+
+	private final Decoder delegate;
+	private final Compression compression;
+	private final boolean splitLines;
+	private final int chunkSize;
+	private final int maxBlockSize;
+	private final int maxSize;
+
+	public DecompressingDecoder(ConfigProperties properties, Decoder delegate) {
+		super(properties);
+		this.delegate = delegate;
+		this.compression = Compression.parse(properties.getString(COMPRESSION_KEY));
+		String records = properties.getString(RECORDS_KEY, "whole");
+		if (!"whole".equalsIgnoreCase(records) && !"lines".equalsIgnoreCase(records))
+			throw new IllegalArgumentException("Property '" + RECORDS_KEY + "' must be 'whole' or 'lines', not '" + records + "'");
+		this.splitLines = "lines".equalsIgnoreCase(records);
+		this.chunkSize = Math.max(1024, properties.getInteger(CHUNK_SIZE_KEY, 64 * 1024));
+		this.maxBlockSize = Math.max(chunkSize, properties.getInteger(MAX_BLOCK_SIZE_KEY, 16 << 20));
+		this.maxSize = Math.max(chunkSize, properties.getInteger(MAX_SIZE_KEY, 64 << 20));
+	}
+
+	/**
+	 * The decoder for a flow: its own decoder, behind a decompression stage if
+	 * the flow properties ask for one.
+	 */
+	public static Decoder forFlow(Flow flow) {
+		ConfigProperties properties = flow.getProperties();
+		Decoder decoder = flow.getDecoder();
+		if (properties == null || Compression.parse(properties.getString(COMPRESSION_KEY)) == Compression.NONE)
+			return decoder;
+		return new DecompressingDecoder(properties, decoder);
+	}
+
+	public Decoder getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public List<String> getRegisterableContentTypes() {
+		return delegate.getRegisterableContentTypes();
+	}
+
+	@Override
+	public List<Event> decode(Object rawEvent) throws DecodeException {
+		if (compression == Compression.NONE || !isBytes(rawEvent))
+			return delegate.decode(rawEvent);
+		return decodeToList(rawEvent);
+	}
+
+	@Override
+	public void decode(Object rawEvent, EventSink events) throws DecodeException {
+		if (compression == Compression.NONE || !isBytes(rawEvent)) {
+			decodeTo(delegate, rawEvent, events);
+			return;
+		}
+
+		ByteSlice in = getByteSlice(rawEvent);
+		try {
+			decode(rawEvent, in.array(), in.offset(), in.length(), events);
+		} finally {
+			releaseByteSlice(in);
+		}
+	}
+
+	private void decode(Object rawEvent, byte[] bytes, int offset, int length, EventSink events) throws DecodeException {
+		Compression actual = compression;
+		if (actual == Compression.AUTO) {
+			if (BlockFraming.hasHeader(bytes, offset, length))
+				actual = Compression.BLOCK;
+			else if (length >= 2 && (bytes[offset] & 0xff) == GZIP_MAGIC_0 && (bytes[offset + 1] & 0xff) == GZIP_MAGIC_1)
+				actual = Compression.GZIP;
+			else {
+				decodeTo(delegate, rawEvent, events);
+				return;
+			}
+		}
+
+		Inflation[] slot = idle.get();
+		Inflation inflation = slot[0];
+		if (inflation == null)
+			inflation = new Inflation();
+		slot[0] = null;
+		try {
+			switch (actual) {
+			case DEFLATE:
+				Inflater inflater = inflation.zlib;
+				inflater.reset();
+				inflater.setInput(bytes, offset, length);
+				int pending = inflate(inflation, inflater, null, 0, events);
+				if (pending > 0)
+					emit(inflation.output, 0, pending, events);
+				break;
+			case GZIP:
+				gunzip(inflation, bytes, offset, length, events);
+				break;
+			case BLOCK:
+				decodeBlocks(inflation, bytes, offset, length, events);
+				break;
+			default:
+				throw new IllegalStateException("Unexpected compression " + actual);
+			}
+		} finally {
+			if (inflation.output.length > maxBlockSize)
+				inflation.output = new byte[0];
+			if (slot[0] == null)
+				slot[0] = inflation;
+			else
+				inflation.end();
+		}
+	}
+
+	/**
+	 * Inflate everything the inflater has into the per-thread output buffer,
+	 * after the {@code pending} bytes already there, passing full chunks (cut
+	 * at newlines) downstream as the buffer fills.
+	 *
+	 * @return the number of bytes left in the output buffer, for the caller
+	 *         to emit once the stream is done.
+	 */
+	private int inflate(Inflation inflation, Inflater inflater, CRC32 crc, int pending, EventSink events) throws DecodeException {
+		byte[] buf = inflation.output(chunkSize);
+		int n = pending;
+		try {
+			while (!inflater.finished()) {
+				if (n == buf.length) {
+					int cut = splitLines ? lastNewline(buf, n) + 1 : 0;
+					if (cut > 0) {
+						emit(buf, 0, cut, events);
+						System.arraycopy(buf, cut, buf, 0, n - cut);
+						n -= cut;
+					} else {
+						buf = inflation.growOutput(n, maxSize);
+					}
+				}
+				int inflated = inflater.inflate(buf, n, buf.length - n);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new DecodeException("Truncated compressed payload");
+				if (crc != null)
+					crc.update(buf, n, inflated);
+				n += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new DecodeException("Corrupt compressed payload: " + e.getMessage(), e);
+		}
+		return n;
+	}
+
+	/**
+	 * Decompress one or more concatenated gzip members. As with gunzip, the
+	 * members make up a single stream, so a record may span two of them.
+	 */
+	private void gunzip(Inflation inflation, byte[] bytes, int offset, int length, EventSink events) throws DecodeException {
+		final int end = offset + length;
+		int pos = offset;
+		int pending = 0;
+		Inflater inflater = inflation.raw;
+		CRC32 crc = inflation.crc;
+		do {
+			pos = skipGzipHeader(bytes, pos, end);
+			inflater.reset();
+			crc.reset();
+			inflater.setInput(bytes, pos, end - pos);
+			pending = inflate(inflation, inflater, crc, pending, events);
+			pos = end - inflater.getRemaining();
+			if (pos + 8 > end)
+				throw new DecodeException("Truncated gzip trailer");
+			if (readIntLE(bytes, pos) != (int) crc.getValue())
+				throw new DecodeException("gzip CRC mismatch");
+			if (readIntLE(bytes, pos + 4) != inflater.getTotalOut())
+				throw new DecodeException("gzip length mismatch");
+			pos += 8;
+		} while (pos + 1 < end && (bytes[pos] & 0xff) == GZIP_MAGIC_0 && (bytes[pos + 1] & 0xff) == GZIP_MAGIC_1);
+		if (pending > 0)
+			emit(inflation.output, 0, pending, events);
+	}
+
+	private static int skipGzipHeader(byte[] bytes, int pos, int end) throws DecodeException {
+		if (pos + 10 > end || (bytes[pos] & 0xff) != GZIP_MAGIC_0 || (bytes[pos + 1] & 0xff) != GZIP_MAGIC_1)
+			throw new DecodeException("Not in gzip format");
+		if (bytes[pos + 2] != 8)
+			throw new DecodeException("Unsupported gzip compression method " + bytes[pos + 2]);
+		int flags = bytes[pos + 3];
+		pos += 10;
+		if ((flags & FEXTRA) != 0) {
+			if (pos + 2 > end)
+				throw new DecodeException("Truncated gzip header");
+			pos += 2 + ((bytes[pos] & 0xff) | (bytes[pos + 1] & 0xff) << 8);
+		}
+		if ((flags & FNAME) != 0)
+			pos = skipZeroTerminated(bytes, pos, end);
+		if ((flags & FCOMMENT) != 0)
+			pos = skipZeroTerminated(bytes, pos, end);
+		if ((flags & FHCRC) != 0)
+			pos += 2;
+		if (pos > end)
+			throw new DecodeException("Truncated gzip header");
+		return pos;
+	}
+
+	private static int skipZeroTerminated(byte[] bytes, int pos, int end) throws DecodeException {
+		while (pos < end)
+			if (bytes[pos++] == 0)
+				return pos;
+		throw new DecodeException("Truncated gzip header");
+	}
+
+	private static int readIntLE(byte[] bytes, int pos) {
+		return (bytes[pos] & 0xff) | (bytes[pos + 1] & 0xff) << 8 | (bytes[pos + 2] & 0xff) << 16 | (bytes[pos + 3] & 0xff) << 24;
+	}
+
+	private void decodeBlocks(Inflation inflation, byte[] bytes, int offset, int length, EventSink events) throws DecodeException {
+		final int end = offset + length;
+		if (!BlockFraming.hasHeader(bytes, offset, length))
+			throw new DecodeException("Not in block-framed format");
+		int[] pos = { offset + BlockFraming.HEADER.length };
+		Inflater inflater = inflation.raw;
+		while (pos[0] < end) {
+			int flag = bytes[pos[0]++];
+			int rawLength = readVarInt(bytes, pos, end);
+			int storedLength = readVarInt(bytes, pos, end);
+			int start = pos[0];
+			if (start + storedLength > end || start + storedLength < start)
+				throw new DecodeException("Truncated block");
+			pos[0] += storedLength;
+
+			if (flag == BlockFraming.STORED) {
+				if (rawLength != storedLength)
+					throw new DecodeException("Stored block length mismatch");
+				emit(bytes, start, storedLength, events);
+			} else if (flag == BlockFraming.DEFLATED) {
+				if (rawLength > maxBlockSize)
+					throw new DecodeException("Block of " + rawLength + " bytes is over " + MAX_BLOCK_SIZE_KEY + " (" + maxBlockSize + ")");
+				if (rawLength > (long) storedLength * MAX_DEFLATE_RATIO)
+					throw new DecodeException("Block of " + storedLength + " bytes cannot inflate to " + rawLength);
+				byte[] buf = inflation.output(rawLength);
+				inflater.reset();
+				inflater.setInput(bytes, start, storedLength);
+				int n = 0;
+				try {
+					while (n < rawLength && !inflater.finished()) {
+						int inflated = inflater.inflate(buf, n, rawLength - n);
+						if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+							break;
+						n += inflated;
+					}
+				} catch (DataFormatException e) {
+					throw new DecodeException("Corrupt block: " + e.getMessage(), e);
+				}
+				if (n != rawLength)
+					throw new DecodeException("Block inflated to " + n + " bytes, expected " + rawLength);
+				emit(buf, 0, rawLength, events);
+			} else {
+				throw new DecodeException("Unknown block type " + flag);
+			}
+		}
+	}
+
+	private static int readVarInt(byte[] bytes, int[] pos, int end) throws DecodeException {
+		int num = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (pos[0] >= end)
+				throw new DecodeException("Truncated block header");
+			byte b = bytes[pos[0]++];
+			num |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				if (num < 0)
+					break;
+				return num;
+			}
+		}
+		throw new DecodeException("Invalid block length");
+	}
+
+	private void emit(byte[] bytes, int offset, int length, EventSink events) throws DecodeException {
+		decodeTo(delegate, new ByteSlice(bytes, offset, length), events);
+	}
+
+	private static int lastNewline(byte[] buf, int n) {
+		for (int i = n - 1; i >= 0; i--)
+			if (buf[i] == '\n')
+				return i;
+		return -1;
+	}
+}
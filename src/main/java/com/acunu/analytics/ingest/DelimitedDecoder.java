@@ -0,0 +1,473 @@
+package com.acunu.analytics.ingest;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acunu.analytics.BatchDecoder;
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventBatch;
+import com.acunu.analytics.EventPool;
+import com.acunu.analytics.EventSchema;
+import com.acunu.analytics.EventSink;
+import com.acunu.analytics.SchemaEvent;
+import com.acunu.analytics.conf.ConfigProperties;
+import com.acunu.analytics.model.DimensionType;
+import com.acunu.analytics.model.Field;
+import com.acunu.analytics.model.SimpleField;
+import com.acunu.util.AsciiNumbers;
+import com.acunu.util.ByteSlice;
+
+/**
+ * A decoder for CSV, TSV and other delimited text, parsing typed values
+ * straight from the raw bytes according to a schema. Each field is scanned in
+ * place: numbers are parsed from the bytes, strings decoded once, and nothing
+ * is split or copied on the way.
+ *
+ * A raw event may contain any number of records, one per line (LF or CRLF).
+ * Fields may be quoted, in which case they can contain the delimiter,
+ * newlines and doubled quotes. Blank lines are ignored.
+ *
+ * Columns are typed by {@link DimensionType}: LONG and TIME become Long,
+ * DOUBLE and DECIMAL Double, everything else String. Empty unquoted fields are
+ * left out of the event. ENUM values are canonicalised per column, so repeated
+ * values share one String. Events are {@link SchemaEvent}s over the decoded
+ * columns, with numbers held unboxed.
+ *
+ * Rows that are malformed -- the wrong number of columns, unparseable
+ * numbers, bad quoting -- are dropped and counted rather than failing the
+ * whole raw event; see {@link #getMalformedRows()}.
+ *
+ * Flow properties:
+ * <ul>
+ * <li>{@value #FIELDS_KEY}: the columns, in order, as "name:TYPE" strings or
+ * maps with name and type. Not needed if the schema is passed to the
+ * constructor.</li>
+ * <li>{@value #COLUMNS_KEY}: names of the columns to keep; the rest are
+ * skipped without being parsed. Default: all.</li>
+ * <li>{@value #DELIMITER_KEY}: single-character delimiter, or "\t". Default
+ * ",", or tab for {@link TabSeparatedDecoder}.</li>
+ * <li>{@value #QUOTE_KEY}: quote character. Default '"'.</li>
+ * <li>{@value #SKIP_HEADER_KEY}: skip the first record of each raw event.
+ * Default false.</li>
+ * </ul>
+ */
+public class DelimitedDecoder extends AbstractDecoder implements BatchDecoder {
+
+	private static Logger logger = LoggerFactory.getLogger(DelimitedDecoder.class);
+
+	public static final String CONTENT_TYPE = "text/csv";
+	public static final String TSV_CONTENT_TYPE = "text/tab-separated-values";
+
+	public static final String FIELDS_KEY = "delimited_fields";
+	public static final String COLUMNS_KEY = "delimited_columns";
+	public static final String DELIMITER_KEY = "delimiter";
+	public static final String QUOTE_KEY = "quote";
+	public static final String SKIP_HEADER_KEY = "skip_header";
+
+	private static final int MAX_ENUM_VALUES = 1024;
+
+	/**
+	 * A column to be decoded: where it goes in the event, and how to parse it.
+	 */
+	protected static class Column {
+		final int index;
+		final int slot;
+		final String name;
+		final DimensionType type;
+
+		Column(int index, int slot, Field field) {
+			this.index = index;
+			this.slot = slot;
+			this.name = field.getName();
+			this.type = field.getDimensionType();
+		}
+	}
+
+	/** The schema, in column order. */
+	protected final List<Field> fields;
+
+	/** The decoded columns, in order: the schema of the events produced. */
+	protected final EventSchema schema;
+
+	/** Decoded columns by position; null for columns projected out. */
+	protected final Column[] columns;
+
+	protected final byte delimiter;
+	protected final byte quote;
+	protected final boolean skipHeader;
+
+	private final AtomicLong decodedRows = new AtomicLong();
+	private final AtomicLong malformedRows = new AtomicLong();
+
+	/**
+	 * Per-thread canonical values for ENUM columns, indexed by column.
+	 */
+	private final ThreadLocal<EnumCache[]> enumCaches = new ThreadLocal<EnumCache[]>() {
+		@Override
+		protected EnumCache[] initialValue() {
+			EnumCache[] caches = new EnumCache[columns.length];
+			for (int i = 0; i < columns.length; i++)
+				if (columns[i] != null && columns[i].type == DimensionType.ENUM)
+					caches[i] = new EnumCache();
+			return caches;
+		}
+	};
+
+	/**
+	 * Schema taken from the {@value #FIELDS_KEY} property.
+	 */
+	public DelimitedDecoder(ConfigProperties properties) throws DecodeException {
+		this(properties, fieldsFromProperties(properties));
+	}
+
+	/**
+	 * Schema given explicitly, e.g. from the receiving table.
+	 */
+	public DelimitedDecoder(ConfigProperties properties, List<Field> fields) {
+		this(properties, fields, ",");
+	}
+
+	/**
+	 * Schema taken from the {@value #FIELDS_KEY} property, with another
+	 * default delimiter.
+	 */
+	protected DelimitedDecoder(ConfigProperties properties, String defaultDelimiter) throws DecodeException {
+		this(properties, fieldsFromProperties(properties), defaultDelimiter);
+	}
+
+	/**
+	 * Schema given explicitly, with another default delimiter.
+	 */
+	protected DelimitedDecoder(ConfigProperties properties, List<Field> fields, String defaultDelimiter) {
+		super(properties);
+		this.fields = fields;
+		this.delimiter = asciiByte(properties.getString(DELIMITER_KEY, defaultDelimiter), DELIMITER_KEY);
+		this.quote = asciiByte(properties.getString(QUOTE_KEY, "\""), QUOTE_KEY);
+		this.skipHeader = properties.getBoolean(SKIP_HEADER_KEY, false);
+
+		List<?> projected = properties.getArray(COLUMNS_KEY);
+		Set<String> keep = null;
+		if (projected != null && !projected.isEmpty()) {
+			keep = new HashSet<String>();
+			for (Object name : projected)
+				keep.add(String.valueOf(name));
+		}
+		this.columns = new Column[fields.size()];
+		List<Field> kept = new ArrayList<Field>(fields.size());
+		for (int i = 0; i < columns.length; i++) {
+			Field field = fields.get(i);
+			if (keep == null || keep.contains(field.getName())) {
+				columns[i] = new Column(i, kept.size(), field);
+				kept.add(field);
+			}
+		}
+		this.schema = new EventSchema(kept);
+	}
+
+	private static List<Field> fieldsFromProperties(ConfigProperties properties) throws DecodeException {
+		List<?> specs = properties.getArray(FIELDS_KEY);
+		if (specs == null || specs.isEmpty())
+			throw new DecodeException("No schema: set the '" + FIELDS_KEY + "' property");
+		try {
+			return SimpleField.parseAll(specs);
+		} catch (IllegalArgumentException e) {
+			throw new DecodeException("Invalid schema in '" + FIELDS_KEY + "'", e);
+		}
+	}
+
+	private static byte asciiByte(String str, String key) {
+		if ("\\t".equals(str))
+			return '\t';
+		if (str == null || str.length() != 1 || str.charAt(0) > 0x7f)
+			throw new IllegalArgumentException("Property '" + key + "' must be a single ASCII character, not '" + str + "'");
+		return (byte) str.charAt(0);
+	}
+
+	@Override
+	public List<String> getRegisterableContentTypes() {
+		return Arrays.asList(CONTENT_TYPE);
+	}
+
+	/**
+	 * Rows successfully decoded since this decoder was created.
+	 */
+	public long getDecodedRows() {
+		return decodedRows.get();
+	}
+
+	/**
+	 * Rows dropped as malformed since this decoder was created.
+	 */
+	public long getMalformedRows() {
+		return malformedRows.get();
+	}
+
+	@Override
+	public List<Event> decode(Object rawEvent) throws DecodeException {
+		return decodeToList(rawEvent);
+	}
+
+	@Override
+	public void decode(Object rawEvent, EventSink sink) throws DecodeException {
+		ByteSlice slice = getByteSlice(rawEvent);
+		try {
+			parse(slice.array(), slice.offset(), slice.offset() + slice.length(), sink);
+		} finally {
+			releaseByteSlice(slice);
+		}
+	}
+
+	/**
+	 * Decode into a columnar batch over the decoded columns. Rows are parsed
+	 * into one recycled event and copied into the columns unboxed.
+	 */
+	@Override
+	public EventBatch decodeBatch(Object rawEvent) throws DecodeException {
+		ByteSlice slice = getByteSlice(rawEvent);
+		final EventBatch batch = new EventBatch(schema);
+		final EventPool rows = new EventPool(false);
+		EventPool previous = EventPool.current();
+		EventPool.setCurrent(rows);
+		try {
+			parse(slice.array(), slice.offset(), slice.offset() + slice.length(), new EventSink() {
+				@Override
+				public void accept(Event event) {
+					batch.addEvent(event);
+					rows.release(event);
+				}
+			});
+		} finally {
+			EventPool.setCurrent(previous);
+			releaseByteSlice(slice);
+		}
+		return batch;
+	}
+
+	/**
+	 * Parse all the records in bytes[pos, end) into events, passing each on
+	 * as soon as its row is complete.
+	 */
+	protected void parse(final byte[] bytes, int pos, final int end, EventSink out) {
+		final EnumCache[] enums = enumCaches.get();
+		final EventPool pool = EventPool.current();
+		boolean header = skipHeader;
+		int decoded = 0, malformed = 0;
+
+		while (pos < end) {
+			// blank lines between records
+			if (bytes[pos] == '\n' || bytes[pos] == '\r') {
+				pos++;
+				continue;
+			}
+
+			final int recordStart = pos;
+			final Event event = header ? null : newEvent();
+			boolean bad = false;
+			int col = 0;
+			while (true) {
+				int start, stop;
+				boolean quoted = false, escaped = false;
+				if (pos < end && bytes[pos] == quote) {
+					quoted = true;
+					start = ++pos;
+					stop = -1;
+					while (pos < end) {
+						if (bytes[pos] == quote) {
+							if (pos + 1 < end && bytes[pos + 1] == quote) {
+								escaped = true;
+								pos += 2;
+								continue;
+							}
+							stop = pos++;
+							break;
+						}
+						pos++;
+					}
+					if (stop < 0) {
+						// unterminated quote swallows the rest of the input.
+						bad = true;
+						stop = end;
+					}
+					if (pos < end && bytes[pos] != delimiter && bytes[pos] != '\n' && bytes[pos] != '\r') {
+						bad = true;
+						while (pos < end && bytes[pos] != delimiter && bytes[pos] != '\n' && bytes[pos] != '\r')
+							pos++;
+					}
+				} else {
+					start = pos;
+					while (pos < end && bytes[pos] != delimiter && bytes[pos] != '\n' && bytes[pos] != '\r')
+						pos++;
+					stop = pos;
+				}
+
+				if (event != null && !bad && col < columns.length && columns[col] != null)
+					bad = !parseField(event, columns[col], enums[col], bytes, start, stop, quoted, escaped);
+				col++;
+
+				if (pos < end && bytes[pos] == delimiter) {
+					pos++;
+					if (pos == end) {
+						// trailing delimiter: one last empty field.
+						col++;
+						break;
+					}
+					continue;
+				}
+				if (pos < end && bytes[pos] == '\r')
+					pos++;
+				if (pos < end && bytes[pos] == '\n')
+					pos++;
+				break;
+			}
+
+			if (header) {
+				header = false;
+			} else if (bad || col != columns.length) {
+				malformed++;
+				if (pool != null)
+					pool.release(event);
+				if (logger.isDebugEnabled())
+					logger.debug("Dropping malformed row: {}", new String(bytes, recordStart, pos - recordStart, charset));
+			} else {
+				decoded++;
+				out.accept(event);
+			}
+		}
+
+		if (decoded > 0)
+			decodedRows.addAndGet(decoded);
+		if (malformed > 0)
+			malformedRows.addAndGet(malformed);
+	}
+
+	/**
+	 * A new event to fill with a row: by default a {@link SchemaEvent} over
+	 * the decoded columns, from the thread's {@link EventPool} if it has one.
+	 */
+	protected Event newEvent() {
+		return EventPool.newEvent(schema);
+	}
+
+	/**
+	 * Set a column in the event, by slot if it is one of ours.
+	 */
+	private void set(Event event, Column column, Object value) {
+		if (event instanceof SchemaEvent && ((SchemaEvent) event).getSchema() == schema)
+			((SchemaEvent) event).put(column.slot, value);
+		else
+			event.put(column.name, value);
+	}
+
+	private void setLong(Event event, Column column, long value) {
+		if (event instanceof SchemaEvent && ((SchemaEvent) event).getSchema() == schema)
+			((SchemaEvent) event).putLong(column.slot, value);
+		else
+			event.putLong(column.name, value);
+	}
+
+	private void setDouble(Event event, Column column, double value) {
+		if (event instanceof SchemaEvent && ((SchemaEvent) event).getSchema() == schema)
+			((SchemaEvent) event).putDouble(column.slot, value);
+		else
+			event.putDouble(column.name, value);
+	}
+
+	/**
+	 * Parse one field into the event.
+	 *
+	 * @return false if the field is malformed.
+	 */
+	protected boolean parseField(Event event, Column column, EnumCache enums, byte[] bytes, int start, int stop,
+			boolean quoted, boolean escaped) {
+		switch (column.type) {
+		case LONG:
+		case TIME:
+		case DOUBLE:
+		case DECIMAL:
+			while (start < stop && bytes[start] == ' ')
+				start++;
+			while (stop > start && bytes[stop - 1] == ' ')
+				stop--;
+			if (start == stop)
+				return true;
+			try {
+				if (column.type.rawType == Long.class)
+					setLong(event, column, AsciiNumbers.parseLong(bytes, start, stop - start));
+				else
+					setDouble(event, column, AsciiNumbers.parseDouble(bytes, start, stop - start));
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		default:
+			if (start == stop && !quoted)
+				return true;
+			if (escaped)
+				set(event, column, unescape(bytes, start, stop));
+			else if (enums != null)
+				set(event, column, enums.lookup(bytes, start, stop - start, charset));
+			else
+				set(event, column, new String(bytes, start, stop - start, charset));
+			return true;
+		}
+	}
+
+	private String unescape(byte[] bytes, int start, int stop) {
+		byte[] unescaped = new byte[stop - start];
+		int n = 0;
+		for (int i = start; i < stop; i++) {
+			unescaped[n++] = bytes[i];
+			if (bytes[i] == quote)
+				i++;
+		}
+		return new String(unescaped, 0, n, charset);
+	}
+
+	/**
+	 * Canonical Strings for the values of one ENUM column, looked up by their
+	 * bytes. Bounded, so a high-cardinality column just stops being cached.
+	 */
+	protected static class EnumCache {
+		private static final int SIZE = 2 * MAX_ENUM_VALUES;
+
+		private final byte[][] bytes = new byte[SIZE][];
+		private final String[] strings = new String[SIZE];
+		private int entries = 0;
+
+		String lookup(byte[] buf, int offset, int length, Charset charset) {
+			int hash = 0;
+			for (int i = offset; i < offset + length; i++)
+				hash = 31 * hash + buf[i];
+			int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+			while (bytes[slot] != null) {
+				if (equal(bytes[slot], buf, offset, length))
+					return strings[slot];
+				slot = (slot + 1) & (SIZE - 1);
+			}
+			String value = new String(buf, offset, length, charset);
+			if (entries < MAX_ENUM_VALUES) {
+				bytes[slot] = Arrays.copyOfRange(buf, offset, offset + length);
+				strings[slot] = value;
+				entries++;
+			}
+			return value;
+		}
+
+		private static boolean equal(byte[] key, byte[] buf, int offset, int length) {
+			if (key.length != length)
+				return false;
+			for (int i = 0; i < length; i++)
+				if (key[i] != buf[offset + i])
+					return false;
+			return true;
+		}
+	}
+}
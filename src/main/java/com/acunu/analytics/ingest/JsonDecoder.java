@@ -0,0 +1,165 @@
+package com.acunu.analytics.ingest;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventSink;
+import com.acunu.analytics.LazyEvent;
+import com.acunu.analytics.conf.ConfigProperties;
+import com.acunu.util.ByteSlice;
+
+/**
+ * A decoder for JSON, parsing straight from the raw bytes into Events with no
+ * intermediate Reader, tree or copy of the input.
+ *
+ * A raw event may hold a JSON object (one event), an array of objects (one
+ * event per element; arrays of arrays become {@link Event#fromArray} events),
+ * or several such values separated by whitespace, as in newline-delimited
+ * JSON. Nested objects become Maps and nested arrays Object[].
+ *
+ * Bytes are always read as UTF-8, as JSON requires; the flow's charset
+ * property does not apply.
+ *
+ * Flow properties:
+ * <ul>
+ * <li>{@value #FIELDS_KEY}: list of top-level keys to keep. Other keys are
+ * skipped without decoding their values. Default: keep everything.</li>
+ * <li>{@value #LAZY_KEY}: produce {@link LazyEvent}s, which find where each
+ * top-level value lies but parse it only when it is read. Worthwhile when
+ * receivers read few of many fields. Malformed values then surface as
+ * IllegalArgumentException on reading. Default false.</li>
+ * <li>{@value #MAX_DEPTH_KEY}: deepest nesting of objects and arrays
+ * accepted; a raw event nested deeper fails to decode. Default 512.</li>
+ * </ul>
+ */
+public class JsonDecoder extends AbstractDecoder {
+
+	public static final String CONTENT_TYPE = "application/json";
+
+	/**
+	 * Flow property listing the top-level fields to decode.
+	 */
+	public static final String FIELDS_KEY = "json_fields";
+
+	/**
+	 * Flow property turning on lazy parsing of values.
+	 */
+	public static final String LAZY_KEY = "json_lazy";
+
+	/**
+	 * Flow property limiting how deeply objects and arrays may nest.
+	 */
+	public static final String MAX_DEPTH_KEY = "json_max_depth";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Set<String> projection;
+
+	private final boolean lazy;
+
+	private final int maxDepth;
+
+	/**
+	 * Parsers carry a string buffer and key cache, so are reused per thread.
+	 */
+	private final ThreadLocal<JsonParser> parsers = new ThreadLocal<JsonParser>() {
+		@Override
+		protected JsonParser initialValue() {
+			return newParser();
+		}
+	};
+
+	/**
+	 * Parsers for the values of lazy events. Separate from the decoding
+	 * parsers, as values may be read while decoding is under way.
+	 */
+	private final ThreadLocal<JsonParser> valueParsers = new ThreadLocal<JsonParser>() {
+		@Override
+		protected JsonParser initialValue() {
+			return new JsonParser(null, null, maxDepth);
+		}
+	};
+
+	private final LazyEvent.ValueParser lazyValues = new LazyEvent.ValueParser() {
+		@Override
+		public Object parse(byte[] bytes, int offset, int length) {
+			try {
+				return valueParsers.get().parseValue(bytes, offset, length);
+			} catch (DecodeException e) {
+				throw new IllegalArgumentException(e.getMessage(), e);
+			}
+		}
+	};
+
+	public JsonDecoder() {
+		super();
+		this.projection = null;
+		this.lazy = false;
+		this.maxDepth = JsonParser.DEFAULT_MAX_DEPTH;
+	}
+
+	public JsonDecoder(ConfigProperties properties) {
+		super(properties);
+		this.lazy = properties.getBoolean(LAZY_KEY, false);
+		this.maxDepth = properties.getInteger(MAX_DEPTH_KEY, JsonParser.DEFAULT_MAX_DEPTH);
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("Invalid " + MAX_DEPTH_KEY + " " + maxDepth);
+		List<?> fields = properties.getArray(FIELDS_KEY);
+		if (fields == null || fields.isEmpty()) {
+			this.projection = null;
+		} else {
+			Set<String> keys = new HashSet<String>();
+			for (Object field : fields)
+				keys.add(String.valueOf(field));
+			this.projection = Collections.unmodifiableSet(keys);
+		}
+	}
+
+	@Override
+	public List<String> getRegisterableContentTypes() {
+		return Collections.singletonList(CONTENT_TYPE);
+	}
+
+	@Override
+	public List<Event> decode(Object rawEvent) throws DecodeException {
+		return decodeToList(rawEvent);
+	}
+
+	@Override
+	public void decode(Object rawEvent, EventSink sink) throws DecodeException {
+		ByteSlice bytes = getUtf8Bytes(rawEvent);
+		JsonParser parser = parsers.get();
+		// the sink may decode on this thread while the parser is still in use
+		if (parser.inUse())
+			parser = newParser();
+		parser.reset(bytes.array(), bytes.offset(), bytes.length());
+		try {
+			while (parser.hasMore())
+				parser.parseEvents(sink);
+		} finally {
+			parser.release();
+			releaseByteSlice(bytes);
+		}
+	}
+
+	private JsonParser newParser() {
+		return new JsonParser(projection, lazy ? lazyValues : null, maxDepth);
+	}
+
+	/**
+	 * The raw event as UTF-8 bytes: binary raw events as they are, text
+	 * encoded.
+	 */
+	protected ByteSlice getUtf8Bytes(Object rawEvent) throws DecodeException {
+		if (rawEvent instanceof String)
+			return ByteSlice.wrap(((String) rawEvent).getBytes(UTF8));
+		else if (rawEvent instanceof char[])
+			return ByteSlice.wrap(new String((char[]) rawEvent).getBytes(UTF8));
+		else
+			return getByteSlice(rawEvent);
+	}
+}
@@ -0,0 +1,635 @@
+package com.acunu.analytics.ingest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventPool;
+import com.acunu.analytics.EventSink;
+import com.acunu.analytics.LazyEvent;
+import com.acunu.util.AsciiNumbers;
+
+/**
+ * A pull parser turning UTF-8 JSON bytes straight into {@link Event}s. Not
+ * thread-safe: {@link JsonDecoder} keeps one per thread and reuses it, along
+ * with its string buffer and cache of object keys.
+ *
+ * Objects become Maps (Events at the top level), arrays Object[], integers
+ * Long, other numbers Double, and true/false/null Boolean or null. Objects
+ * and arrays nested deeper than the parser's maximum depth are rejected,
+ * whether parsed or skipped.
+ */
+class JsonParser {
+
+	/** Default deepest nesting of objects and arrays. */
+	static final int DEFAULT_MAX_DEPTH = 512;
+
+	/** Top-level keys to keep; null for all of them. */
+	private final Set<String> projection;
+
+	private byte[] buf;
+	private int pos;
+	private int end;
+
+	/** Scratch space for decoding strings. */
+	private char[] chars = new char[256];
+
+	private final KeyCache keys = new KeyCache();
+
+	private final int maxDepth;
+
+	/** Closing brackets of the objects and arrays open, innermost last. */
+	private byte[] closers = new byte[16];
+	private int depth;
+
+	/** For lazy events: parses their values on demand. Null to parse eagerly. */
+	private final LazyEvent.ValueParser lazyValues;
+
+	/** Scratch space for indexing lazy events. */
+	private String[] lazyKeys = new String[32];
+	private int[] lazyOffsets = new int[32];
+	private int[] lazyLengths = new int[32];
+
+	JsonParser(Set<String> projection) {
+		this(projection, null, DEFAULT_MAX_DEPTH);
+	}
+
+	JsonParser(Set<String> projection, LazyEvent.ValueParser lazyValues, int maxDepth) {
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("Invalid maximum depth " + maxDepth);
+		this.projection = projection;
+		this.lazyValues = lazyValues;
+		this.maxDepth = maxDepth;
+	}
+
+	void reset(byte[] bytes, int offset, int length) {
+		this.buf = bytes;
+		this.pos = offset;
+		this.end = offset + length;
+		this.depth = 0;
+	}
+
+	/** Drop the reference to the input once parsing is done. */
+	void release() {
+		this.buf = null;
+	}
+
+	/** Whether the parser has input it has not been released from. */
+	boolean inUse() {
+		return buf != null;
+	}
+
+	/**
+	 * Whether there is another top-level value to parse. Allows several
+	 * whitespace-separated documents (e.g. newline-delimited JSON) in one raw
+	 * event.
+	 */
+	boolean hasMore() {
+		skipWhitespace();
+		return pos < end;
+	}
+
+	/**
+	 * Parse the next top-level value into events: an object is one event, an
+	 * array is one event per element, each passed on as soon as it is parsed.
+	 */
+	void parseEvents(EventSink out) throws DecodeException {
+		skipWhitespace();
+		byte c = peek();
+		if (c == '{') {
+			out.accept(parseEvent());
+		} else if (c == '[') {
+			pos++;
+			skipWhitespace();
+			if (peek() == ']') {
+				pos++;
+				return;
+			}
+			while (true) {
+				skipWhitespace();
+				c = peek();
+				if (c == '{')
+					out.accept(parseEvent());
+				else if (c == '[')
+					out.accept(Event.fromArray(parseArray()));
+				else
+					throw error("Expected an object or array for each event");
+				skipWhitespace();
+				c = next();
+				if (c == ']')
+					return;
+				if (c != ',')
+					throw error("Expected ',' or ']'");
+			}
+		} else {
+			throw error("Expected a JSON object or array");
+		}
+	}
+
+	private static void release(Event event) {
+		EventPool pool = EventPool.current();
+		if (pool != null)
+			pool.release(event);
+	}
+
+	/**
+	 * Parse an object as an event, keeping only projected keys.
+	 */
+	Event parseEvent() throws DecodeException {
+		if (lazyValues != null)
+			return indexEvent();
+		Event event = EventPool.newEvent();
+		try {
+			parseMembers(event, true);
+		} catch (DecodeException e) {
+			release(event);
+			throw e;
+		}
+		return event;
+	}
+
+	/**
+	 * Find the fields of an object without parsing their values, for a
+	 * {@link LazyEvent} over a copy of the object's bytes.
+	 */
+	private LazyEvent indexEvent() throws DecodeException {
+		final int start = pos;
+		int n = 0;
+		expect('{');
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+		} else {
+			while (true) {
+				skipWhitespace();
+				expect('"');
+				String key = parseKey(true);
+				skipWhitespace();
+				expect(':');
+				skipWhitespace();
+				int valueStart = pos;
+				skipValue();
+				if (key != null) {
+					int index = lazyIndexOf(key, n);
+					if (index < 0) {
+						if (n == lazyKeys.length)
+							growLazy();
+						index = n++;
+					}
+					// a repeated key replaces the earlier value, as in a map
+					lazyKeys[index] = key;
+					lazyOffsets[index] = valueStart - start;
+					lazyLengths[index] = pos - valueStart;
+				}
+				skipWhitespace();
+				byte c = next();
+				if (c == '}')
+					break;
+				if (c != ',')
+					throw error("Expected ',' or '}'");
+			}
+		}
+		byte[] bytes = Arrays.copyOfRange(buf, start, pos);
+		return new LazyEvent(bytes, Arrays.copyOf(lazyKeys, n), Arrays.copyOf(lazyOffsets, n), Arrays.copyOf(lazyLengths, n), n,
+				lazyValues);
+	}
+
+	private int lazyIndexOf(String key, int n) {
+		for (int i = 0; i < n; i++)
+			if (lazyKeys[i] == key || lazyKeys[i].equals(key))
+				return i;
+		return -1;
+	}
+
+	private void growLazy() {
+		int size = lazyKeys.length * 2;
+		lazyKeys = Arrays.copyOf(lazyKeys, size);
+		lazyOffsets = Arrays.copyOf(lazyOffsets, size);
+		lazyLengths = Arrays.copyOf(lazyLengths, size);
+	}
+
+	/**
+	 * Parse a single value from the given bytes, as for a {@link LazyEvent}.
+	 */
+	Object parseValue(byte[] bytes, int offset, int length) throws DecodeException {
+		reset(bytes, offset, length);
+		try {
+			skipWhitespace();
+			Object value = parseValue();
+			skipWhitespace();
+			if (pos != end)
+				throw error("Unexpected data after value");
+			return value;
+		} finally {
+			release();
+		}
+	}
+
+	private Map<String, Object> parseObject() throws DecodeException {
+		Map<String, Object> map = new HashMap<String, Object>();
+		parseMembers(map, false);
+		return map;
+	}
+
+	private void parseMembers(Map<String, Object> target, boolean project) throws DecodeException {
+		expect('{');
+		open((byte) '}');
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			depth--;
+			return;
+		}
+		while (true) {
+			skipWhitespace();
+			expect('"');
+			String key = parseKey(project);
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			if (key == null)
+				skipValue();
+			else
+				target.put(key, parseValue());
+			skipWhitespace();
+			byte c = next();
+			if (c == '}') {
+				depth--;
+				return;
+			}
+			if (c != ',')
+				throw error("Expected ',' or '}'");
+		}
+	}
+
+	private Object[] parseArray() throws DecodeException {
+		expect('[');
+		open((byte) ']');
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			depth--;
+			return new Object[0];
+		}
+		List<Object> values = new ArrayList<Object>();
+		while (true) {
+			skipWhitespace();
+			values.add(parseValue());
+			skipWhitespace();
+			byte c = next();
+			if (c == ']') {
+				depth--;
+				return values.toArray();
+			}
+			if (c != ',')
+				throw error("Expected ',' or ']'");
+		}
+	}
+
+	private Object parseValue() throws DecodeException {
+		byte c = peek();
+		switch (c) {
+		case '"':
+			pos++;
+			return parseString();
+		case '{':
+			return parseObject();
+		case '[':
+			return parseArray();
+		case 't':
+			literal("true");
+			return Boolean.TRUE;
+		case 'f':
+			literal("false");
+			return Boolean.FALSE;
+		case 'n':
+			literal("null");
+			return null;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return parseNumber();
+			throw error("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private Object parseNumber() throws DecodeException {
+		int start = pos;
+		boolean integral = true;
+		while (pos < end) {
+			byte c = buf[pos];
+			if (c >= '0' && c <= '9' || c == '-')
+				pos++;
+			else if (c == '.' || c == 'e' || c == 'E' || c == '+') {
+				integral = false;
+				pos++;
+			} else
+				break;
+		}
+		try {
+			if (integral) {
+				try {
+					return Long.valueOf(AsciiNumbers.parseLong(buf, start, pos - start));
+				} catch (NumberFormatException e) {
+					// too big for a long, fall back to a double.
+				}
+			}
+			return Double.valueOf(AsciiNumbers.parseDouble(buf, start, pos - start));
+		} catch (NumberFormatException e) {
+			pos = start;
+			throw error("Invalid number");
+		}
+	}
+
+	/**
+	 * Parse a key, the opening quote having been consumed. Keys are canonical
+	 * (repeated keys give the same String instance) and are returned as null
+	 * if projected out.
+	 */
+	private String parseKey(boolean project) throws DecodeException {
+		int start = pos;
+		int hash = 0;
+		while (pos < end) {
+			byte c = buf[pos];
+			if (c == '"') {
+				String key = keys.lookup(buf, start, pos - start, hash);
+				pos++;
+				return (!project || projection == null || keys.lastProjected) ? key : null;
+			}
+			if (c == '\\' || c < 0)
+				break;
+			hash = 31 * hash + c;
+			pos++;
+		}
+		// Escapes or non-ASCII: decode properly, and do not cache.
+		pos = start;
+		String key = parseString();
+		if (project && projection != null && !projection.contains(key))
+			return null;
+		return key;
+	}
+
+	/**
+	 * Parse a string, the opening quote having been consumed.
+	 */
+	private String parseString() throws DecodeException {
+		int n = 0;
+		while (true) {
+			if (pos >= end)
+				throw error("Unterminated string");
+			int c = buf[pos++];
+			if (c == '"')
+				return new String(chars, 0, n);
+			if (n + 2 > chars.length)
+				growChars();
+			if (c >= 0) {
+				if (c == '\\')
+					n = parseEscape(n);
+				else
+					chars[n++] = (char) c;
+			} else {
+				n = parseMultiByte(c, n);
+			}
+		}
+	}
+
+	private int parseEscape(int n) throws DecodeException {
+		byte c = next();
+		switch (c) {
+		case '"':
+		case '\\':
+		case '/':
+			chars[n++] = (char) c;
+			break;
+		case 'b':
+			chars[n++] = '\b';
+			break;
+		case 'f':
+			chars[n++] = '\f';
+			break;
+		case 'n':
+			chars[n++] = '\n';
+			break;
+		case 'r':
+			chars[n++] = '\r';
+			break;
+		case 't':
+			chars[n++] = '\t';
+			break;
+		case 'u':
+			if (pos + 4 > end)
+				throw error("Truncated unicode escape");
+			int code = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(buf[pos++], 16);
+				if (digit < 0)
+					throw error("Invalid unicode escape");
+				code = (code << 4) | digit;
+			}
+			chars[n++] = (char) code;
+			break;
+		default:
+			throw error("Invalid escape '\\" + (char) c + "'");
+		}
+		return n;
+	}
+
+	/**
+	 * Decode a UTF-8 sequence whose lead byte has been consumed.
+	 */
+	private int parseMultiByte(int lead, int n) throws DecodeException {
+		int codePoint;
+		int extra;
+		if ((lead & 0xe0) == 0xc0) {
+			codePoint = lead & 0x1f;
+			extra = 1;
+		} else if ((lead & 0xf0) == 0xe0) {
+			codePoint = lead & 0x0f;
+			extra = 2;
+		} else if ((lead & 0xf8) == 0xf0) {
+			codePoint = lead & 0x07;
+			extra = 3;
+		} else {
+			throw error("Invalid UTF-8");
+		}
+		if (pos + extra > end)
+			throw error("Truncated UTF-8");
+		for (int i = 0; i < extra; i++) {
+			int b = buf[pos++];
+			if ((b & 0xc0) != 0x80)
+				throw error("Invalid UTF-8");
+			codePoint = (codePoint << 6) | (b & 0x3f);
+		}
+		if (codePoint > Character.MAX_CODE_POINT)
+			throw error("Invalid UTF-8");
+		return n + Character.toChars(codePoint, chars, n);
+	}
+
+	/**
+	 * Skip over a value without building anything.
+	 */
+	void skipValue() throws DecodeException {
+		byte c = peek();
+		if (c == '"') {
+			pos++;
+			skipString();
+		} else if (c == '{' || c == '[') {
+			int outer = depth;
+			do {
+				if (pos >= end)
+					throw error("Unterminated " + (c == '{' ? "object" : "array"));
+				byte b = buf[pos++];
+				if (b == '"') {
+					skipString();
+				} else if (b == '{') {
+					open((byte) '}');
+				} else if (b == '[') {
+					open((byte) ']');
+				} else if (b == '}' || b == ']') {
+					if (closers[depth - 1] != b) {
+						pos--;
+						throw error("Expected '" + (char) closers[depth - 1] + "'");
+					}
+					depth--;
+				}
+			} while (depth > outer);
+		} else {
+			int start = pos;
+			while (pos < end) {
+				byte b = buf[pos];
+				if (b == ',' || b == '}' || b == ']' || isWhitespace(b))
+					break;
+				pos++;
+			}
+			if (pos == start)
+				throw error("Expected a value");
+		}
+	}
+
+	/**
+	 * Enter an object or array, to be closed by the given bracket.
+	 */
+	private void open(byte closer) throws DecodeException {
+		if (depth == maxDepth)
+			throw error("Nested deeper than " + maxDepth);
+		if (depth == closers.length)
+			closers = Arrays.copyOf(closers, Math.min(2 * depth, maxDepth));
+		closers[depth++] = closer;
+	}
+
+	private void skipString() throws DecodeException {
+		while (pos < end) {
+			byte b = buf[pos++];
+			if (b == '"')
+				return;
+			if (b == '\\')
+				pos++;
+		}
+		throw error("Unterminated string");
+	}
+
+	private void literal(String literal) throws DecodeException {
+		int length = literal.length();
+		if (pos + length > end)
+			throw error("Expected '" + literal + "'");
+		for (int i = 0; i < length; i++)
+			if (buf[pos + i] != literal.charAt(i))
+				throw error("Expected '" + literal + "'");
+		pos += length;
+	}
+
+	private void skipWhitespace() {
+		while (pos < end && isWhitespace(buf[pos]))
+			pos++;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+
+	private byte peek() throws DecodeException {
+		if (pos >= end)
+			throw error("Unexpected end of input");
+		return buf[pos];
+	}
+
+	private byte next() throws DecodeException {
+		if (pos >= end)
+			throw error("Unexpected end of input");
+		return buf[pos++];
+	}
+
+	private void expect(char c) throws DecodeException {
+		if (next() != c) {
+			pos--;
+			throw error("Expected '" + c + "'");
+		}
+	}
+
+	private void growChars() {
+		char[] bigger = new char[2 * chars.length];
+		System.arraycopy(chars, 0, bigger, 0, chars.length);
+		chars = bigger;
+	}
+
+	private DecodeException error(String message) {
+		return new DecodeException(message + " at offset " + pos);
+	}
+
+	/**
+	 * Canonical key Strings, looked up by their ASCII bytes so that repeated
+	 * keys cost neither a String nor a hash of one. Open addressing; stops
+	 * caching once full, so a stream of unique keys cannot grow it.
+	 */
+	private class KeyCache {
+		private static final int SIZE = 512;
+		private static final int MAX_ENTRIES = 384;
+
+		private final byte[][] bytes = new byte[SIZE][];
+		private final int[] hashes = new int[SIZE];
+		private final String[] strings = new String[SIZE];
+		private final boolean[] projected = new boolean[SIZE];
+		private int entries = 0;
+
+		/** Whether the key returned by the last lookup is projected. */
+		boolean lastProjected;
+
+		String lookup(byte[] buf, int offset, int length, int hash) {
+			int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+			while (bytes[slot] != null) {
+				if (hashes[slot] == hash && equal(bytes[slot], buf, offset, length)) {
+					lastProjected = projected[slot];
+					return strings[slot];
+				}
+				slot = (slot + 1) & (SIZE - 1);
+			}
+			char[] keyChars = new char[length];
+			for (int i = 0; i < length; i++)
+				keyChars[i] = (char) buf[offset + i];
+			String key = new String(keyChars);
+			lastProjected = projection == null || projection.contains(key);
+			if (entries < MAX_ENTRIES) {
+				byte[] copy = new byte[length];
+				System.arraycopy(buf, offset, copy, 0, length);
+				bytes[slot] = copy;
+				hashes[slot] = hash;
+				strings[slot] = key;
+				projected[slot] = lastProjected;
+				entries++;
+			}
+			return key;
+		}
+
+		private boolean equal(byte[] key, byte[] buf, int offset, int length) {
+			if (key.length != length)
+				return false;
+			for (int i = 0; i < length; i++)
+				if (key[i] != buf[offset + i])
+					return false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.acunu.analytics.ingest;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.acunu.analytics.conf.ConfigProperties;
+import com.acunu.analytics.model.Field;
+
+/**
+ * A {@link DelimitedDecoder} for tab-separated values: the same, but with
+ * the {@value DelimitedDecoder#DELIMITER_KEY} property defaulting to a tab,
+ * so that TSV found through the {@link DecoderRegistry} is split on tabs.
+ */
+public class TabSeparatedDecoder extends DelimitedDecoder {
+
+	public TabSeparatedDecoder(ConfigProperties properties) throws DecodeException {
+		super(properties, "\t");
+	}
+
+	public TabSeparatedDecoder(ConfigProperties properties, List<Field> fields) {
+		super(properties, fields, "\t");
+	}
+
+	@Override
+	public List<String> getRegisterableContentTypes() {
+		return Arrays.asList(TSV_CONTENT_TYPE);
+	}
+}
@@ -0,0 +1,79 @@
+package com.acunu.analytics.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A plain name and type, for describing a schema outside the server -- e.g.
+ * in decoder properties.
+ */
+public class SimpleField implements Field {
+	private final String name;
+	private final DimensionType type;
+
+	public SimpleField(String name, DimensionType type) {
+		if (name == null || type == null)
+			throw new IllegalArgumentException("Field needs a name and a type");
+		this.name = name;
+		this.type = type;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public DimensionType getDimensionType() {
+		return type;
+	}
+
+	/**
+	 * Parse a field from either a "name:TYPE" string or a map with "name" and
+	 * "type" entries. A bare name is a STRING.
+	 */
+	public static SimpleField parse(Object spec) {
+		if (spec instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) spec;
+			Object type = map.get("type");
+			return new SimpleField(String.valueOf(map.get("name")), type == null ? DimensionType.STRING
+					: DimensionType.parse(type.toString()));
+		}
+		String str = String.valueOf(spec).trim();
+		int colon = str.lastIndexOf(':');
+		if (colon < 0)
+			return new SimpleField(str, DimensionType.STRING);
+		return new SimpleField(str.substring(0, colon).trim(), DimensionType.parse(str.substring(colon + 1)));
+	}
+
+	/**
+	 * Parse a list of field specs, as in {@link #parse(Object)}.
+	 */
+	public static List<Field> parseAll(List<?> specs) {
+		List<Field> fields = new ArrayList<Field>(specs.size());
+		for (Object spec : specs)
+			fields.add(parse(spec));
+		return fields;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof SimpleField))
+			return false;
+		SimpleField other = (SimpleField) obj;
+		return name.equals(other.name) && type == other.type;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * name.hashCode() + type.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name + ":" + type;
+	}
+}
@@ -0,0 +1,269 @@
+package com.acunu.analytics.preprocess;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acunu.analytics.BatchEventReceiver;
+import com.acunu.analytics.Context;
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventBatch;
+import com.acunu.analytics.EventPool;
+import com.acunu.analytics.EventReceiver;
+import com.acunu.analytics.Preprocessor;
+import com.acunu.analytics.conf.ConfigProperties;
+
+/**
+ * Flattens nested events into flat ones and sends them on, so that a nested
+ * field such as {"user": {"geo": {"city": "Paris"}}} reaches a table as
+ * "user.geo.city" = "Paris", e.g. for a PATH dimension.
+ *
+ * Paths are looked up in a trie of the paths seen so far, whose nodes hold
+ * the joined path String. After the first few events, flattening builds no
+ * Strings and hashes nothing but the keys of the nested maps themselves, whose
+ * hashes String caches. The trie stops growing at {@value #MAX_PATHS_KEY}
+ * paths; paths beyond that are joined afresh each time.
+ *
+ * Top-level fields that are not nested are copied as they are, and events
+ * with no nested fields are sent on unchanged. Empty maps and arrays
+ * contribute no fields. Batches are flat already and are passed straight on,
+ * or row by row if the target does not take batches, skipping rows it fails
+ * on.
+ *
+ * Properties:
+ * <ul>
+ * <li>{@value #TARGET_KEY}: name of the event receiver to send flattened
+ * events to. Required.</li>
+ * <li>{@value #SEPARATOR_KEY}: between the parts of a path. Default ".".</li>
+ * <li>{@value #MAX_DEPTH_KEY}: nesting depth to flatten to; a map or array
+ * deeper than this is kept whole as the value of its path. Top-level fields
+ * are depth 1. Default 8.</li>
+ * <li>{@value #ARRAYS_KEY}: what to do with arrays (Object[] and other
+ * Collections): "index" flattens them by position, as "tags.0", "tags.1";
+ * "keep" keeps them whole as the value of their path; "drop" leaves them out.
+ * Default "index".</li>
+ * <li>{@value #MAX_PATHS_KEY}: most paths to keep in the trie. Default
+ * 10000.</li>
+ * </ul>
+ *
+ * Thread-safe.
+ */
+public class FlatteningPreprocessor extends Preprocessor implements BatchEventReceiver {
+
+	private static Logger logger = LoggerFactory.getLogger(FlatteningPreprocessor.class);
+
+	public static final String TARGET_KEY = "flatten_target";
+	public static final String SEPARATOR_KEY = "flatten_separator";
+	public static final String MAX_DEPTH_KEY = "flatten_max_depth";
+	public static final String ARRAYS_KEY = "flatten_arrays";
+	public static final String MAX_PATHS_KEY = "flatten_max_paths";
+
+	public enum ArrayMode {
+		INDEX, KEEP, DROP
+	}
+
+	private final Context context;
+	private final String targetName;
+	private final String separator;
+	private final int maxDepth;
+	private final ArrayMode arrays;
+	private final int maxPaths;
+
+	private final Node root = new Node("");
+	private int paths = 0;
+
+	private volatile EventReceiver target;
+
+	public FlatteningPreprocessor(String name, Context context) {
+		super(name, context);
+		ConfigProperties config = context.getConfig();
+		this.context = context;
+		this.targetName = config.getString(TARGET_KEY, null);
+		if (targetName == null)
+			throw new IllegalArgumentException("Preprocessor " + name + " needs " + TARGET_KEY);
+		this.separator = config.getString(SEPARATOR_KEY, ".");
+		this.maxDepth = config.getInteger(MAX_DEPTH_KEY, 8);
+		if (maxDepth < 1)
+			throw new IllegalArgumentException(MAX_DEPTH_KEY + " must be at least 1");
+		String mode = config.getString(ARRAYS_KEY, "index");
+		try {
+			this.arrays = ArrayMode.valueOf(mode.toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown " + ARRAYS_KEY + " '" + mode + "'; expected index, keep or drop");
+		}
+		this.maxPaths = config.getInteger(MAX_PATHS_KEY, 10000);
+	}
+
+	/**
+	 * The receiver events are sent on to, looked up on first use since it may
+	 * be created after this preprocessor.
+	 */
+	private EventReceiver target() throws IOException {
+		EventReceiver receiver = target;
+		if (receiver == null) {
+			receiver = context.getEventReceiverDirectory().lookup(targetName);
+			if (receiver == null)
+				throw new IOException("No event receiver named '" + targetName + "'");
+			target = receiver;
+		}
+		return receiver;
+	}
+
+	@Override
+	public void submitEvent(Event event) throws IOException {
+		Event flat = flatten(event);
+		try {
+			target().submitEvent(flat);
+		} finally {
+			if (flat != event) {
+				EventPool pool = EventPool.current();
+				if (pool != null)
+					pool.release(flat);
+			}
+		}
+	}
+
+	@Override
+	public void submitBatch(EventBatch batch) throws IOException {
+		EventReceiver receiver = target();
+		if (receiver instanceof BatchEventReceiver) {
+			((BatchEventReceiver) receiver).submitBatch(batch);
+		} else {
+			for (int row = 0; row < batch.size(); row++) {
+				try {
+					receiver.submitEvent(batch.getEvent(row));
+				} catch (Exception e) {
+					logger.warn(String.format("Exception during processing of row %d of %s: %s", row, batch, e.getMessage()), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		target().flush();
+	}
+
+	/**
+	 * The flat form of an event: the event itself if it has no nested
+	 * fields, otherwise a new event from the current thread's
+	 * {@link EventPool}, if any.
+	 */
+	public Event flatten(Event event) {
+		if (!hasNested(event))
+			return event;
+		Event flat = EventPool.newEvent();
+		for (Map.Entry<String, Object> entry : event.entrySet()) {
+			Object value = entry.getValue();
+			if (isNested(value))
+				flatten(flat, root.child(entry.getKey()), value, 1);
+			else
+				flat.put(entry.getKey(), value);
+		}
+		return flat;
+	}
+
+	private boolean hasNested(Event event) {
+		for (Object value : event.values())
+			if (isNested(value))
+				return true;
+		return false;
+	}
+
+	private boolean isNested(Object value) {
+		return value instanceof Map || (arrays != ArrayMode.KEEP && (value instanceof Object[] || value instanceof Collection));
+	}
+
+	private void flatten(Event flat, Node node, Object value, int depth) {
+		if (!isNested(value)) {
+			flat.put(node.path, value);
+		} else if (value instanceof Map) {
+			if (depth >= maxDepth) {
+				flat.put(node.path, value);
+				return;
+			}
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+				flatten(flat, node.child(String.valueOf(entry.getKey())), entry.getValue(), depth + 1);
+		} else if (arrays == ArrayMode.DROP) {
+			return;
+		} else if (depth >= maxDepth) {
+			flat.put(node.path, value);
+		} else if (value instanceof Object[]) {
+			Object[] values = (Object[]) value;
+			for (int i = 0; i < values.length; i++)
+				flatten(flat, node.element(i), values[i], depth + 1);
+		} else {
+			int i = 0;
+			for (Object element : (Collection<?>) value)
+				flatten(flat, node.element(i++), element, depth + 1);
+		}
+	}
+
+	/**
+	 * A path in the trie, with its joined name and the paths below it by key
+	 * and by array position. Lookups take no lock; adding a path does.
+	 */
+	private final class Node {
+		final String path;
+		private volatile ConcurrentMap<String, Node> children;
+		private volatile Node[] elements;
+
+		Node(String path) {
+			this.path = path;
+		}
+
+		private String join(String part) {
+			return (this == root) ? part : path + separator + part;
+		}
+
+		Node child(String key) {
+			ConcurrentMap<String, Node> map = children;
+			if (map != null) {
+				Node node = map.get(key);
+				if (node != null)
+					return node;
+			}
+			synchronized (root) {
+				if (children == null)
+					children = new ConcurrentHashMap<String, Node>(4);
+				Node node = children.get(key);
+				if (node == null) {
+					node = new Node(join(key));
+					if (paths >= maxPaths)
+						return node;
+					children.put(key, node);
+					paths++;
+				}
+				return node;
+			}
+		}
+
+		Node element(int index) {
+			Node[] nodes = elements;
+			if (nodes != null && index < nodes.length)
+				return nodes[index];
+			synchronized (root) {
+				nodes = elements;
+				int length = (nodes == null) ? 0 : nodes.length;
+				if (index < length)
+					return nodes[index];
+				if (paths + index + 1 - length > maxPaths)
+					return new Node(join(Integer.toString(index)));
+				Node[] grown = new Node[index + 1];
+				if (nodes != null)
+					System.arraycopy(nodes, 0, grown, 0, length);
+				for (int i = length; i <= index; i++)
+					grown[i] = new Node(join(Integer.toString(i)));
+				paths += index + 1 - length;
+				elements = grown;
+				return grown[index];
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serialisers of primitive arrays, for aggregates such as histograms and
+ * sketches whose counters are large arrays. Each writes an unsigned varint
+ * count, then the elements, fixed width and big-endian, copied in bulk
+ * through a LongBuffer, DoubleBuffer or IntBuffer view of the target buffer
+ * rather than boxed and written one at a time.
+ *
+ * The ordered variants write each element in the order-preserving form of
+ * serLong and serDouble (the sign bit flipped; for doubles, all bits of
+ * negatives), in one loop over the view: byte-compatible, element by element,
+ * with writing the array through those serialisers. Whole arrays do not sort
+ * as their encodings do, since the count comes first.
+ *
+ * All work on heap, direct and read-only buffers, and are thread-safe.
+ */
+public class ArraySerialisers {
+
+	public static final Serialiser<long[]> serLongs = new LongArraySerialiser(false);
+	public static final Serialiser<long[]> serOrderedLongs = new LongArraySerialiser(true);
+	public static final Serialiser<double[]> serDoubles = new DoubleArraySerialiser(false);
+	public static final Serialiser<double[]> serOrderedDoubles = new DoubleArraySerialiser(true);
+	public static final Serialiser<int[]> serInts = new IntArraySerialiser(false);
+	public static final Serialiser<int[]> serOrderedInts = new IntArraySerialiser(true);
+
+	/**
+	 * Read the count of an array of elements of the given width, checking the
+	 * buffer holds them all before anything is allocated.
+	 */
+	private static int readCount(ByteBuffer buf, int width) throws IOException {
+		int count = SerialiserUtils.getUnsignedVarInt(buf);
+		if ((long) count * width > buf.remaining())
+			throw new IOException("Array of " + count + " elements but only " + buf.remaining() + " bytes left");
+		return count;
+	}
+
+	private static int sizeOf(int count, int width) {
+		return SerialiserUtils.unsignedVarLongSize(count) + count * width;
+	}
+
+	public static class LongArraySerialiser extends Serialiser.AbstractLookaheadSerialiser<long[]> {
+		private final boolean ordered;
+
+		public LongArraySerialiser(boolean ordered) {
+			this.ordered = ordered;
+		}
+
+		@Override
+		public long[] fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			long[] values = new long[readCount(buf, 8)];
+			if (ordered)
+				SerialiserUtils.getOrderedLongs(buf, values, 0, values.length);
+			else
+				SerialiserUtils.getLongs(buf, values, 0, values.length);
+			return values;
+		}
+
+		@Override
+		public int sizeInBytes(long[] values) {
+			return sizeOf(values.length, 8);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, long[] values) {
+			SerialiserUtils.putUnsignedVarLong(buf, values.length);
+			if (ordered)
+				SerialiserUtils.putOrderedLongs(buf, values, 0, values.length);
+			else
+				SerialiserUtils.putLongs(buf, values, 0, values.length);
+		}
+
+		public String toString() {
+			return ordered ? "serOrderedLongs" : "serLongs";
+		}
+	}
+
+	public static class DoubleArraySerialiser extends Serialiser.AbstractLookaheadSerialiser<double[]> {
+		private final boolean ordered;
+
+		public DoubleArraySerialiser(boolean ordered) {
+			this.ordered = ordered;
+		}
+
+		@Override
+		public double[] fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			double[] values = new double[readCount(buf, 8)];
+			if (ordered)
+				SerialiserUtils.getOrderedDoubles(buf, values, 0, values.length);
+			else
+				SerialiserUtils.getDoubles(buf, values, 0, values.length);
+			return values;
+		}
+
+		@Override
+		public int sizeInBytes(double[] values) {
+			return sizeOf(values.length, 8);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, double[] values) {
+			SerialiserUtils.putUnsignedVarLong(buf, values.length);
+			if (ordered)
+				SerialiserUtils.putOrderedDoubles(buf, values, 0, values.length);
+			else
+				SerialiserUtils.putDoubles(buf, values, 0, values.length);
+		}
+
+		public String toString() {
+			return ordered ? "serOrderedDoubles" : "serDoubles";
+		}
+	}
+
+	public static class IntArraySerialiser extends Serialiser.AbstractLookaheadSerialiser<int[]> {
+		private final boolean ordered;
+
+		public IntArraySerialiser(boolean ordered) {
+			this.ordered = ordered;
+		}
+
+		@Override
+		public int[] fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			int[] values = new int[readCount(buf, 4)];
+			if (ordered)
+				SerialiserUtils.getOrderedInts(buf, values, 0, values.length);
+			else
+				SerialiserUtils.getInts(buf, values, 0, values.length);
+			return values;
+		}
+
+		@Override
+		public int sizeInBytes(int[] values) {
+			return sizeOf(values.length, 4);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, int[] values) {
+			SerialiserUtils.putUnsignedVarLong(buf, values.length);
+			if (ordered)
+				SerialiserUtils.putOrderedInts(buf, values, 0, values.length);
+			else
+				SerialiserUtils.putInts(buf, values, 0, values.length);
+		}
+
+		public String toString() {
+			return ordered ? "serOrderedInts" : "serInts";
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.acunu.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * Parse decimal numbers directly from ASCII bytes, without building an
+ * intermediate String. Used by the bundled text decoders.
+ */
+public class AsciiNumbers {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * Powers of ten that are exactly representable as doubles.
+	 */
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+			1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * Parse a decimal long from bytes[offset, offset+length), with an optional
+	 * leading sign.
+	 *
+	 * @throws NumberFormatException
+	 *             if the bytes are not a decimal long, or it overflows.
+	 */
+	public static long parseLong(final byte[] bytes, final int offset, final int length) {
+		if (length <= 0)
+			throw new NumberFormatException("Empty number");
+		int pos = offset;
+		final int end = offset + length;
+		boolean negative = false;
+		if (bytes[pos] == '-' || bytes[pos] == '+') {
+			negative = bytes[pos] == '-';
+			if (++pos == end)
+				throw badNumber(bytes, offset, length);
+		}
+		// accumulate negatively so that Long.MIN_VALUE can be parsed.
+		final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		final long multmin = limit / 10;
+		long result = 0;
+		for (; pos < end; pos++) {
+			int digit = bytes[pos] - '0';
+			if (digit < 0 || digit > 9 || result < multmin)
+				throw badNumber(bytes, offset, length);
+			result *= 10;
+			if (result < limit + digit)
+				throw badNumber(bytes, offset, length);
+			result -= digit;
+		}
+		return negative ? result : -result;
+	}
+
+	/**
+	 * Parse a decimal double from bytes[offset, offset+length), in the syntax
+	 * accepted by Double.parseDouble. Common short decimals are converted
+	 * exactly without allocating; anything else falls back to
+	 * Double.parseDouble.
+	 *
+	 * @throws NumberFormatException
+	 *             if the bytes are not a number.
+	 */
+	public static double parseDouble(final byte[] bytes, final int offset, final int length) {
+		if (length <= 0)
+			throw new NumberFormatException("Empty number");
+		int pos = offset;
+		final int end = offset + length;
+		boolean negative = false;
+		if (bytes[pos] == '-' || bytes[pos] == '+') {
+			negative = bytes[pos] == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int significant = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+		for (; pos < end; pos++) {
+			int digit = bytes[pos] - '0';
+			if (digit < 0 || digit > 9)
+				break;
+			anyDigits = true;
+			if (mantissa != 0 || digit != 0) {
+				if (++significant > 18)
+					return slowParseDouble(bytes, offset, length);
+				mantissa = 10 * mantissa + digit;
+			}
+		}
+		if (pos < end && bytes[pos] == '.') {
+			for (pos++; pos < end; pos++) {
+				int digit = bytes[pos] - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				anyDigits = true;
+				if (mantissa != 0 || digit != 0) {
+					if (++significant > 18)
+						return slowParseDouble(bytes, offset, length);
+					mantissa = 10 * mantissa + digit;
+				}
+				exponent--;
+			}
+		}
+		if (!anyDigits)
+			return slowParseDouble(bytes, offset, length);
+		if (pos < end && (bytes[pos] == 'e' || bytes[pos] == 'E')) {
+			pos++;
+			boolean negativeExp = false;
+			if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+')) {
+				negativeExp = bytes[pos] == '-';
+				pos++;
+			}
+			if (pos == end)
+				throw badNumber(bytes, offset, length);
+			int exp = 0;
+			for (; pos < end; pos++) {
+				int digit = bytes[pos] - '0';
+				if (digit < 0 || digit > 9)
+					throw badNumber(bytes, offset, length);
+				if (exp > 10000)
+					return slowParseDouble(bytes, offset, length);
+				exp = 10 * exp + digit;
+			}
+			exponent += negativeExp ? -exp : exp;
+		}
+		if (pos != end)
+			return slowParseDouble(bytes, offset, length);
+
+		double value;
+		if (mantissa == 0)
+			value = 0.0;
+		else if (significant <= 15 && exponent >= -22 && exponent <= 22)
+			// both the mantissa and the power of ten are exact, so a single
+			// rounding gives the correctly rounded result.
+			value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+		else
+			return slowParseDouble(bytes, offset, length);
+		return negative ? -value : value;
+	}
+
+	private static double slowParseDouble(byte[] bytes, int offset, int length) {
+		return Double.parseDouble(new String(bytes, offset, length, ASCII));
+	}
+
+	private static NumberFormatException badNumber(byte[] bytes, int offset, int length) {
+		return new NumberFormatException("For input string: \"" + new String(bytes, offset, length, ASCII) + "\"");
+	}
+}
@@ -0,0 +1,103 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-thread reuse of heap ByteBuffers, for code that would otherwise
+ * allocate a buffer per value serialised.
+ *
+ * {@link #acquire(int)} and {@link #release(ByteBuffer)} hand buffers out and
+ * take them back, nesting freely. {@link #toBytes(Serialiser, Object)} is
+ * toBytes into a single scratch buffer per thread, for callers that are done
+ * with the bytes before serialising the next value.
+ *
+ * Buffers larger than {@value #MAX_POOLED_SIZE} bytes are allocated as
+ * needed and never kept, so one huge value does not pin its buffer for the
+ * life of the thread.
+ */
+public final class BufferPool {
+
+	/** Largest buffer kept for reuse. */
+	public static final int MAX_POOLED_SIZE = 1 << 20;
+
+	/** Most free buffers kept per thread. */
+	public static final int MAX_POOLED = 8;
+
+	private static final ThreadLocal<List<ByteBuffer>> free = new ThreadLocal<List<ByteBuffer>>() {
+		@Override
+		protected List<ByteBuffer> initialValue() {
+			return new ArrayList<ByteBuffer>(MAX_POOLED);
+		}
+	};
+
+	private static final ThreadLocal<ByteBuffer[]> scratch = new ThreadLocal<ByteBuffer[]>() {
+		@Override
+		protected ByteBuffer[] initialValue() {
+			return new ByteBuffer[1];
+		}
+	};
+
+	private BufferPool() {
+	}
+
+	/**
+	 * A heap buffer of at least size bytes, cleared, with its limit at size.
+	 * Give it back with {@link #release(ByteBuffer)} when done; a buffer not
+	 * given back is simply garbage collected.
+	 */
+	public static ByteBuffer acquire(int size) {
+		List<ByteBuffer> buffers = free.get();
+		for (int i = buffers.size() - 1; i >= 0; i--) {
+			ByteBuffer buf = buffers.get(i);
+			if (buf.capacity() >= size) {
+				buffers.remove(i);
+				buf.clear();
+				buf.limit(size);
+				return buf;
+			}
+		}
+		return ByteBuffer.allocate(size);
+	}
+
+	/**
+	 * Return a buffer from {@link #acquire(int)} to this thread's pool. The
+	 * caller must not use it afterwards.
+	 */
+	public static void release(ByteBuffer buf) {
+		if (buf == null || !buf.hasArray() || buf.capacity() > MAX_POOLED_SIZE)
+			return;
+		List<ByteBuffer> buffers = free.get();
+		if (buffers.size() < MAX_POOLED)
+			buffers.add(buf);
+	}
+
+	/**
+	 * As {@link Serialiser#toBytes(Object)}, but into this thread's scratch
+	 * buffer rather than a new one. The result is valid only until the next
+	 * call on the same thread: copy it, or finish with it, before then.
+	 */
+	public static <X> ByteBuffer toBytes(Serialiser<X> serialiser, X value) {
+		if (value == null)
+			return null;
+		int size = serialiser.sizeInBytes(value);
+		ByteBuffer[] slot = scratch.get();
+		ByteBuffer buf = slot[0];
+		if (buf == null || buf.capacity() < size) {
+			buf = ByteBuffer.allocate(Math.max(size, buf == null ? 256 : Math.min(2 * buf.capacity(), MAX_POOLED_SIZE)));
+			if (buf.capacity() <= MAX_POOLED_SIZE)
+				slot[0] = buf;
+		}
+		buf.clear();
+		buf.limit(size);
+		try {
+			serialiser.write(buf, value);
+		} catch (IOException exn) {
+			throw new Serialiser.SerialisationException(exn);
+		}
+		buf.rewind();
+		return buf;
+	}
+}
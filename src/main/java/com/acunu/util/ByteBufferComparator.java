@@ -0,0 +1,70 @@
+package com.acunu.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Comparator;
+
+/**
+ * Compares serialised keys as unsigned bytes, lexicographically, without
+ * decoding them: for keys written by an {@link OrderedSerialiser}, the same
+ * order as the values. Shorter sorts first when one key is a prefix of the
+ * other.
+ *
+ * Compares 8 bytes at a time, read as big-endian longs and compared
+ * unsigned, which for big-endian words is the same as comparing their bytes
+ * in turn, then finishes byte by byte. Works on heap, direct and read-only
+ * buffers, whatever their byte order, and never moves their positions.
+ *
+ * Note that ByteBuffer.compareTo compares bytes as signed, so sorts 0x80 and
+ * above before 0x00: it is not a substitute. Thread-safe.
+ */
+public class ByteBufferComparator implements Comparator<ByteBuffer> {
+
+	public static final ByteBufferComparator INSTANCE = new ByteBufferComparator();
+
+	/**
+	 * Compare the remaining bytes of each buffer.
+	 */
+	@Override
+	public int compare(ByteBuffer a, ByteBuffer b) {
+		return compare(a, a.position(), a.remaining(), b, b.position(), b.remaining());
+	}
+
+	/**
+	 * Compare two regions, given by absolute index and length.
+	 */
+	public static int compare(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+		int length = Math.min(aLength, bLength);
+		boolean aBig = a.order() == ByteOrder.BIG_ENDIAN;
+		boolean bBig = b.order() == ByteOrder.BIG_ENDIAN;
+		int i = 0;
+		for (; i + 8 <= length; i += 8) {
+			long x = a.getLong(aOffset + i);
+			long y = b.getLong(bOffset + i);
+			if (!aBig)
+				x = Long.reverseBytes(x);
+			if (!bBig)
+				y = Long.reverseBytes(y);
+			if (x != y)
+				return (x + Long.MIN_VALUE) < (y + Long.MIN_VALUE) ? -1 : 1;
+		}
+		for (; i < length; i++) {
+			int x = a.get(aOffset + i) & 0xff;
+			int y = b.get(bOffset + i) & 0xff;
+			if (x != y)
+				return x < y ? -1 : 1;
+		}
+		return aLength < bLength ? -1 : (aLength == bLength ? 0 : 1);
+	}
+
+	/**
+	 * Compare two regions of byte arrays.
+	 */
+	public static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+		return compare(ByteBuffer.wrap(a), aOffset, aLength, ByteBuffer.wrap(b), bOffset, bLength);
+	}
+
+	public static int compare(byte[] a, byte[] b) {
+		return compare(a, 0, a.length, b, 0, b.length);
+	}
+}
@@ -0,0 +1,71 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+
+/**
+ * An InputStream reading the remaining bytes of a ByteBuffer. Works on heap,
+ * direct, read-only and mapped buffers alike. Reads advance the position of
+ * the buffer it was given, so pass a duplicate() if the caller's position must
+ * be left alone.
+ */
+public class ByteBufferInputStream extends InputStream {
+	private final ByteBuffer buf;
+
+	public ByteBufferInputStream(ByteBuffer buf) {
+		this.buf = buf;
+	}
+
+	@Override
+	public int read() {
+		if (!buf.hasRemaining())
+			return -1;
+		return buf.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int off, int len) {
+		if (len == 0)
+			return 0;
+		if (!buf.hasRemaining())
+			return -1;
+		int n = Math.min(len, buf.remaining());
+		buf.get(bytes, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (n <= 0)
+			return 0;
+		int skipped = (int) Math.min(n, buf.remaining());
+		buf.position(buf.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buf.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		buf.mark();
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		try {
+			buf.reset();
+		} catch (InvalidMarkException exn) {
+			throw new IOException("Stream not marked");
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.acunu.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An OutputStream writing into a ByteBuffer from its position, advancing it.
+ * Writing past the limit throws BufferOverflowException; the buffer is never
+ * grown.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+	private final ByteBuffer buf;
+
+	public ByteBufferOutputStream(ByteBuffer buf) {
+		this.buf = buf;
+	}
+
+	@Override
+	public void write(int b) {
+		buf.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] bytes, int off, int len) {
+		buf.put(bytes, off, len);
+	}
+}
@@ -0,0 +1,116 @@
+package com.acunu.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A view of a region of a byte array -- an array, an offset and a length --
+ * for passing part of a larger buffer around without copying it out. Slices
+ * do not own their bytes: whoever created the slice decides how long the
+ * underlying array stays valid.
+ *
+ * Sources that receive many records in one network read or mapped file can
+ * hand each record to a decoder as a slice of the same array.
+ */
+public final class ByteSlice {
+	private final byte[] array;
+	private final int offset;
+	private final int length;
+
+	public ByteSlice(byte[] array, int offset, int length) {
+		if (array == null)
+			throw new IllegalArgumentException("Cannot slice a null array");
+		if (offset < 0 || length < 0 || offset + length > array.length || offset + length < 0)
+			throw new IndexOutOfBoundsException("Slice [" + offset + ", " + (offset + length) + ") of array of length "
+					+ array.length);
+		this.array = array;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/** The whole of an array. */
+	public static ByteSlice wrap(byte[] array) {
+		return new ByteSlice(array, 0, array.length);
+	}
+
+	/**
+	 * The remaining bytes of a heap buffer, without copying. Does not move the
+	 * buffer's position.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the buffer has no accessible array (direct or read-only).
+	 */
+	public static ByteSlice wrap(ByteBuffer buf) {
+		if (!buf.hasArray())
+			throw new IllegalArgumentException("Cannot slice a buffer without an accessible array");
+		return new ByteSlice(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+	}
+
+	public byte[] array() {
+		return array;
+	}
+
+	public int offset() {
+		return offset;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public byte get(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("Index " + index + " of slice of length " + length);
+		return array[offset + index];
+	}
+
+	/** A sub-slice, relative to this one. */
+	public ByteSlice slice(int from, int len) {
+		if (from < 0 || len < 0 || from + len > length)
+			throw new IndexOutOfBoundsException("Slice [" + from + ", " + (from + len) + ") of slice of length " + length);
+		return new ByteSlice(array, offset + from, len);
+	}
+
+	/** A heap ByteBuffer over the same bytes, positioned at zero. */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(array, offset, length).slice();
+	}
+
+	/** Copy the bytes out into an array of their own. */
+	public byte[] toByteArray() {
+		return Arrays.copyOfRange(array, offset, offset + length);
+	}
+
+	public String toString(Charset charset) {
+		return new String(array, offset, length, charset);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ByteSlice))
+			return false;
+		ByteSlice other = (ByteSlice) obj;
+		if (length != other.length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (array[offset + i] != other.array[other.offset + i])
+				return false;
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i = offset; i < offset + length; i++)
+			result = 31 * result + array[i];
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "ByteSlice[offset=" + offset + ", length=" + length + "]";
+	}
+}
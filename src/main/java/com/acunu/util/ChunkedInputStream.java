@@ -0,0 +1,121 @@
+package com.acunu.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a stream of bytes written by {@link ChunkedOutputStream}, a chunk at
+ * a time, returning end of stream at its end marker. Reads from the channel
+ * never go past the end marker, so further values may follow on it.
+ *
+ * {@link #close()} skips any unread chunks up to the end marker and gives the
+ * buffer back, but leaves the channel open.
+ */
+public class ChunkedInputStream extends InputStream {
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer header = ByteBuffer.allocate(4);
+	private ByteBuffer buf;
+	private boolean ended = false;
+
+	public ChunkedInputStream(ReadableByteChannel channel) {
+		this.channel = channel;
+		this.buf = BufferPool.acquire(ChunkedOutputStream.CHUNK_SIZE);
+		buf.limit(0);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill())
+			return -1;
+		return buf.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		int n = Math.min(len, buf.remaining());
+		buf.get(bytes, off, n);
+		return n;
+	}
+
+	/**
+	 * Read into a buffer, as much as the current chunk and the buffer's room
+	 * allow, advancing its position.
+	 *
+	 * @return the number of bytes read, or -1 at the end marker.
+	 */
+	public int read(ByteBuffer to) throws IOException {
+		if (!to.hasRemaining())
+			return 0;
+		if (!fill())
+			return -1;
+		int n = Math.min(to.remaining(), buf.remaining());
+		ByteBuffer part = buf.duplicate();
+		part.limit(part.position() + n);
+		to.put(part);
+		buf.position(buf.position() + n);
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return (buf == null) ? 0 : buf.remaining();
+	}
+
+	/**
+	 * Skip to the end marker. Does not close the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buf == null)
+			return;
+		try {
+			while (fill())
+				buf.position(buf.limit());
+		} finally {
+			BufferPool.release(buf);
+			buf = null;
+		}
+	}
+
+	/**
+	 * Make sure there are bytes to read, reading the next chunk if need be.
+	 *
+	 * @return false at the end marker.
+	 */
+	private boolean fill() throws IOException {
+		if (buf == null)
+			throw new IOException("Stream closed");
+		while (!buf.hasRemaining()) {
+			if (ended)
+				return false;
+			header.clear();
+			readFully(header);
+			int length = header.getInt(0);
+			if (length == 0) {
+				ended = true;
+				return false;
+			}
+			if (length < 0 || length > ChunkedOutputStream.CHUNK_SIZE)
+				throw new IOException("Corrupt chunk length " + length);
+			buf.clear();
+			buf.limit(length);
+			readFully(buf);
+			buf.flip();
+		}
+		return true;
+	}
+
+	private void readFully(ByteBuffer to) throws IOException {
+		while (to.hasRemaining())
+			if (channel.read(to) < 0)
+				throw new EOFException("Channel ended mid-chunk");
+	}
+}
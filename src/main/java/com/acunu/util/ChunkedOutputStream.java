@@ -0,0 +1,119 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a stream of bytes to a channel as chunks, so that a value of any
+ * size can be written without holding it whole in memory, and read back by
+ * {@link ChunkedInputStream} without knowing its size in advance.
+ *
+ * Each chunk is a 4-byte big-endian length, then that many bytes, at most
+ * {@link #CHUNK_SIZE}; a zero length ends the stream. Bytes are gathered in a
+ * buffer from {@link BufferPool} and written a chunk at a time.
+ *
+ * {@link #close()} writes the end marker and gives the buffer back, but
+ * leaves the channel open, so further values may follow on it.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private ByteBuffer buf;
+
+	public ChunkedOutputStream(WritableByteChannel channel) {
+		this.channel = channel;
+		this.buf = BufferPool.acquire(4 + CHUNK_SIZE);
+		buf.position(4);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkOpen();
+		if (!buf.hasRemaining())
+			writeChunk();
+		buf.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] bytes, int off, int len) throws IOException {
+		checkOpen();
+		while (len > 0) {
+			if (!buf.hasRemaining())
+				writeChunk();
+			int n = Math.min(len, buf.remaining());
+			buf.put(bytes, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Write the bytes of a buffer, from its position to its limit, advancing
+	 * its position.
+	 */
+	public void write(ByteBuffer from) throws IOException {
+		checkOpen();
+		while (from.hasRemaining()) {
+			if (!buf.hasRemaining())
+				writeChunk();
+			int n = Math.min(from.remaining(), buf.remaining());
+			ByteBuffer part = from.duplicate();
+			part.limit(part.position() + n);
+			buf.put(part);
+			from.position(from.position() + n);
+		}
+	}
+
+	/**
+	 * Write out any partial chunk. The channel sees only whole chunks.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		if (buf.position() > 4)
+			writeChunk();
+	}
+
+	/**
+	 * Write any partial chunk and the end marker. Does not close the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buf == null)
+			return;
+		try {
+			flush();
+			buf.clear();
+			buf.putInt(0);
+			buf.flip();
+			writeFully(buf);
+		} finally {
+			BufferPool.release(buf);
+			buf = null;
+		}
+	}
+
+	private void writeChunk() throws IOException {
+		buf.putInt(0, buf.position() - 4);
+		buf.flip();
+		writeFully(buf);
+		// the pooled buffer may be bigger than a chunk
+		buf.clear();
+		buf.limit(4 + CHUNK_SIZE);
+		buf.position(4);
+	}
+
+	private void writeFully(ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+	}
+
+	private void checkOpen() throws IOException {
+		if (buf == null)
+			throw new IOException("Stream closed");
+	}
+}
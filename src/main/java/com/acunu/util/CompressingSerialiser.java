@@ -0,0 +1,307 @@
+package com.acunu.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A serialiser that deflates the bytes of another, for values such as large
+ * counters whose encodings run to kilobytes.
+ *
+ * Each value starts with a header byte. Values whose delegate encoding is
+ * smaller than the threshold, and values that do not shrink, are written
+ * {@value #RAW}: the header, then the delegate's bytes. Others are written
+ * {@value #DEFLATED}: the header, the unsigned varint lengths of the
+ * delegate's bytes and of the compressed bytes, then the compressed bytes in
+ * zlib format.
+ *
+ * Deflaters and Inflaters are pooled, a few per processor, and encoding and
+ * decoding go through {@link BufferPool} buffers. Their native memory is
+ * freed as they leave the pool, or by {@link #close()}, which frees the
+ * pooled ones; the serialiser still works after close, just without pooling.
+ * A compressed value claiming to inflate beyond deflate's maximum ratio is
+ * rejected before anything is allocated for it.
+ *
+ * sizeInBytes has to compress to know the
+ * size, so it keeps the result, and a write of the same value that follows on
+ * the same thread sends it without compressing again; toBytes therefore
+ * compresses once. The value must not change in between.
+ *
+ * The delegate's fromBytes must copy what it keeps out of the buffer, as all
+ * the serialisers here do, since decompressed bytes are in a reused buffer.
+ * Thread-safe if the delegate is.
+ */
+public class CompressingSerialiser<X> extends Serialiser.AbstractLookaheadSerialiser<X> implements Closeable {
+
+	public static final byte RAW = 0;
+	public static final byte DEFLATED = 1;
+
+	/** Default size of delegate encoding below which values are not compressed. */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/** Most that deflate can expand: 1032 bytes out per byte in. */
+	private static final int MAX_DEFLATE_RATIO = 1032;
+
+	/** Most idle Deflaters, and Inflaters, to keep. */
+	private static final int MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+
+	private final Serialiser<X> delegate;
+	private final int threshold;
+	private final int level;
+
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+	private final AtomicInteger idleDeflaters = new AtomicInteger();
+	private final AtomicInteger idleInflaters = new AtomicInteger();
+	private volatile boolean closed = false;
+
+	private final ThreadLocal<State> state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	public CompressingSerialiser(Serialiser<X> delegate) {
+		this(delegate, DEFAULT_THRESHOLD);
+	}
+
+	public CompressingSerialiser(Serialiser<X> delegate, int threshold) {
+		this(delegate, threshold, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param threshold
+	 *            size in bytes of the delegate's encoding from which to try
+	 *            compressing.
+	 * @param level
+	 *            Deflater compression level, 0-9, or -1 for the default.
+	 */
+	public CompressingSerialiser(Serialiser<X> delegate, int threshold, int level) {
+		if (delegate == null)
+			throw new IllegalArgumentException("No serialiser to compress");
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		this.delegate = delegate;
+		this.threshold = Math.max(threshold, 1);
+		this.level = level;
+	}
+
+	public Serialiser<X> getDelegate() {
+		return delegate;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public X fromBytes(ByteBuffer buf) throws IOException {
+		if (buf == null)
+			return null;
+		byte header = buf.get();
+		if (header == RAW)
+			return delegate.fromBytes(buf);
+		if (header != DEFLATED)
+			throw new IOException("Unknown compression header " + header);
+
+		int rawSize = SerialiserUtils.getUnsignedVarInt(buf);
+		int compressedSize = SerialiserUtils.getUnsignedVarInt(buf);
+		if (compressedSize > buf.remaining())
+			throw new IOException("Compressed value of " + compressedSize + " bytes but only " + buf.remaining() + " left");
+		if (rawSize > (long) compressedSize * MAX_DEFLATE_RATIO)
+			throw new IOException("Compressed value of " + compressedSize + " bytes cannot inflate to " + rawSize);
+
+		ByteBuffer in = null;
+		ByteBuffer raw = BufferPool.acquire(rawSize);
+		Inflater inflater = takeInflater();
+		try {
+			if (buf.hasArray()) {
+				inflater.setInput(buf.array(), buf.arrayOffset() + buf.position(), compressedSize);
+				buf.position(buf.position() + compressedSize);
+			} else {
+				in = BufferPool.acquire(compressedSize);
+				buf.get(in.array(), in.arrayOffset(), compressedSize);
+				inflater.setInput(in.array(), in.arrayOffset(), compressedSize);
+			}
+			byte[] out = raw.array();
+			int offset = raw.arrayOffset();
+			int length = 0;
+			try {
+				while (length < rawSize && !inflater.finished()) {
+					int n = inflater.inflate(out, offset + length, rawSize - length);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					length += n;
+				}
+			} catch (DataFormatException exn) {
+				throw new IOException("Corrupt compressed value: " + exn.getMessage());
+			}
+			if (length != rawSize || !inflater.finished())
+				throw new IOException("Compressed value inflated to " + length + " bytes, expected " + rawSize);
+			return delegate.fromBytes(raw);
+		} finally {
+			giveBack(inflater);
+			BufferPool.release(in);
+			BufferPool.release(raw);
+		}
+	}
+
+	@Override
+	public int sizeInBytes(X value) {
+		int rawSize = delegate.sizeInBytes(value);
+		if (rawSize < threshold)
+			return 1 + rawSize;
+		State s = compress(value, rawSize);
+		if (s.compressedSize < 0)
+			return 1 + rawSize;
+		return deflatedSize(rawSize, s.compressedSize);
+	}
+
+	@Override
+	public void write(ByteBuffer buf, X value) throws IOException {
+		if (value == null)
+			throw new IllegalArgumentException("Cannot write null object");
+		int rawSize = delegate.sizeInBytes(value);
+		if (rawSize < threshold) {
+			buf.put(RAW);
+			delegate.write(buf, value);
+			return;
+		}
+		State s = state.get();
+		if (s.value != value || s.rawSize != rawSize)
+			s = compress(value, rawSize);
+		s.value = null;
+		if (s.compressedSize < 0) {
+			buf.put(RAW);
+			delegate.write(buf, value);
+		} else {
+			buf.put(DEFLATED);
+			SerialiserUtils.putUnsignedVarLong(buf, rawSize);
+			SerialiserUtils.putUnsignedVarLong(buf, s.compressedSize);
+			buf.put(s.compressed, 0, s.compressedSize);
+		}
+		s.trim();
+	}
+
+	private static int deflatedSize(int rawSize, int compressedSize) {
+		return 1 + SerialiserUtils.unsignedVarLongSize(rawSize) + SerialiserUtils.unsignedVarLongSize(compressedSize) + compressedSize;
+	}
+
+	/**
+	 * Compress a value into this thread's state, remembering it for the write
+	 * that follows. compressedSize is -1 if compressing does not pay.
+	 */
+	private State compress(X value, int rawSize) {
+		State s = state.get();
+		s.value = null;
+		ByteBuffer raw = BufferPool.acquire(rawSize);
+		Deflater deflater = takeDeflater();
+		try {
+			delegate.write(raw, value);
+			deflater.setInput(raw.array(), raw.arrayOffset(), raw.position());
+			deflater.finish();
+			// anything that does not fit in rawSize bytes is no smaller
+			if (s.compressed == null || s.compressed.length < rawSize)
+				s.compressed = new byte[rawSize];
+			int length = 0;
+			while (!deflater.finished() && length < rawSize)
+				length += deflater.deflate(s.compressed, length, rawSize - length);
+			if (deflater.finished() && deflatedSize(rawSize, length) < 1 + rawSize)
+				s.compressedSize = length;
+			else
+				s.compressedSize = -1;
+		} catch (IOException exn) {
+			throw new SerialisationException(exn);
+		} finally {
+			giveBack(deflater);
+			BufferPool.release(raw);
+		}
+		s.value = value;
+		s.rawSize = rawSize;
+		return s;
+	}
+
+	private Deflater takeDeflater() {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null)
+			return new Deflater(level);
+		idleDeflaters.decrementAndGet();
+		return deflater;
+	}
+
+	private void giveBack(Deflater deflater) {
+		if (!closed && idleDeflaters.incrementAndGet() <= MAX_IDLE) {
+			deflater.reset();
+			deflaters.offer(deflater);
+			if (closed)
+				close();
+		} else {
+			if (!closed)
+				idleDeflaters.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	private Inflater takeInflater() {
+		Inflater inflater = inflaters.poll();
+		if (inflater == null)
+			return new Inflater();
+		idleInflaters.decrementAndGet();
+		inflater.reset();
+		return inflater;
+	}
+
+	private void giveBack(Inflater inflater) {
+		if (!closed && idleInflaters.incrementAndGet() <= MAX_IDLE) {
+			inflaters.offer(inflater);
+			if (closed)
+				close();
+		} else {
+			if (!closed)
+				idleInflaters.decrementAndGet();
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Free the native memory of the pooled Deflaters and Inflaters. Those in
+	 * use are freed as they are given back.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Deflater deflater;
+		while ((deflater = deflaters.poll()) != null)
+			deflater.end();
+		Inflater inflater;
+		while ((inflater = inflaters.poll()) != null)
+			inflater.end();
+	}
+
+	public String toString() {
+		return "compressed(" + delegate + ")";
+	}
+
+	/**
+	 * The last value compressed on a thread.
+	 */
+	private static final class State {
+		Object value;
+		int rawSize;
+		byte[] compressed;
+		int compressedSize;
+
+		/** Drop an output buffer too big to keep for the life of the thread. */
+		void trim() {
+			if (compressed != null && compressed.length > BufferPool.MAX_POOLED_SIZE)
+				compressed = null;
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.acunu.analytics.Event;
+import com.acunu.analytics.EventSink;
+
+/**
+ * A compact binary encoding of a batch of events, for producers that want to
+ * avoid text formats, and for spilling or journalling events.
+ *
+ * Layout (all counts, lengths and ids are unsigned varints):
+ *
+ * <pre>
+ * magic (0xAE) version (1)
+ * key count, keys       -- each: length, UTF-8 bytes
+ * string count, strings -- each: length, UTF-8 bytes
+ * event count, events   -- each: field count, fields
+ * field: key id, value
+ * value: type tag, payload
+ * </pre>
+ *
+ * Every distinct key and every distinct string value is written once, in the
+ * dictionaries at the front, and referred to by id. Integers are zig-zag
+ * varints, doubles 8 bytes. Maps and arrays nest, at most
+ * {@value #MAX_DEPTH} deep. Decoded events share String instances for
+ * repeated keys and values.
+ *
+ * Values may be null, Boolean, Long, Integer, Short, Byte (all decoded as
+ * Long), Double, Float (decoded as Double), String, byte[], Map (decoded as a
+ * HashMap with String keys), Object[] and other Collections (decoded as
+ * Object[] and ArrayList respectively).
+ *
+ * sizeInBytes lays out the dictionaries, which a following write or toBytes
+ * of the same list on the same thread reuses rather than redoing. If the
+ * list or its events change in between, write finds that they no longer
+ * match the layout and writes the batch again from a fresh one. The layout
+ * holds the list only weakly, and layouts of batches over
+ * {@link BufferPool#MAX_POOLED_SIZE} bytes are not kept. Instances are
+ * thread-safe.
+ */
+public class EventBatchSerialiser extends Serialiser.AbstractLookaheadSerialiser<List<Event>> {
+
+	public static final byte MAGIC = (byte) 0xAE;
+	public static final byte VERSION = 1;
+
+	static final byte NULL = 0;
+	static final byte FALSE = 1;
+	static final byte TRUE = 2;
+	static final byte LONG = 3;
+	static final byte DOUBLE = 4;
+	static final byte STRING = 5;
+	static final byte MAP = 6;
+	static final byte ARRAY = 7;
+	static final byte LIST = 8;
+	static final byte BYTES = 9;
+
+	/** Deepest nesting of maps and collections within an event. */
+	public static final int MAX_DEPTH = 512;
+
+	public static final EventBatchSerialiser serEventBatch = new EventBatchSerialiser();
+
+	/**
+	 * The last layout computed by sizeInBytes on this thread, if small enough
+	 * to keep.
+	 */
+	private final ThreadLocal<Plan> lastPlan = new ThreadLocal<Plan>();
+
+	@Override
+	public int sizeInBytes(List<Event> events) {
+		Plan plan = new Plan(events);
+		if (plan.size <= BufferPool.MAX_POOLED_SIZE)
+			lastPlan.set(plan);
+		else
+			lastPlan.remove();
+		return plan.size;
+	}
+
+	@Override
+	public void write(ByteBuffer buf, List<Event> events) throws IOException {
+		Plan plan = lastPlan.get();
+		lastPlan.remove();
+		if (plan != null && plan.events.get() == events && plan.eventCount == events.size()) {
+			int start = buf.position();
+			try {
+				if (write(buf, events, plan))
+					return;
+			} catch (RuntimeException e) {
+				// the plan ran out of ids, or the events outgrew its size
+			}
+			// the events changed since sizeInBytes: start again
+			buf.position(start);
+		}
+		if (!write(buf, events, new Plan(events)))
+			throw stale();
+	}
+
+	/**
+	 * Write a batch as laid out by the plan; false if the events did not
+	 * match it.
+	 */
+	private static boolean write(ByteBuffer buf, List<Event> events, Plan plan) {
+		int start = buf.position();
+		buf.put(MAGIC);
+		buf.put(VERSION);
+		writeDictionary(buf, plan.keys.bytes);
+		writeDictionary(buf, plan.strings.bytes);
+		SerialiserUtils.putUnsignedVarLong(buf, events.size());
+		plan.next = 0;
+		for (Event event : events)
+			writeFields(buf, event, plan);
+		return plan.next == plan.count && buf.position() - start == plan.size;
+	}
+
+	@Override
+	public List<Event> fromBytes(ByteBuffer buf) throws IOException {
+		if (buf == null)
+			return null;
+		final List<Event> events = new ArrayList<Event>();
+		read(buf, new EventSink() {
+			@Override
+			public void accept(Event event) {
+				events.add(event);
+			}
+		});
+		return events;
+	}
+
+	/**
+	 * Read a batch, passing each event to the sink as soon as it is read.
+	 */
+	public void read(ByteBuffer buf, EventSink sink) throws IOException {
+		DictionaryReader reader = new DictionaryReader();
+		int count;
+		try {
+			if (buf.get() != MAGIC)
+				throw new IOException("Not an event batch");
+			byte version = buf.get();
+			if (version != VERSION)
+				throw new IOException("Unsupported event batch version " + version);
+			reader.keys = readDictionary(buf);
+			reader.strings = readDictionary(buf);
+			count = boundedCount(buf, 1);
+		} catch (RuntimeException e) {
+			throw corrupt(e);
+		}
+		for (int i = 0; i < count; i++) {
+			Event event;
+			try {
+				int fields = boundedCount(buf, 2);
+				event = new Event(new HashMap<String, Object>(EventValueReader.capacity(fields)));
+				reader.readFields(buf, event, fields, 0);
+			} catch (RuntimeException e) {
+				throw corrupt(e);
+			}
+			sink.accept(event);
+		}
+	}
+
+	/**
+	 * Underflow, bad ids or lengths: the bytes are not a valid batch.
+	 */
+	private static IOException corrupt(RuntimeException e) {
+		return new IOException("Corrupt event batch", e);
+	}
+
+	public String toString() {
+		return "serEventBatch";
+	}
+
+	private static void writeDictionary(ByteBuffer buf, List<byte[]> entries) {
+		SerialiserUtils.putUnsignedVarLong(buf, entries.size());
+		for (byte[] bytes : entries) {
+			SerialiserUtils.putUnsignedVarLong(buf, bytes.length);
+			buf.put(bytes);
+		}
+	}
+
+	private static String[] readDictionary(ByteBuffer buf) {
+		int count = boundedCount(buf, 1);
+		String[] entries = new String[count];
+		for (int i = 0; i < count; i++)
+			entries[i] = SerialiserUtils.getUtf8(buf, SerialiserUtils.getUnsignedVarInt(buf));
+		return entries;
+	}
+
+	/**
+	 * A count of items each taking at least minBytes, checked against the
+	 * bytes left so that a corrupt count cannot allocate more than the input
+	 * could hold.
+	 */
+	static int boundedCount(ByteBuffer buf, int minBytes) {
+		int count = SerialiserUtils.getUnsignedVarInt(buf);
+		if (count > buf.remaining() / minBytes)
+			throw new IllegalArgumentException("Count " + count + " too large for the " + buf.remaining() + " bytes left");
+		return count;
+	}
+
+	/**
+	 * Write the fields of a map, using the ids laid out by the plan in the
+	 * same order.
+	 */
+	private static void writeFields(ByteBuffer buf, Map<?, ?> map, Plan plan) {
+		SerialiserUtils.putUnsignedVarLong(buf, map.size());
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			int id = plan.ids[plan.next++];
+			if (!plan.keys.holds(id, String.valueOf(entry.getKey())))
+				throw stale();
+			SerialiserUtils.putUnsignedVarLong(buf, id);
+			writeValue(buf, entry.getValue(), plan);
+		}
+	}
+
+	private static void writeValue(ByteBuffer buf, Object value, Plan plan) {
+		if (value == null) {
+			buf.put(NULL);
+		} else if (value instanceof String) {
+			int id = plan.ids[plan.next++];
+			if (!plan.strings.holds(id, (String) value))
+				throw stale();
+			buf.put(STRING);
+			SerialiserUtils.putUnsignedVarLong(buf, id);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			buf.put(LONG);
+			SerialiserUtils.putVarLong(buf, ((Number) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			buf.put(DOUBLE);
+			SerialiserUtils.putLongBigEndian(buf, Double.doubleToRawLongBits(((Number) value).doubleValue()));
+		} else if (value instanceof Boolean) {
+			buf.put(((Boolean) value).booleanValue() ? TRUE : FALSE);
+		} else if (value instanceof Map) {
+			buf.put(MAP);
+			writeFields(buf, (Map<?, ?>) value, plan);
+		} else if (value instanceof Object[]) {
+			buf.put(ARRAY);
+			writeElements(buf, Arrays.asList((Object[]) value), plan);
+		} else if (value instanceof Collection) {
+			buf.put(LIST);
+			writeElements(buf, (Collection<?>) value, plan);
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			buf.put(BYTES);
+			SerialiserUtils.putUnsignedVarLong(buf, bytes.length);
+			buf.put(bytes);
+		} else {
+			throw unsupported(value);
+		}
+	}
+
+	private static void writeElements(ByteBuffer buf, Collection<?> values, Plan plan) {
+		SerialiserUtils.putUnsignedVarLong(buf, values.size());
+		for (Object value : values)
+			writeValue(buf, value, plan);
+	}
+
+	/**
+	 * Reads keys and strings by their ids in the batch's dictionaries.
+	 */
+	private static final class DictionaryReader extends EventValueReader {
+		String[] keys;
+		String[] strings;
+
+		@Override
+		String readKey(ByteBuffer buf) {
+			return keys[SerialiserUtils.getUnsignedVarInt(buf)];
+		}
+
+		@Override
+		String readString(ByteBuffer buf) {
+			return strings[SerialiserUtils.getUnsignedVarInt(buf)];
+		}
+	}
+
+	private static IllegalStateException stale() {
+		return new IllegalStateException("Events changed while being serialised");
+	}
+
+	private static IllegalArgumentException unsupported(Object value) {
+		return new IllegalArgumentException("Cannot serialise event value of type " + value.getClass().getName());
+	}
+
+	/**
+	 * Strings numbered in order of first appearance, with their UTF-8
+	 * encoding.
+	 */
+	static final class Dictionary {
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		final List<String> strings = new ArrayList<String>();
+		final List<byte[]> bytes = new ArrayList<byte[]>();
+		int size = 0;
+
+		int idOf(String str) {
+			Integer id = ids.get(str);
+			if (id == null) {
+				id = bytes.size();
+				ids.put(str, id);
+				strings.add(str);
+				byte[] encoded = str.getBytes(SerialiserUtils.UTF8);
+				bytes.add(encoded);
+				size += SerialiserUtils.unsignedVarLongSize(encoded.length) + encoded.length;
+			}
+			return id;
+		}
+
+		int sizeInBytes() {
+			return SerialiserUtils.unsignedVarLongSize(bytes.size()) + size;
+		}
+
+		/** Whether the string has the given id. */
+		boolean holds(int id, String str) {
+			String entry = strings.get(id);
+			return entry == str || entry.equals(str);
+		}
+	}
+
+	/**
+	 * The layout of a batch: its dictionaries, its size, and the sequence of
+	 * key and string ids in the order write() will need them.
+	 */
+	static final class Plan {
+		/** Weakly, so that a plan no write follows does not keep the events. */
+		final WeakReference<List<Event>> events;
+		final Dictionary keys = new Dictionary();
+		final Dictionary strings = new Dictionary();
+		final int eventCount;
+		int[] ids = new int[64];
+		int count = 0;
+		int next;
+		final int size;
+
+		Plan(List<Event> events) {
+			this.events = new WeakReference<List<Event>>(events);
+			this.eventCount = events.size();
+			int body = SerialiserUtils.unsignedVarLongSize(events.size());
+			for (Event event : events)
+				body += sizeOfFields(event, 0);
+			size = 2 + keys.sizeInBytes() + strings.sizeInBytes() + body;
+		}
+
+		private void addId(int id) {
+			if (count == ids.length)
+				ids = Arrays.copyOf(ids, 2 * count);
+			ids[count++] = id;
+		}
+
+		private int sizeOfFields(Map<?, ?> map, int depth) {
+			int size = SerialiserUtils.unsignedVarLongSize(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				int id = keys.idOf(String.valueOf(entry.getKey()));
+				addId(id);
+				size += SerialiserUtils.unsignedVarLongSize(id) + sizeOfValue(entry.getValue(), depth);
+			}
+			return size;
+		}
+
+		/**
+		 * The size of a value inside depth maps and collections; refuses to
+		 * nest deeper than a reader would accept.
+		 */
+		private int sizeOfValue(Object value, int depth) {
+			if (depth >= MAX_DEPTH && (value instanceof Map || value instanceof Object[] || value instanceof Collection))
+				throw new IllegalArgumentException("Event values nested deeper than " + MAX_DEPTH);
+			if (value == null || value instanceof Boolean) {
+				return 1;
+			} else if (value instanceof String) {
+				int id = strings.idOf((String) value);
+				addId(id);
+				return 1 + SerialiserUtils.unsignedVarLongSize(id);
+			} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				return 1 + SerialiserUtils.varLongSize(((Number) value).longValue());
+			} else if (value instanceof Double || value instanceof Float) {
+				return 9;
+			} else if (value instanceof Map) {
+				return 1 + sizeOfFields((Map<?, ?>) value, depth + 1);
+			} else if (value instanceof Object[]) {
+				return 1 + sizeOfElements(Arrays.asList((Object[]) value), depth + 1);
+			} else if (value instanceof Collection) {
+				return 1 + sizeOfElements((Collection<?>) value, depth + 1);
+			} else if (value instanceof byte[]) {
+				int length = ((byte[]) value).length;
+				return 1 + SerialiserUtils.unsignedVarLongSize(length) + length;
+			} else {
+				throw unsupported(value);
+			}
+		}
+
+		private int sizeOfElements(Collection<?> values, int depth) {
+			int size = SerialiserUtils.unsignedVarLongSize(values.size());
+			for (Object value : values)
+				size += sizeOfValue(value, depth);
+			return size;
+		}
+	}
+}
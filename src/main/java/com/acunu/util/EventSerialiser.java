@@ -0,0 +1,321 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.acunu.analytics.Event;
+
+/**
+ * A compact binary encoding of a single event, for persisting, spilling,
+ * journalling or shipping events one at a time. For many events at once,
+ * {@link EventBatchSerialiser} is smaller, writing each distinct key and
+ * string only once.
+ *
+ * Layout (all counts and lengths are unsigned varints):
+ *
+ * <pre>
+ * version (1)
+ * field count, fields
+ * field: key length, key UTF-8 bytes, value
+ * value: type tag, payload
+ * </pre>
+ *
+ * The type tags are those of {@link EventBatchSerialiser}, except that
+ * strings are written in place (length, UTF-8 bytes) and Integer and Float
+ * have tags of their own, so that every numeric type round-trips as itself
+ * (Short and Byte still come back as Long). Maps nest with the same layout as
+ * the event; Object[], such as the "_event_array" of
+ * {@link Event#fromArray(Object[])}, comes back as Object[], and other
+ * Collections as ArrayList. Maps and collections nest at most
+ * {@link EventBatchSerialiser#MAX_DEPTH} deep: deeper values are refused on
+ * write and fail with IOException on read.
+ *
+ * sizeInBytes walks the event without encoding anything: string lengths are
+ * counted from their chars, and the UTF-8 bytes of keys are cached, so each
+ * distinct key is encoded once per process. Decoded events share one String
+ * instance per distinct key on each thread.
+ *
+ * Instances are thread-safe.
+ */
+public class EventSerialiser extends Serialiser.AbstractLookaheadSerialiser<Event> {
+
+	public static final byte VERSION = 1;
+
+	static final byte INT = 10;
+	static final byte FLOAT = 11;
+
+	/** Most distinct keys whose bytes are cached. */
+	private static final int MAX_CACHED_KEYS = 4096;
+
+	public static final EventSerialiser serEvent = new EventSerialiser();
+
+	private final ConcurrentMap<String, byte[]> keyBytes = new ConcurrentHashMap<String, byte[]>();
+
+	private final ThreadLocal<KeyTable> keyTables = new ThreadLocal<KeyTable>() {
+		@Override
+		protected KeyTable initialValue() {
+			return new KeyTable();
+		}
+	};
+
+	@Override
+	public int sizeInBytes(Event event) {
+		return 1 + sizeOfFields(event, 0);
+	}
+
+	@Override
+	public void write(ByteBuffer buf, Event event) throws IOException {
+		buf.put(VERSION);
+		writeFields(buf, event, 0);
+	}
+
+	@Override
+	public Event fromBytes(ByteBuffer buf) throws IOException {
+		if (buf == null)
+			return null;
+		try {
+			byte version = buf.get();
+			if (version != VERSION)
+				throw new IOException("Unsupported event version " + version);
+			KeyTable keys = keyTables.get();
+			int fields = EventBatchSerialiser.boundedCount(buf, 2);
+			Event event = new Event(new HashMap<String, Object>(EventValueReader.capacity(fields)));
+			keys.readFields(buf, event, fields, 0);
+			return event;
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt event", e);
+		}
+	}
+
+	public String toString() {
+		return "serEvent";
+	}
+
+	/**
+	 * The UTF-8 bytes of a key, cached until the cache is full.
+	 */
+	private byte[] keyBytes(Object key) {
+		String str = String.valueOf(key);
+		byte[] bytes = keyBytes.get(str);
+		if (bytes == null) {
+			bytes = str.getBytes(SerialiserUtils.UTF8);
+			if (keyBytes.size() < MAX_CACHED_KEYS)
+				keyBytes.putIfAbsent(str, bytes);
+		}
+		return bytes;
+	}
+
+	private int sizeOfFields(Map<?, ?> map, int depth) {
+		int size = SerialiserUtils.unsignedVarLongSize(map.size());
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			int length = keyBytes(entry.getKey()).length;
+			size += SerialiserUtils.unsignedVarLongSize(length) + length + sizeOfValue(entry.getValue(), depth);
+		}
+		return size;
+	}
+
+	/**
+	 * Size of a value inside depth maps and collections.
+	 */
+	private int sizeOfValue(Object value, int depth) {
+		if (value == null || value instanceof Boolean) {
+			return 1;
+		} else if (value instanceof String) {
+			int length = SerialiserUtils.utf8Length((String) value);
+			return 1 + SerialiserUtils.unsignedVarLongSize(length) + length;
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return 1 + SerialiserUtils.varLongSize(((Number) value).longValue());
+		} else if (value instanceof Double) {
+			return 9;
+		} else if (value instanceof Float) {
+			return 5;
+		} else if (value instanceof Map) {
+			checkDepth(depth);
+			return 1 + sizeOfFields((Map<?, ?>) value, depth + 1);
+		} else if (value instanceof Object[]) {
+			checkDepth(depth);
+			Object[] values = (Object[]) value;
+			int size = 1 + SerialiserUtils.unsignedVarLongSize(values.length);
+			for (Object element : values)
+				size += sizeOfValue(element, depth + 1);
+			return size;
+		} else if (value instanceof Collection) {
+			checkDepth(depth);
+			Collection<?> values = (Collection<?>) value;
+			int size = 1 + SerialiserUtils.unsignedVarLongSize(values.size());
+			for (Object element : values)
+				size += sizeOfValue(element, depth + 1);
+			return size;
+		} else if (value instanceof byte[]) {
+			int length = ((byte[]) value).length;
+			return 1 + SerialiserUtils.unsignedVarLongSize(length) + length;
+		} else {
+			throw unsupported(value);
+		}
+	}
+
+	private void writeFields(ByteBuffer buf, Map<?, ?> map, int depth) {
+		SerialiserUtils.putUnsignedVarLong(buf, map.size());
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			byte[] key = keyBytes(entry.getKey());
+			SerialiserUtils.putUnsignedVarLong(buf, key.length);
+			buf.put(key);
+			writeValue(buf, entry.getValue(), depth);
+		}
+	}
+
+	private void writeValue(ByteBuffer buf, Object value, int depth) {
+		if (value == null) {
+			buf.put(EventBatchSerialiser.NULL);
+		} else if (value instanceof String) {
+			String str = (String) value;
+			buf.put(EventBatchSerialiser.STRING);
+			SerialiserUtils.putUnsignedVarLong(buf, SerialiserUtils.utf8Length(str));
+			SerialiserUtils.putUtf8(buf, str);
+		} else if (value instanceof Long || value instanceof Short || value instanceof Byte) {
+			buf.put(EventBatchSerialiser.LONG);
+			SerialiserUtils.putVarLong(buf, ((Number) value).longValue());
+		} else if (value instanceof Integer) {
+			buf.put(INT);
+			SerialiserUtils.putVarLong(buf, ((Integer) value).intValue());
+		} else if (value instanceof Double) {
+			buf.put(EventBatchSerialiser.DOUBLE);
+			SerialiserUtils.putLongBigEndian(buf, Double.doubleToRawLongBits(((Double) value).doubleValue()));
+		} else if (value instanceof Float) {
+			buf.put(FLOAT);
+			SerialiserUtils.putIntBigEndian(buf, Float.floatToRawIntBits(((Float) value).floatValue()));
+		} else if (value instanceof Boolean) {
+			buf.put(((Boolean) value).booleanValue() ? EventBatchSerialiser.TRUE : EventBatchSerialiser.FALSE);
+		} else if (value instanceof Map) {
+			checkDepth(depth);
+			buf.put(EventBatchSerialiser.MAP);
+			writeFields(buf, (Map<?, ?>) value, depth + 1);
+		} else if (value instanceof Object[]) {
+			checkDepth(depth);
+			Object[] values = (Object[]) value;
+			buf.put(EventBatchSerialiser.ARRAY);
+			SerialiserUtils.putUnsignedVarLong(buf, values.length);
+			for (Object element : values)
+				writeValue(buf, element, depth + 1);
+		} else if (value instanceof Collection) {
+			checkDepth(depth);
+			Collection<?> values = (Collection<?>) value;
+			buf.put(EventBatchSerialiser.LIST);
+			SerialiserUtils.putUnsignedVarLong(buf, values.size());
+			for (Object element : values)
+				writeValue(buf, element, depth + 1);
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			buf.put(EventBatchSerialiser.BYTES);
+			SerialiserUtils.putUnsignedVarLong(buf, bytes.length);
+			buf.put(bytes);
+		} else {
+			throw unsupported(value);
+		}
+	}
+
+	/**
+	 * Refuse to write what a reader would refuse to read.
+	 */
+	private static void checkDepth(int depth) {
+		if (depth >= EventBatchSerialiser.MAX_DEPTH)
+			throw new IllegalArgumentException("Event values nested deeper than " + EventBatchSerialiser.MAX_DEPTH);
+	}
+
+	private static IllegalArgumentException unsupported(Object value) {
+		return new IllegalArgumentException("Cannot serialise event value of type " + value.getClass().getName());
+	}
+
+	/**
+	 * Canonical key Strings, looked up by their UTF-8 bytes so that a
+	 * repeated key costs neither a new String nor decoding. Open addressing;
+	 * stops caching once full, so a stream of unique keys cannot grow it.
+	 * Also reads the strings and extra type tags of this layout.
+	 */
+	private static final class KeyTable extends EventValueReader {
+		private static final int SIZE = 1024;
+		private static final int MAX_ENTRIES = 768;
+
+		private final byte[][] bytes = new byte[SIZE][];
+		private final int[] hashes = new int[SIZE];
+		private final String[] strings = new String[SIZE];
+		private int entries = 0;
+
+		/** Holds keys read from buffers without an array. */
+		private byte[] scratch = new byte[64];
+
+		@Override
+		String readKey(ByteBuffer buf) {
+			return read(buf, SerialiserUtils.getUnsignedVarInt(buf));
+		}
+
+		@Override
+		String readString(ByteBuffer buf) {
+			return SerialiserUtils.getUtf8(buf, SerialiserUtils.getUnsignedVarInt(buf));
+		}
+
+		@Override
+		Object readOther(byte tag, ByteBuffer buf) throws IOException {
+			switch (tag) {
+			case INT:
+				return Integer.valueOf((int) SerialiserUtils.getVarLong(buf));
+			case FLOAT:
+				return Float.valueOf(Float.intBitsToFloat(SerialiserUtils.getIntBigEndian(buf)));
+			default:
+				return super.readOther(tag, buf);
+			}
+		}
+
+		String read(ByteBuffer buf, int length) {
+			if (length > buf.remaining())
+				throw new IllegalArgumentException("Key length " + length + " beyond end of buffer");
+			byte[] from;
+			int offset;
+			if (buf.hasArray()) {
+				from = buf.array();
+				offset = buf.arrayOffset() + buf.position();
+				buf.position(buf.position() + length);
+			} else {
+				if (length > scratch.length)
+					scratch = new byte[Math.max(length, 2 * scratch.length)];
+				buf.get(scratch, 0, length);
+				from = scratch;
+				offset = 0;
+			}
+
+			int hash = 0;
+			for (int i = 0; i < length; i++)
+				hash = 31 * hash + from[offset + i];
+			int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+			while (bytes[slot] != null) {
+				if (hashes[slot] == hash && equal(bytes[slot], from, offset, length))
+					return strings[slot];
+				slot = (slot + 1) & (SIZE - 1);
+			}
+			String key = new String(from, offset, length, SerialiserUtils.UTF8);
+			if (entries < MAX_ENTRIES) {
+				byte[] copy = new byte[length];
+				System.arraycopy(from, offset, copy, 0, length);
+				bytes[slot] = copy;
+				hashes[slot] = hash;
+				strings[slot] = key;
+				entries++;
+			}
+			return key;
+		}
+
+		private static boolean equal(byte[] key, byte[] buf, int offset, int length) {
+			if (key.length != length)
+				return false;
+			for (int i = 0; i < length; i++)
+				if (key[i] != buf[offset + i])
+					return false;
+			return true;
+		}
+	}
+}
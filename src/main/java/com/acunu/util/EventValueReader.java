@@ -0,0 +1,115 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the fields and values of events in the layout shared by
+ * {@link EventBatchSerialiser} and {@link EventSerialiser}, which differ only
+ * in how keys and strings are written and in the extra type tags of the
+ * latter. Maps and collections nested deeper than
+ * {@link EventBatchSerialiser#MAX_DEPTH} fail with IOException rather than
+ * recursing further.
+ *
+ * Other malformed input, such as a truncated buffer or a bad id, throws the
+ * RuntimeException that reading it gives, for the caller to report as
+ * corrupt.
+ */
+abstract class EventValueReader {
+
+	/**
+	 * Read a field's key.
+	 */
+	abstract String readKey(ByteBuffer buf) throws IOException;
+
+	/**
+	 * Read the payload of a STRING value.
+	 */
+	abstract String readString(ByteBuffer buf) throws IOException;
+
+	/**
+	 * Read the payload of a value whose tag is not one of the shared ones.
+	 */
+	Object readOther(byte tag, ByteBuffer buf) throws IOException {
+		throw new IOException("Unknown type tag " + tag);
+	}
+
+	/**
+	 * Read fields into a map, inside depth maps and collections.
+	 */
+	final void readFields(ByteBuffer buf, Map<String, Object> target, int fields, int depth) throws IOException {
+		for (int i = 0; i < fields; i++) {
+			String key = readKey(buf);
+			target.put(key, readValue(buf, depth));
+		}
+	}
+
+	/**
+	 * Read a value inside depth maps and collections.
+	 */
+	final Object readValue(ByteBuffer buf, int depth) throws IOException {
+		byte tag = buf.get();
+		switch (tag) {
+		case EventBatchSerialiser.NULL:
+			return null;
+		case EventBatchSerialiser.FALSE:
+			return Boolean.FALSE;
+		case EventBatchSerialiser.TRUE:
+			return Boolean.TRUE;
+		case EventBatchSerialiser.LONG:
+			return Long.valueOf(SerialiserUtils.getVarLong(buf));
+		case EventBatchSerialiser.DOUBLE:
+			return Double.valueOf(Double.longBitsToDouble(SerialiserUtils.getLongBigEndian(buf)));
+		case EventBatchSerialiser.STRING:
+			return readString(buf);
+		case EventBatchSerialiser.MAP: {
+			checkDepth(depth);
+			int fields = EventBatchSerialiser.boundedCount(buf, 2);
+			Map<String, Object> map = new HashMap<String, Object>(capacity(fields));
+			readFields(buf, map, fields, depth + 1);
+			return map;
+		}
+		case EventBatchSerialiser.ARRAY: {
+			checkDepth(depth);
+			Object[] values = new Object[EventBatchSerialiser.boundedCount(buf, 1)];
+			for (int i = 0; i < values.length; i++)
+				values[i] = readValue(buf, depth + 1);
+			return values;
+		}
+		case EventBatchSerialiser.LIST: {
+			checkDepth(depth);
+			int length = EventBatchSerialiser.boundedCount(buf, 1);
+			List<Object> values = new ArrayList<Object>(length);
+			for (int i = 0; i < length; i++)
+				values.add(readValue(buf, depth + 1));
+			return values;
+		}
+		case EventBatchSerialiser.BYTES: {
+			byte[] bytes = new byte[EventBatchSerialiser.boundedCount(buf, 1)];
+			buf.get(bytes);
+			return bytes;
+		}
+		default:
+			return readOther(tag, buf);
+		}
+	}
+
+	/**
+	 * Initial capacity of a HashMap to hold the given number of entries.
+	 */
+	static int capacity(int entries) {
+		return entries < 3 ? 4 : (int) (entries / 0.75f) + 1;
+	}
+
+	/**
+	 * Fail rather than recurse any deeper than a writer would have.
+	 */
+	static void checkDepth(int depth) throws IOException {
+		if (depth >= EventBatchSerialiser.MAX_DEPTH)
+			throw new IOException("Values nested deeper than " + EventBatchSerialiser.MAX_DEPTH);
+	}
+}
@@ -0,0 +1,247 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length serialisers of numbers, for counters, times and other
+ * values that are usually small, where the fixed 8 bytes of
+ * {@link Serialiser#serLong} are mostly zeros.
+ *
+ * <ul>
+ * <li>{@link #serVarLong}, {@link #serVarInt}: zig-zag varints, 1 byte for
+ * values in [-64, 63], 2 for [-8192, 8191], and so on, up to 10 bytes for a
+ * long. Not ordered.</li>
+ * <li>{@link #serOrderedVarLong}, {@link #serOrderedVarInt}: a header byte
+ * giving sign and length, then the significant bytes, big-endian. 1 byte for
+ * 0 and -1, 2 for [-256, 255], up to 9 bytes for a long. Ordered, for keys.</li>
+ * <li>{@link #serDeltaOfDeltaLongs}: a long[] sequence as its first value,
+ * its first difference, then the differences between successive differences,
+ * each a zig-zag varint. Regular timestamps cost about a byte each. Any
+ * long[] round-trips, but only sorted, evenly spaced sequences are small.</li>
+ * </ul>
+ *
+ * All work on any kind of buffer and are thread-safe.
+ */
+public class NumericSerialisers {
+
+	/**
+	 * Longs as zig-zag varints.
+	 */
+	public static final Serialiser<Long> serVarLong = new Serialiser.AbstractLookaheadSerialiser<Long>() {
+		@Override
+		public Long fromBytes(ByteBuffer buf) {
+			if (buf == null)
+				return null;
+			return SerialiserUtils.getVarLong(buf);
+		}
+
+		@Override
+		public int sizeInBytes(Long value) {
+			return SerialiserUtils.varLongSize(value);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Long value) {
+			SerialiserUtils.putVarLong(buf, value);
+		}
+
+		public String toString() {
+			return "serVarLong";
+		}
+	};
+
+	/**
+	 * Integers as zig-zag varints, 1 to 5 bytes.
+	 */
+	public static final Serialiser<Integer> serVarInt = new Serialiser.AbstractLookaheadSerialiser<Integer>() {
+		@Override
+		public Integer fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			long value = SerialiserUtils.getVarLong(buf);
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+				throw new IOException("Varint out of range for an int: " + value);
+			return (int) value;
+		}
+
+		@Override
+		public int sizeInBytes(Integer value) {
+			return SerialiserUtils.varLongSize(value);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Integer value) {
+			SerialiserUtils.putVarLong(buf, value);
+		}
+
+		public String toString() {
+			return "serVarInt";
+		}
+	};
+
+	/**
+	 * Longs in 1 to 9 bytes, in an order-preserving form: see
+	 * {@link #putOrderedVarLong}.
+	 */
+	public static final OrderedSerialiser<Long> serOrderedVarLong = new OrderedSerialiser.AbstractOrderedSerialiser<Long>() {
+		@Override
+		public Long fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			return getOrderedVarLong(buf);
+		}
+
+		@Override
+		public int sizeInBytes(Long value) {
+			return orderedVarLongSize(value);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Long value) {
+			putOrderedVarLong(buf, value);
+		}
+
+		public String toString() {
+			return "serOrderedVarLong";
+		}
+	};
+
+	/**
+	 * Integers in 1 to 5 bytes, in the same form as
+	 * {@link #serOrderedVarLong}, so the two encode equal values identically.
+	 */
+	public static final OrderedSerialiser<Integer> serOrderedVarInt = new OrderedSerialiser.AbstractOrderedSerialiser<Integer>() {
+		@Override
+		public Integer fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			long value = getOrderedVarLong(buf);
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+				throw new IOException("Value out of range for an int: " + value);
+			return (int) value;
+		}
+
+		@Override
+		public int sizeInBytes(Integer value) {
+			return orderedVarLongSize(value);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Integer value) {
+			putOrderedVarLong(buf, value);
+		}
+
+		public String toString() {
+			return "serOrderedVarInt";
+		}
+	};
+
+	/**
+	 * Sequences of longs, delta-of-delta encoded.
+	 */
+	public static final Serialiser<long[]> serDeltaOfDeltaLongs = new Serialiser.AbstractLookaheadSerialiser<long[]>() {
+		@Override
+		public long[] fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			int count = SerialiserUtils.getUnsignedVarInt(buf);
+			// every value takes at least a byte
+			if (count > buf.remaining())
+				throw new IOException("Sequence of " + count + " values but only " + buf.remaining() + " bytes left");
+			long[] values = new long[count];
+			long value = 0, delta = 0;
+			for (int i = 0; i < count; i++) {
+				long read = SerialiserUtils.getVarLong(buf);
+				if (i == 0) {
+					value = read;
+				} else {
+					delta = (i == 1) ? read : delta + read;
+					value += delta;
+				}
+				values[i] = value;
+			}
+			return values;
+		}
+
+		@Override
+		public int sizeInBytes(long[] values) {
+			int size = SerialiserUtils.unsignedVarLongSize(values.length);
+			long delta = 0;
+			for (int i = 0; i < values.length; i++) {
+				if (i == 0) {
+					size += SerialiserUtils.varLongSize(values[0]);
+				} else {
+					long next = values[i] - values[i - 1];
+					size += SerialiserUtils.varLongSize(i == 1 ? next : next - delta);
+					delta = next;
+				}
+			}
+			return size;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, long[] values) {
+			SerialiserUtils.putUnsignedVarLong(buf, values.length);
+			long delta = 0;
+			for (int i = 0; i < values.length; i++) {
+				if (i == 0) {
+					SerialiserUtils.putVarLong(buf, values[0]);
+				} else {
+					long next = values[i] - values[i - 1];
+					SerialiserUtils.putVarLong(buf, i == 1 ? next : next - delta);
+					delta = next;
+				}
+			}
+		}
+
+		public String toString() {
+			return "serDeltaOfDeltaLongs";
+		}
+	};
+
+	/**
+	 * Number of significant bytes of a long: of the value if non-negative, of
+	 * its complement if negative.
+	 */
+	private static int significantBytes(long num) {
+		long magnitude = (num < 0) ? ~num : num;
+		return (71 - Long.numberOfLeadingZeros(magnitude)) >>> 3;
+	}
+
+	/**
+	 * Number of bytes {@link #putOrderedVarLong} will use for a value.
+	 */
+	public static int orderedVarLongSize(long num) {
+		return 1 + significantBytes(num);
+	}
+
+	/**
+	 * Write a long so that the bytes sort as the values do. A header byte,
+	 * 0x80 + n for a non-negative value of n significant bytes, 0x7F - n for a
+	 * negative one, then those n bytes, big-endian. Shorter non-negative
+	 * values are smaller and shorter negative ones larger, so the header alone
+	 * orders values of different lengths.
+	 */
+	public static void putOrderedVarLong(ByteBuffer buf, long num) {
+		int n = significantBytes(num);
+		buf.put((byte) (num < 0 ? 0x7f - n : 0x80 + n));
+		for (int shift = 8 * (n - 1); shift >= 0; shift -= 8)
+			buf.put((byte) (num >>> shift));
+	}
+
+	/**
+	 * Read a long written by {@link #putOrderedVarLong}.
+	 */
+	public static long getOrderedVarLong(ByteBuffer buf) throws IOException {
+		int header = buf.get() & 0xff;
+		boolean negative = header < 0x80;
+		int n = negative ? 0x7f - header : header - 0x80;
+		if (n > 8)
+			throw new IOException("Bad ordered varint header " + header);
+		long num = negative ? -1L : 0L;
+		for (int i = 0; i < n; i++)
+			num = (num << 8) | (buf.get() & 0xff);
+		return num;
+	}
+}
@@ -0,0 +1,274 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import com.acunu.analytics.server.ServerException;
+
+/**
+ * A serialiser whose encodings sort as their values do: for any a and b,
+ * comparing the encodings of a and b as unsigned bytes, lexicographically,
+ * gives the same answer as comparing a and b. No encoding is a proper prefix
+ * of another, so encodings written one after the other, as in a composite
+ * key, also compare component by component.
+ *
+ * This lets keys be sorted, merged and range-scanned in their serialised
+ * form, without fromBytes.
+ */
+public interface OrderedSerialiser<X> extends Serialiser<X> {
+
+	/**
+	 * Base class for ordered serialisers, with toBytes derived from
+	 * sizeInBytes and write as in
+	 * {@link Serialiser.AbstractLookaheadSerialiser}.
+	 */
+	public static abstract class AbstractOrderedSerialiser<X> extends Serialiser.AbstractLookaheadSerialiser<X> implements
+			OrderedSerialiser<X> {
+	}
+
+	/**
+	 * Longs in the same 8 bytes as {@link Serialiser#serLong}.
+	 */
+	public static final OrderedSerialiser<Long> serOrderedLong = new AbstractOrderedSerialiser<Long>() {
+		@Override
+		public Long fromBytes(ByteBuffer buf) {
+			if (buf == null)
+				return null;
+			return SerialiserUtils.getOrderedLong(buf);
+		}
+
+		@Override
+		public int sizeInBytes(Long value) {
+			return 8;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Long value) {
+			SerialiserUtils.putOrderedLong(buf, value);
+		}
+
+		public String toString() {
+			return "serOrderedLong";
+		}
+	};
+
+	/**
+	 * Integers in 4 bytes, big-endian with the sign bit flipped.
+	 */
+	public static final OrderedSerialiser<Integer> serOrderedInt = new AbstractOrderedSerialiser<Integer>() {
+		@Override
+		public Integer fromBytes(ByteBuffer buf) {
+			if (buf == null)
+				return null;
+			return getBigEndianInt(buf) ^ Integer.MIN_VALUE;
+		}
+
+		@Override
+		public int sizeInBytes(Integer value) {
+			return 4;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Integer value) {
+			int bits = value ^ Integer.MIN_VALUE;
+			buf.putInt(buf.order() == ByteOrder.BIG_ENDIAN ? bits : Integer.reverseBytes(bits));
+		}
+
+		private int getBigEndianInt(ByteBuffer buf) {
+			int bits = buf.getInt();
+			return buf.order() == ByteOrder.BIG_ENDIAN ? bits : Integer.reverseBytes(bits);
+		}
+
+		public String toString() {
+			return "serOrderedInt";
+		}
+	};
+
+	/**
+	 * Doubles in the same 8 bytes as {@link Serialiser#serDouble}. -0.0 sorts
+	 * before 0.0, and NaN after positive infinity, as with Double.compareTo.
+	 */
+	public static final OrderedSerialiser<Double> serOrderedDouble = new AbstractOrderedSerialiser<Double>() {
+		@Override
+		public Double fromBytes(ByteBuffer buf) {
+			if (buf == null)
+				return null;
+			return SerialiserUtils.getOrderedDouble(buf);
+		}
+
+		@Override
+		public int sizeInBytes(Double value) {
+			return 8;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, Double value) {
+			SerialiserUtils.putOrderedDouble(buf, value);
+		}
+
+		public String toString() {
+			return "serOrderedDouble";
+		}
+	};
+
+	/**
+	 * Strings as UTF-8, with each 0x00 byte escaped as 0x00 0xFF, ended by
+	 * 0x00 0x01. Shorter strings sort before longer ones they are a prefix
+	 * of, and strings otherwise sort by Unicode code point, which matches
+	 * String.compareTo except between supplementary characters and
+	 * U+E000..U+FFFF. Unpaired surrogates are written as '?'.
+	 */
+	public static final OrderedSerialiser<String> serOrderedString = new AbstractOrderedSerialiser<String>() {
+		@Override
+		public String fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			int start = buf.position();
+			int limit = buf.limit();
+			// find the terminator, counting escapes
+			int escapes = 0;
+			int pos = start;
+			while (true) {
+				if (pos + 1 >= limit)
+					throw new IOException("Unterminated ordered string");
+				if (buf.get(pos) != 0) {
+					pos++;
+				} else if (buf.get(pos + 1) == (byte) 0xff) {
+					escapes++;
+					pos += 2;
+				} else if (buf.get(pos + 1) == 1) {
+					break;
+				} else {
+					throw new IOException("Bad escape in ordered string at " + pos);
+				}
+			}
+			int length = pos - start;
+			String str;
+			if (escapes == 0) {
+				str = SerialiserUtils.getUtf8(buf, length);
+			} else {
+				byte[] bytes = new byte[length - escapes];
+				int n = 0;
+				while (buf.position() < pos) {
+					byte b = buf.get();
+					bytes[n++] = b;
+					if (b == 0)
+						buf.get();
+				}
+				str = new String(bytes, SerialiserUtils.UTF8);
+			}
+			buf.position(pos + 2);
+			return str;
+		}
+
+		@Override
+		public int sizeInBytes(String value) {
+			int size = SerialiserUtils.utf8Length(value) + 2;
+			for (int i = value.indexOf('\0'); i >= 0; i = value.indexOf('\0', i + 1))
+				size++;
+			return size;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, String value) {
+			int from = 0;
+			for (int i = value.indexOf('\0'); i >= 0; i = value.indexOf('\0', from)) {
+				SerialiserUtils.putUtf8(buf, value.substring(from, i));
+				buf.put((byte) 0);
+				buf.put((byte) 0xff);
+				from = i + 1;
+			}
+			SerialiserUtils.putUtf8(buf, from == 0 ? value : value.substring(from));
+			buf.put((byte) 0);
+			buf.put((byte) 1);
+		}
+
+		public String toString() {
+			return "serOrderedString";
+		}
+	};
+
+	/**
+	 * A composite key of ordered components, written one after the other
+	 * with no count or lengths, so that keys sort as tuples: by the first
+	 * component, then the second, and so on. Any leading components of a key
+	 * form a prefix of its bytes, so {@link #prefixBytes} gives the start of
+	 * a range scan.
+	 *
+	 * Components may not be null.
+	 */
+	public static class OrderedCompositeSerialiser extends AbstractOrderedSerialiser<Object[]> {
+		private final OrderedSerialiser[] ser;
+
+		public OrderedCompositeSerialiser(OrderedSerialiser... acc) {
+			this.ser = acc;
+		}
+
+		@Override
+		public Object[] fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			Object[] value = new Object[ser.length];
+			for (int i = 0; i < ser.length; i++)
+				value[i] = ser[i].fromBytes(buf);
+			return value;
+		}
+
+		@Override
+		public int sizeInBytes(Object[] value) {
+			checkSize(value, false);
+			return sizeOf(value);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void write(ByteBuffer buf, Object[] value) throws IOException {
+			checkSize(value, false);
+			for (int i = 0; i < value.length; i++)
+				ser[i].write(buf, value[i]);
+		}
+
+		/**
+		 * The bytes of the first prefix.length components of a key: every key
+		 * starting with those components starts with these bytes.
+		 */
+		@SuppressWarnings("unchecked")
+		public ByteBuffer prefixBytes(Object... prefix) {
+			checkSize(prefix, true);
+			ByteBuffer buf = ByteBuffer.allocate(sizeOf(prefix));
+			try {
+				for (int i = 0; i < prefix.length; i++)
+					ser[i].write(buf, prefix[i]);
+			} catch (IOException exn) {
+				throw new SerialisationException(exn);
+			}
+			buf.rewind();
+			return buf;
+		}
+
+		@SuppressWarnings("unchecked")
+		private int sizeOf(Object[] value) {
+			int size = 0;
+			for (int i = 0; i < value.length; i++)
+				size += ser[i].sizeInBytes(value[i]);
+			return size;
+		}
+
+		private void checkSize(Object[] value, boolean prefix) {
+			if (value == null)
+				throw new ServerException("Cannot serialise null");
+			if (prefix ? value.length > ser.length : value.length != ser.length)
+				throw new ServerException("Invalid number of components, should be " + (prefix ? "at most " : "") + ser.length
+						+ " found " + Arrays.toString(value));
+			for (Object component : value)
+				if (component == null)
+					throw new ServerException("Cannot serialise null component in " + Arrays.toString(value));
+		}
+
+		public String toString() {
+			return "OrderedCompositeSerialiser" + Arrays.toString(ser);
+		}
+	}
+}
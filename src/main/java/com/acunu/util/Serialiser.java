@@ -117,16 +117,14 @@ public interface Serialiser<X> {
 		protected byte[] retrieveBytes(ByteBuffer buf) {
 			if (buf == null)
 				return null;
-			synchronized (buf) {
-				int length = 0;
-				if (writeLengthFirst)
-					length = buf.getInt();
-				else
-					length = buf.limit() - buf.position();
-				byte[] bytes = new byte[length];
-				buf.get(bytes);
-				return bytes;
-			}
+			int length = 0;
+			if (writeLengthFirst)
+				length = buf.getInt();
+			else
+				length = buf.limit() - buf.position();
+			byte[] bytes = new byte[length];
+			buf.get(bytes);
+			return bytes;
 		}
 
 		@Override
@@ -138,10 +136,7 @@ public interface Serialiser<X> {
 				return ByteBuffer.wrap(bytes);
 			}
 
-			int length = bytes.length + 4;
-			if (length > Short.MAX_VALUE)
-				throw new IllegalArgumentException("Value too long!  length = " + length);
-			ByteBuffer buf = ByteBuffer.allocate(length);
+			ByteBuffer buf = ByteBuffer.allocate(bytes.length + 4);
 			buf.putInt(bytes.length);
 			buf.put(bytes);
 			buf.rewind();
@@ -184,7 +179,10 @@ public interface Serialiser<X> {
 	}
 
 	/**
-	 * A serialiser of Longs.
+	 * A serialiser of Longs, as 8 order-preserving bytes (see
+	 * {@link SerialiserUtils#putOrderedLong}). Works on heap, direct and
+	 * mapped buffers, whatever their byte order, and takes no lock: like the
+	 * buffer itself, a buffer must not be shared between threads while in use.
 	 */
 	public static final Serialiser<Long> serLong = new AbstractLookaheadSerialiser<Long>() {
 
@@ -197,13 +195,7 @@ public interface Serialiser<X> {
 		public Long fromBytes(ByteBuffer buf) {
 			if (buf == null)
 				return null;
-			synchronized (buf) {
-				int pos = buf.position();
-				long value = SerialiserUtils.longOfOrderedBytes(buf.array(),
-						buf.arrayOffset() + pos);
-				buf.position(8 + pos);
-				return value;
-			}
+			return SerialiserUtils.getOrderedLong(buf);
 		}
 
 		@Override
@@ -213,11 +205,7 @@ public interface Serialiser<X> {
 
 		@Override
 		public void write(ByteBuffer buf, Long value) {
-			byte[] bytes = new byte[8];
-			SerialiserUtils.orderedBytesOfLong(bytes, 0, value);
-			synchronized (buf) {
-				buf.put(bytes);
-			}
+			SerialiserUtils.putOrderedLong(buf, value);
 		}
 
 		public String toString() {
@@ -251,32 +239,80 @@ public interface Serialiser<X> {
 	};
 
 	/**
-	 * A serialiser of Strings. First write length as a short, then write the
-	 * string itself.
+	 * A serialiser of Strings. First write length as an int, then write the
+	 * string itself in the platform's default charset. New formats should use
+	 * {@link Utf8StringSerialiser#serUtf8String}.
+	 *
+	 * The encoding made by sizeInBytes is kept, one per thread, for the write
+	 * of the same String that usually follows, so that each string is encoded
+	 * once rather than twice. The write drops it, and encodings over
+	 * {@link BufferPool#MAX_POOLED_SIZE} bytes are not kept. getBytes always
+	 * returns a new array.
 	 */
 	public static final Serialiser<String> serString = new AbstractBytesSerialiser<String>(
 			true) {
 
+		private final ThreadLocal<Object[]> lastEncoded = new ThreadLocal<Object[]>() {
+			@Override
+			protected Object[] initialValue() {
+				return new Object[2];
+			}
+		};
+
 		@Override
 		public String fromBytes(ByteBuffer buf) {
-			// if (buf == null)
-			// return null;
 			byte[] bytes = retrieveBytes(buf);
+			if (bytes == null)
+				return null;
 			return new String(bytes);
 		}
 
 		@Override
 		public byte[] getBytes(String value) {
+			if (value == null)
+				return null;
 			return value.getBytes();
 		}
 
+		@Override
+		public int sizeInBytes(String value) {
+			if (value == null)
+				throw new IllegalArgumentException("Cannot size null object");
+			byte[] bytes = value.getBytes();
+			Object[] last = lastEncoded.get();
+			if (bytes.length <= BufferPool.MAX_POOLED_SIZE) {
+				last[0] = value;
+				last[1] = bytes;
+			} else {
+				last[0] = null;
+				last[1] = null;
+			}
+			return 4 + bytes.length;
+		}
+
+		@Override
+		public void write(ByteBuffer buf, String value) throws IOException {
+			if (buf == null)
+				throw new IOException("Cannot write to null ByteBuffer");
+			if (value == null)
+				throw new IllegalArgumentException("Cannot write null object");
+			Object[] last = lastEncoded.get();
+			byte[] bytes = (last[0] == value) ? (byte[]) last[1] : value.getBytes();
+			last[0] = null;
+			last[1] = null;
+			buf.putInt(bytes.length);
+			buf.put(bytes);
+		}
+
 		public String toString() {
 			return "serString";
 		}
 	};
 
 	/**
-	 * A serialiser of Doubles.
+	 * A serialiser of Doubles, as 8 order-preserving bytes (see
+	 * {@link SerialiserUtils#putOrderedDouble}). Like serLong, works on any
+	 * buffer and takes no lock.
 	 */
 	public static final Serialiser<Double> serDouble = new AbstractLookaheadSerialiser<Double>() {
 
@@ -289,11 +325,7 @@ public interface Serialiser<X> {
 		public Double fromBytes(ByteBuffer buf) {
 			if (buf == null)
 				return null;
-			int pos = buf.position();
-			Double value = SerialiserUtils.doubleOfOrderedBytes(buf.array(),
-					buf.arrayOffset() + pos);
-			buf.position(8 + pos);
-			return value;
+			return SerialiserUtils.getOrderedDouble(buf);
 		}
 
 		public int sizeInBytes(Double value) {
@@ -302,11 +334,7 @@ public interface Serialiser<X> {
 
 		@Override
 		public void write(ByteBuffer buf, Double value) {
-			byte[] bytes = new byte[8];
-			SerialiserUtils.orderedBytesOfDouble(bytes, 0, value);
-			synchronized(buf) {
-				buf.put(bytes);
-			}
+			SerialiserUtils.putOrderedDouble(buf, value);
 		}
 
 		public String toString() {
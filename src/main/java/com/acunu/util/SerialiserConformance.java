@@ -0,0 +1,322 @@
+package com.acunu.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks a {@link Serialiser} against the contract in its javadoc, and
+ * roughly times it, over sample values chosen by the caller. Meant for
+ * anyone writing a serialiser or a UserAggregate's getSerialiser(): pass
+ * samples covering the awkward cases (empty, zero, negative, extremes,
+ * large values) and fix whatever {@link #check} reports.
+ *
+ * For every sample, it checks that
+ * <ul>
+ * <li>toBytes is rewound and holds exactly sizeInBytes bytes;</li>
+ * <li>write, at an offset into a larger buffer, writes exactly sizeInBytes
+ * bytes, the same bytes as toBytes, and leaves the position after them;</li>
+ * <li>fromBytes gives back an equal value from
+ * heap, direct and read-only buffers, and leaves the position just after
+ * the value, even with more bytes following it;</li>
+ * </ul>
+ * and that toBytes(null) and fromBytes(null) are null. Values are compared
+ * as by equals, except that arrays, including those inside maps and
+ * collections such as events, are compared by content. For an
+ * {@link OrderedSerialiser}, {@link #checkOrdered} checks besides that the
+ * encodings compare as the values do, and that none is a proper prefix of
+ * another.
+ */
+public final class SerialiserConformance {
+
+	/** Bytes written either side of a value, to catch writes out of bounds. */
+	private static final int GUARD = 16;
+	private static final byte GUARD_BYTE = (byte) 0xA5;
+
+	private SerialiserConformance() {
+	}
+
+	/**
+	 * Ways in which a serialiser breaks the contract on these samples; empty
+	 * if none.
+	 */
+	public static <X> List<String> check(Serialiser<X> ser, List<X> samples) {
+		List<String> problems = new ArrayList<String>();
+		try {
+			if (ser.toBytes(null) != null)
+				problems.add(ser + ": toBytes(null) is not null");
+		} catch (RuntimeException exn) {
+			problems.add(ser + ": toBytes(null) threw " + exn);
+		}
+		try {
+			if (ser.fromBytes(null) != null)
+				problems.add(ser + ": fromBytes(null) is not null");
+		} catch (Exception exn) {
+			problems.add(ser + ": fromBytes(null) threw " + exn);
+		}
+		for (X sample : samples) {
+			try {
+				checkSample(ser, sample, problems);
+			} catch (Exception exn) {
+				problems.add(describe(ser, sample) + ": threw " + exn);
+			}
+		}
+		return problems;
+	}
+
+	/**
+	 * As {@link #check}, and also that encodings sort as the comparator sorts
+	 * the values.
+	 */
+	public static <X> List<String> checkOrdered(OrderedSerialiser<X> ser, List<X> samples, Comparator<? super X> order) {
+		List<String> problems = check(ser, samples);
+		List<X> sorted = new ArrayList<X>(samples);
+		Collections.sort(sorted, order);
+		// both orders are transitive, so agreeing on neighbours is enough
+		for (int i = 1; i < sorted.size(); i++) {
+			X a = sorted.get(i - 1);
+			X b = sorted.get(i);
+			try {
+				ByteBuffer x = ser.toBytes(a);
+				ByteBuffer y = ser.toBytes(b);
+				int values = Integer.signum(order.compare(a, b));
+				int bytes = Integer.signum(ByteBufferComparator.INSTANCE.compare(x, y));
+				if (values != bytes)
+					problems.add(ser + ": " + a + " and " + b + " compare " + values + " but their bytes compare " + bytes);
+				else if (values != 0 && isPrefix(x, y))
+					problems.add(ser + ": bytes of " + a + " are a prefix of those of " + b);
+			} catch (RuntimeException exn) {
+				problems.add(ser + ": comparing " + a + " and " + b + " threw " + exn);
+			}
+		}
+		return problems;
+	}
+
+	/**
+	 * As {@link #checkOrdered(OrderedSerialiser, List, Comparator)}, in the
+	 * values' natural order.
+	 */
+	public static <X extends Comparable<? super X>> List<String> checkOrdered(OrderedSerialiser<X> ser, List<X> samples) {
+		return checkOrdered(ser, samples, new Comparator<X>() {
+			@Override
+			public int compare(X a, X b) {
+				return a.compareTo(b);
+			}
+		});
+	}
+
+	private static <X> void checkSample(Serialiser<X> ser, X sample, List<String> problems) throws Exception {
+		String name = describe(ser, sample);
+		int size = ser.sizeInBytes(sample);
+
+		ByteBuffer bytes = ser.toBytes(sample);
+		if (bytes == null) {
+			problems.add(name + ": toBytes is null");
+			return;
+		}
+		if (bytes.position() != 0)
+			problems.add(name + ": toBytes is not rewound, position " + bytes.position());
+		if (bytes.remaining() != size)
+			problems.add(name + ": toBytes holds " + bytes.remaining() + " bytes, sizeInBytes says " + size);
+		byte[] expected = new byte[bytes.remaining()];
+		bytes.duplicate().get(expected);
+
+		ByteBuffer heap = guarded(ByteBuffer.allocate(size + 2 * GUARD), size);
+		ByteBuffer direct = guarded(ByteBuffer.allocateDirect(size + 2 * GUARD), size);
+		for (ByteBuffer buf : Arrays.asList(heap, direct)) {
+			String where = name + " (" + (buf.isDirect() ? "direct" : "heap") + ")";
+			buf.position(GUARD);
+			ser.write(buf, sample);
+			if (buf.position() != GUARD + size) {
+				problems.add(where + ": write left position " + (buf.position() - GUARD) + " after the value, sizeInBytes says " + size);
+				continue;
+			}
+			// the guard bytes after the value stand for whatever follows it
+			buf.limit(buf.capacity());
+			if (!guardsIntact(buf, size)) {
+				problems.add(where + ": write wrote outside its " + size + " bytes");
+				continue;
+			}
+			byte[] written = new byte[size];
+			buf.position(GUARD);
+			buf.get(written);
+			if (!Arrays.equals(expected, written))
+				problems.add(where + ": write and toBytes give different bytes");
+
+			buf.position(GUARD);
+			checkRead(ser, sample, buf, size, where, problems);
+			buf.position(GUARD);
+			checkRead(ser, sample, buf.asReadOnlyBuffer(), size, where + " (read-only)", problems);
+		}
+	}
+
+	private static <X> void checkRead(Serialiser<X> ser, X sample, ByteBuffer buf, int size, String where, List<String> problems)
+			throws Exception {
+		int start = buf.position();
+		X read = ser.fromBytes(buf);
+		if (!contentEquals(sample, read))
+			problems.add(where + ": fromBytes gives " + toString(read));
+		if (buf.position() != start + size)
+			problems.add(where + ": fromBytes read " + (buf.position() - start) + " bytes of " + size);
+	}
+
+	/**
+	 * Equality that looks inside arrays, and inside the values of maps and
+	 * the elements of collections, in order.
+	 */
+	private static boolean contentEquals(Object a, Object b) {
+		if (a == b)
+			return true;
+		if (a == null || b == null)
+			return false;
+		if (a instanceof Object[] && b instanceof Object[]) {
+			Object[] x = (Object[]) a;
+			Object[] y = (Object[]) b;
+			if (x.length != y.length)
+				return false;
+			for (int i = 0; i < x.length; i++)
+				if (!contentEquals(x[i], y[i]))
+					return false;
+			return true;
+		}
+		if (a.getClass().isArray() || b.getClass().isArray())
+			return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+		if (a instanceof Map && b instanceof Map) {
+			Map<?, ?> x = (Map<?, ?>) a;
+			Map<?, ?> y = (Map<?, ?>) b;
+			if (x.size() != y.size())
+				return false;
+			for (Map.Entry<?, ?> entry : x.entrySet()) {
+				Object other = y.get(entry.getKey());
+				if (!contentEquals(entry.getValue(), other) || (other == null && !y.containsKey(entry.getKey())))
+					return false;
+			}
+			return true;
+		}
+		if (a instanceof Collection && b instanceof Collection) {
+			Collection<?> x = (Collection<?>) a;
+			Collection<?> y = (Collection<?>) b;
+			if (x.size() != y.size())
+				return false;
+			Iterator<?> i = x.iterator();
+			Iterator<?> j = y.iterator();
+			while (i.hasNext())
+				if (!contentEquals(i.next(), j.next()))
+					return false;
+			return true;
+		}
+		return a.equals(b);
+	}
+
+	/**
+	 * The buffer filled with guard bytes, with its limit at the end of the
+	 * value's space.
+	 */
+	private static ByteBuffer guarded(ByteBuffer buf, int size) {
+		while (buf.hasRemaining())
+			buf.put(GUARD_BYTE);
+		buf.clear();
+		buf.limit(GUARD + size);
+		return buf;
+	}
+
+	private static boolean guardsIntact(ByteBuffer buf, int size) {
+		for (int i = 0; i < GUARD; i++)
+			if (buf.get(i) != GUARD_BYTE || buf.get(GUARD + size + i) != GUARD_BYTE)
+				return false;
+		return true;
+	}
+
+	private static boolean isPrefix(ByteBuffer a, ByteBuffer b) {
+		ByteBuffer shorter = (a.remaining() <= b.remaining()) ? a : b;
+		ByteBuffer longer = (shorter == a) ? b : a;
+		if (shorter.remaining() == longer.remaining())
+			return false;
+		return ByteBufferComparator.compare(shorter, shorter.position(), shorter.remaining(), longer, longer.position(),
+				shorter.remaining()) == 0;
+	}
+
+	private static String describe(Serialiser<?> ser, Object sample) {
+		String value = toString(sample);
+		if (value.length() > 60)
+			value = value.substring(0, 57) + "...";
+		return ser + " on " + value;
+	}
+
+	private static String toString(Object value) {
+		String s = Arrays.deepToString(new Object[] { value });
+		return s.substring(1, s.length() - 1);
+	}
+
+	/**
+	 * Rough encode and decode times of a serialiser, and its bytes per value.
+	 */
+	public static final class Timing {
+		public final double encodeNanos;
+		public final double decodeNanos;
+		public final double bytesPerValue;
+
+		Timing(double encodeNanos, double decodeNanos, double bytesPerValue) {
+			this.encodeNanos = encodeNanos;
+			this.decodeNanos = decodeNanos;
+			this.bytesPerValue = bytesPerValue;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("encode %.1f ns, decode %.1f ns, %.1f bytes per value", encodeNanos, decodeNanos, bytesPerValue);
+		}
+	}
+
+	/** Keeps decoded values from being optimised away. */
+	private static volatile int sink;
+
+	/**
+	 * Time writing all the samples into one buffer and reading them back,
+	 * after as many rounds again to warm up. A quick comparison, for example
+	 * between two encodings of a counter; for figures to rely on, write a JMH
+	 * benchmark as in the benchmarks module.
+	 */
+	public static <X> Timing time(Serialiser<X> ser, List<X> samples, int rounds) throws Exception {
+		if (samples.isEmpty())
+			throw new IllegalArgumentException("No samples to time");
+		if (rounds < 1)
+			throw new IllegalArgumentException("Cannot time " + rounds + " rounds");
+		long total = 0;
+		for (X sample : samples)
+			total += ser.sizeInBytes(sample);
+		if (total > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Samples too large to time together: " + total + " bytes");
+		ByteBuffer buf = ByteBuffer.allocate((int) total);
+
+		long encode = 0;
+		long decode = 0;
+		int hash = 0;
+		for (int round = -rounds; round < rounds; round++) {
+			buf.clear();
+			long start = System.nanoTime();
+			for (X sample : samples)
+				ser.write(buf, sample);
+			long written = System.nanoTime();
+			buf.flip();
+			for (int i = 0; i < samples.size(); i++) {
+				X read = ser.fromBytes(buf);
+				hash += (read == null) ? 0 : System.identityHashCode(read);
+			}
+			long end = System.nanoTime();
+			if (round >= 0) {
+				encode += written - start;
+				decode += end - written;
+			}
+		}
+		sink = hash;
+		double values = (double) rounds * samples.size();
+		return new Timing(encode / values, decode / values, (double) total / samples.size());
+	}
+}
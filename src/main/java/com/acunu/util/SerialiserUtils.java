@@ -1,6 +1,16 @@
 package com.acunu.util;
 
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+
 public class SerialiserUtils {
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
 	/**
 	 * A mapping of a long to bytes in such a way that byte order is equal to
 	 * long order.
@@ -68,4 +78,435 @@ public class SerialiserUtils {
 		}
 		return Double.longBitsToDouble(num);
 	}
+
+	/**
+	 * Write a long as the 8 bytes of {@link #orderedBytesOfLong}, straight
+	 * into the buffer: big-endian with the sign bit flipped.
+	 */
+	public static void putOrderedLong(final ByteBuffer buf, final long num) {
+		putLongBigEndian(buf, num ^ Long.MIN_VALUE);
+	}
+
+	/**
+	 * As {@link #putOrderedLong(ByteBuffer, long)}, at an absolute index,
+	 * leaving the position alone.
+	 */
+	public static void putOrderedLong(final ByteBuffer buf, final int index, final long num) {
+		long bits = num ^ Long.MIN_VALUE;
+		buf.putLong(index, buf.order() == ByteOrder.BIG_ENDIAN ? bits : Long.reverseBytes(bits));
+	}
+
+	/**
+	 * Read a long written by {@link #putOrderedLong(ByteBuffer, long)} or
+	 * {@link #orderedBytesOfLong}.
+	 */
+	public static long getOrderedLong(final ByteBuffer buf) {
+		return getLongBigEndian(buf) ^ Long.MIN_VALUE;
+	}
+
+	public static long getOrderedLong(final ByteBuffer buf, final int index) {
+		long bits = buf.getLong(index);
+		return (buf.order() == ByteOrder.BIG_ENDIAN ? bits : Long.reverseBytes(bits)) ^ Long.MIN_VALUE;
+	}
+
+	/**
+	 * Write a double as the 8 bytes of {@link #orderedBytesOfDouble}, straight
+	 * into the buffer: all bits flipped if negative, else just the sign bit.
+	 */
+	public static void putOrderedDouble(final ByteBuffer buf, final double num) {
+		putLongBigEndian(buf, orderedBitsOfDouble(num));
+	}
+
+	public static void putOrderedDouble(final ByteBuffer buf, final int index, final double num) {
+		long bits = orderedBitsOfDouble(num);
+		buf.putLong(index, buf.order() == ByteOrder.BIG_ENDIAN ? bits : Long.reverseBytes(bits));
+	}
+
+	/**
+	 * Read a double written by {@link #putOrderedDouble(ByteBuffer, double)}
+	 * or {@link #orderedBytesOfDouble}.
+	 */
+	public static double getOrderedDouble(final ByteBuffer buf) {
+		return doubleOfOrderedBits(getLongBigEndian(buf));
+	}
+
+	public static double getOrderedDouble(final ByteBuffer buf, final int index) {
+		long bits = buf.getLong(index);
+		return doubleOfOrderedBits(buf.order() == ByteOrder.BIG_ENDIAN ? bits : Long.reverseBytes(bits));
+	}
+
+	private static long orderedBitsOfDouble(final double num) {
+		long bits = Double.doubleToLongBits(num);
+		return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+	}
+
+	private static double doubleOfOrderedBits(final long bits) {
+		return Double.longBitsToDouble(bits ^ ((~bits >> 63) | Long.MIN_VALUE));
+	}
+
+	/**
+	 * The buffer itself if big-endian, otherwise a big-endian duplicate, from
+	 * which to take a view.
+	 */
+	private static ByteBuffer bigEndian(final ByteBuffer buf) {
+		return buf.order() == ByteOrder.BIG_ENDIAN ? buf : buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Check there is room for a view of count values of the given width,
+	 * before anything is written or read.
+	 */
+	private static void checkRemaining(final ByteBuffer buf, final int count, final int width, final boolean writing) {
+		if ((long) count * width > buf.remaining())
+			throw writing ? new BufferOverflowException() : new BufferUnderflowException();
+	}
+
+	/**
+	 * Write values as 8 big-endian bytes each, in one bulk copy through a
+	 * LongBuffer view.
+	 */
+	public static void putLongs(final ByteBuffer buf, final long[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 8, true);
+		bigEndian(buf).asLongBuffer().put(values, offset, length);
+		buf.position(buf.position() + 8 * length);
+	}
+
+	public static void getLongs(final ByteBuffer buf, final long[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 8, false);
+		bigEndian(buf).asLongBuffer().get(values, offset, length);
+		buf.position(buf.position() + 8 * length);
+	}
+
+	/**
+	 * Write values as {@link #putOrderedLong(ByteBuffer, long)} would, one
+	 * after another, in a single loop over a LongBuffer view.
+	 */
+	public static void putOrderedLongs(final ByteBuffer buf, final long[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 8, true);
+		LongBuffer view = bigEndian(buf).asLongBuffer();
+		for (int i = 0; i < length; i++)
+			view.put(i, values[offset + i] ^ Long.MIN_VALUE);
+		buf.position(buf.position() + 8 * length);
+	}
+
+	public static void getOrderedLongs(final ByteBuffer buf, final long[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 8, false);
+		LongBuffer view = bigEndian(buf).asLongBuffer();
+		for (int i = 0; i < length; i++)
+			values[offset + i] = view.get(i) ^ Long.MIN_VALUE;
+		buf.position(buf.position() + 8 * length);
+	}
+
+	/**
+	 * Write values as 8 big-endian bytes each, in one bulk copy through a
+	 * DoubleBuffer view. NaNs keep their bits.
+	 */
+	public static void putDoubles(final ByteBuffer buf, final double[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 8, true);
+		bigEndian(buf).asDoubleBuffer().put(values, offset, length);
+		buf.position(buf.position() + 8 * length);
+	}
+
+	public static void getDoubles(final ByteBuffer buf, final double[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 8, false);
+		bigEndian(buf).asDoubleBuffer().get(values, offset, length);
+		buf.position(buf.position() + 8 * length);
+	}
+
+	/**
+	 * Write values as {@link #putOrderedDouble(ByteBuffer, double)} would, one
+	 * after another, in a single loop over a LongBuffer view.
+	 */
+	public static void putOrderedDoubles(final ByteBuffer buf, final double[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 8, true);
+		LongBuffer view = bigEndian(buf).asLongBuffer();
+		for (int i = 0; i < length; i++)
+			view.put(i, orderedBitsOfDouble(values[offset + i]));
+		buf.position(buf.position() + 8 * length);
+	}
+
+	public static void getOrderedDoubles(final ByteBuffer buf, final double[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 8, false);
+		LongBuffer view = bigEndian(buf).asLongBuffer();
+		for (int i = 0; i < length; i++)
+			values[offset + i] = doubleOfOrderedBits(view.get(i));
+		buf.position(buf.position() + 8 * length);
+	}
+
+	/**
+	 * Write values as 4 big-endian bytes each, in one bulk copy through an
+	 * IntBuffer view.
+	 */
+	public static void putInts(final ByteBuffer buf, final int[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 4, true);
+		bigEndian(buf).asIntBuffer().put(values, offset, length);
+		buf.position(buf.position() + 4 * length);
+	}
+
+	public static void getInts(final ByteBuffer buf, final int[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 4, false);
+		bigEndian(buf).asIntBuffer().get(values, offset, length);
+		buf.position(buf.position() + 4 * length);
+	}
+
+	/**
+	 * Write ints big-endian with the sign bit flipped, so that the bytes sort
+	 * as the values do.
+	 */
+	public static void putOrderedInts(final ByteBuffer buf, final int[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 4, true);
+		IntBuffer view = bigEndian(buf).asIntBuffer();
+		for (int i = 0; i < length; i++)
+			view.put(i, values[offset + i] ^ Integer.MIN_VALUE);
+		buf.position(buf.position() + 4 * length);
+	}
+
+	public static void getOrderedInts(final ByteBuffer buf, final int[] values, final int offset, final int length) {
+		checkRemaining(buf, length, 4, false);
+		IntBuffer view = bigEndian(buf).asIntBuffer();
+		for (int i = 0; i < length; i++)
+			values[offset + i] = view.get(i) ^ Integer.MIN_VALUE;
+		buf.position(buf.position() + 4 * length);
+	}
+
+	/**
+	 * Write an int as 4 big-endian bytes, whatever the order of the buffer.
+	 */
+	public static void putIntBigEndian(final ByteBuffer buf, final int num) {
+		buf.putInt(buf.order() == ByteOrder.BIG_ENDIAN ? num : Integer.reverseBytes(num));
+	}
+
+	/**
+	 * Read 4 big-endian bytes as an int, whatever the order of the buffer.
+	 */
+	public static int getIntBigEndian(final ByteBuffer buf) {
+		int num = buf.getInt();
+		return buf.order() == ByteOrder.BIG_ENDIAN ? num : Integer.reverseBytes(num);
+	}
+
+	/**
+	 * Write a long as 8 big-endian bytes, whatever the order of the buffer.
+	 */
+	public static void putLongBigEndian(final ByteBuffer buf, final long num) {
+		buf.putLong(buf.order() == ByteOrder.BIG_ENDIAN ? num : Long.reverseBytes(num));
+	}
+
+	/**
+	 * Read 8 big-endian bytes as a long, whatever the order of the buffer.
+	 */
+	public static long getLongBigEndian(final ByteBuffer buf) {
+		long num = buf.getLong();
+		return buf.order() == ByteOrder.BIG_ENDIAN ? num : Long.reverseBytes(num);
+	}
+
+	/**
+	 * Map signed longs to unsigned so that small magnitudes, positive or
+	 * negative, have small encodings: 0, -1, 1, -2, ... become 0, 1, 2, 3, ...
+	 */
+	public static long zigZag(final long num) {
+		return (num << 1) ^ (num >> 63);
+	}
+
+	/**
+	 * Inverse of {@link #zigZag(long)}.
+	 */
+	public static long unZigZag(final long num) {
+		return (num >>> 1) ^ -(num & 1);
+	}
+
+	/**
+	 * Number of bytes {@link #putUnsignedVarLong} will use for a value.
+	 */
+	public static int unsignedVarLongSize(final long num) {
+		// 7 bits per byte; 64 - nlz rounded up, with zero taking one byte.
+		int bits = 64 - Long.numberOfLeadingZeros(num | 1);
+		return (bits + 6) / 7;
+	}
+
+	/**
+	 * Write an unsigned varint: 7 bits per byte, least significant group
+	 * first, high bit set on all but the last byte. 1 to 10 bytes.
+	 */
+	public static void putUnsignedVarLong(final ByteBuffer buf, long num) {
+		while ((num & ~0x7fL) != 0) {
+			buf.put((byte) ((num & 0x7f) | 0x80));
+			num >>>= 7;
+		}
+		buf.put((byte) num);
+	}
+
+	/**
+	 * Read an unsigned varint written by {@link #putUnsignedVarLong}.
+	 *
+	 * @throws BufferUnderflowException
+	 *             if the buffer ends mid-varint, or it is more than 10 bytes.
+	 */
+	public static long getUnsignedVarLong(final ByteBuffer buf) {
+		long num = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buf.get();
+			num |= (long) (b & 0x7f) << shift;
+			if (b >= 0)
+				return num;
+		}
+		throw new BufferUnderflowException();
+	}
+
+	/**
+	 * Write a signed varint, zig-zag encoded.
+	 */
+	public static void putVarLong(final ByteBuffer buf, final long num) {
+		putUnsignedVarLong(buf, zigZag(num));
+	}
+
+	/**
+	 * Read a signed varint written by {@link #putVarLong}.
+	 */
+	public static long getVarLong(final ByteBuffer buf) {
+		return unZigZag(getUnsignedVarLong(buf));
+	}
+
+	/**
+	 * Number of bytes {@link #putVarLong} will use for a value.
+	 */
+	public static int varLongSize(final long num) {
+		return unsignedVarLongSize(zigZag(num));
+	}
+
+	/**
+	 * Read an unsigned varint that must fit in a non-negative int, e.g. a
+	 * length or count.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if it does not.
+	 */
+	public static int getUnsignedVarInt(final ByteBuffer buf) {
+		long num = getUnsignedVarLong(buf);
+		if (num < 0 || num > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Length out of range: " + num);
+		return (int) num;
+	}
+
+	/**
+	 * Number of bytes {@link #putUtf8} will use for a string, without
+	 * encoding it. Agrees with String.getBytes("UTF-8"), which writes an
+	 * unpaired surrogate as '?'.
+	 */
+	public static int utf8Length(final String str) {
+		final int n = str.length();
+		int length = n;
+		for (int i = 0; i < n; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800) {
+				length += 1;
+			} else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(str.charAt(i + 1))) {
+				// two chars, four bytes
+				length += 2;
+				i++;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Write a string as UTF-8, exactly {@link #utf8Length} bytes, straight
+	 * into the buffer rather than through a byte[]. The same bytes as
+	 * String.getBytes("UTF-8").
+	 *
+	 * @throws BufferOverflowException
+	 *             if the buffer has too little room; what was written so far
+	 *             is left in it, but its position is not moved.
+	 */
+	public static void putUtf8(final ByteBuffer buf, final String str) {
+		if (!buf.hasArray()) {
+			putUtf8Direct(buf, str);
+			return;
+		}
+		final byte[] bytes = buf.array();
+		final int base = buf.arrayOffset();
+		final int end = base + buf.limit();
+		final int n = str.length();
+		int pos = base + buf.position();
+		for (int i = 0; i < n; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				if (pos >= end)
+					throw new BufferOverflowException();
+				bytes[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				if (pos + 2 > end)
+					throw new BufferOverflowException();
+				bytes[pos++] = (byte) (0xc0 | (c >> 6));
+				bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+				if (pos + 3 > end)
+					throw new BufferOverflowException();
+				bytes[pos++] = (byte) (0xe0 | (c >> 12));
+				bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(str.charAt(i + 1))) {
+				if (pos + 4 > end)
+					throw new BufferOverflowException();
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+				bytes[pos++] = (byte) (0xf0 | (cp >> 18));
+				bytes[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				bytes[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				bytes[pos++] = (byte) (0x80 | (cp & 0x3f));
+			} else {
+				if (pos >= end)
+					throw new BufferOverflowException();
+				bytes[pos++] = '?';
+			}
+		}
+		buf.position(pos - base);
+	}
+
+	/**
+	 * Read a string of length UTF-8 bytes, decoding straight from the
+	 * buffer's array when it has one.
+	 *
+	 * @throws BufferUnderflowException
+	 *             if fewer than length bytes remain.
+	 */
+	public static String getUtf8(final ByteBuffer buf, final int length) {
+		if (length > buf.remaining())
+			throw new BufferUnderflowException();
+		if (!buf.hasArray()) {
+			byte[] bytes = new byte[length];
+			buf.get(bytes);
+			return new String(bytes, UTF8);
+		}
+		String str = new String(buf.array(), buf.arrayOffset() + buf.position(), length, UTF8);
+		buf.position(buf.position() + length);
+		return str;
+	}
+
+	private static void putUtf8Direct(final ByteBuffer buf, final String str) {
+		final int n = str.length();
+		for (int i = 0; i < n; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				buf.put((byte) c);
+			} else if (c < 0x800) {
+				buf.put((byte) (0xc0 | (c >> 6)));
+				buf.put((byte) (0x80 | (c & 0x3f)));
+			} else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+				buf.put((byte) (0xe0 | (c >> 12)));
+				buf.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buf.put((byte) (0x80 | (c & 0x3f)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(str.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+				buf.put((byte) (0xf0 | (cp >> 18)));
+				buf.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+				buf.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+				buf.put((byte) (0x80 | (cp & 0x3f)));
+			} else {
+				buf.put((byte) '?');
+			}
+		}
+	}
 }
@@ -0,0 +1,166 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A serialiser that can also write values to, and read them from, channels,
+ * for values too big to want in one contiguous buffer: large counters such
+ * as sketches or top-k tables.
+ *
+ * On a channel a value is framed as chunks (see {@link ChunkedOutputStream}),
+ * so it can be read back without knowing its size first, and several values
+ * can follow one another on the same channel. Through the ByteBuffer methods
+ * of {@link Serialiser} the same bytes are written unframed.
+ */
+public interface StreamingSerialiser<X> extends Serialiser<X> {
+
+	/**
+	 * Write a value to the channel, chunked.
+	 */
+	void write(WritableByteChannel out, X value) throws IOException;
+
+	/**
+	 * Read a value written by {@link #write(WritableByteChannel, Object)},
+	 * reading no further than its end.
+	 */
+	X read(ReadableByteChannel in) throws IOException;
+
+	/**
+	 * Base class for serialisers that produce their bytes as a stream:
+	 * implement writeTo, readFrom and sizeInBytes; the buffer and channel
+	 * methods follow. The value is never held whole in a buffer on the way to
+	 * or from a channel.
+	 */
+	public static abstract class AbstractStreamingSerialiser<X> extends Serialiser.AbstractLookaheadSerialiser<X> implements
+			StreamingSerialiser<X> {
+
+		/**
+		 * Write the bytes of a value, exactly {@link #sizeInBytes} of them.
+		 */
+		protected abstract void writeTo(OutputStream out, X value) throws IOException;
+
+		/**
+		 * Read a value from its bytes. Must read exactly the bytes writeTo
+		 * wrote, with no read-ahead: wrapping the stream in a
+		 * BufferedInputStream, for instance, would swallow what follows.
+		 */
+		protected abstract X readFrom(InputStream in) throws IOException;
+
+		@Override
+		public void write(ByteBuffer buf, X value) throws IOException {
+			writeTo(new ByteBufferOutputStream(buf), value);
+		}
+
+		@Override
+		public X fromBytes(ByteBuffer buf) throws IOException {
+			if (buf == null)
+				return null;
+			return readFrom(new ByteBufferInputStream(buf));
+		}
+
+		@Override
+		public void write(WritableByteChannel out, X value) throws IOException {
+			ChunkedOutputStream chunks = new ChunkedOutputStream(out);
+			writeTo(chunks, value);
+			chunks.close();
+		}
+
+		@Override
+		public X read(ReadableByteChannel in) throws IOException {
+			ChunkedInputStream chunks = new ChunkedInputStream(in);
+			try {
+				return readFrom(chunks);
+			} finally {
+				chunks.close();
+			}
+		}
+
+		public void write(OutputStream out, X value) throws IOException {
+			write(Channels.newChannel(out), value);
+		}
+
+		public X read(InputStream in) throws IOException {
+			return read(Channels.newChannel(in));
+		}
+	}
+
+	/**
+	 * Gives any serialiser the channel methods, in the same chunked framing.
+	 * The value is serialised into a pooled buffer (see {@link BufferPool})
+	 * rather than a new one, and on reading gathered into one before
+	 * fromBytes, so it must still fit in a single buffer.
+	 */
+	public static class Adapter<X> implements StreamingSerialiser<X> {
+		private final Serialiser<X> serialiser;
+
+		public Adapter(Serialiser<X> serialiser) {
+			this.serialiser = serialiser;
+		}
+
+		@Override
+		public X fromBytes(ByteBuffer buf) throws IOException {
+			return serialiser.fromBytes(buf);
+		}
+
+		@Override
+		public int sizeInBytes(X value) {
+			return serialiser.sizeInBytes(value);
+		}
+
+		@Override
+		public ByteBuffer toBytes(X value) {
+			return serialiser.toBytes(value);
+		}
+
+		@Override
+		public void write(ByteBuffer buf, X value) throws IOException {
+			serialiser.write(buf, value);
+		}
+
+		@Override
+		public void write(WritableByteChannel out, X value) throws IOException {
+			ByteBuffer buf = BufferPool.acquire(serialiser.sizeInBytes(value));
+			try {
+				serialiser.write(buf, value);
+				buf.flip();
+				ChunkedOutputStream chunks = new ChunkedOutputStream(out);
+				chunks.write(buf);
+				chunks.close();
+			} finally {
+				BufferPool.release(buf);
+			}
+		}
+
+		@Override
+		public X read(ReadableByteChannel in) throws IOException {
+			ChunkedInputStream chunks = new ChunkedInputStream(in);
+			ByteBuffer buf = BufferPool.acquire(ChunkedOutputStream.CHUNK_SIZE);
+			try {
+				while (chunks.read(buf) >= 0) {
+					if (!buf.hasRemaining()) {
+						ByteBuffer bigger = BufferPool.acquire(2 * buf.capacity());
+						buf.flip();
+						bigger.put(buf);
+						BufferPool.release(buf);
+						buf = bigger;
+					}
+				}
+				buf.flip();
+				return serialiser.fromBytes(buf);
+			} finally {
+				chunks.close();
+				BufferPool.release(buf);
+			}
+		}
+
+		public String toString() {
+			return "streaming(" + serialiser + ")";
+		}
+	}
+}
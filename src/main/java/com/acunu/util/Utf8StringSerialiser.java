@@ -0,0 +1,55 @@
+package com.acunu.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A serialiser of Strings as UTF-8, whatever the platform's default charset:
+ * an unsigned varint byte length, then the bytes.
+ *
+ * Each string is encoded once, straight into the target buffer, with no
+ * intermediate byte[]. sizeInBytes and write count the encoded length from
+ * the chars without encoding. Strings of any length that fits in an int are
+ * supported; short strings pay a one-byte length rather than four.
+ *
+ * Not compatible with the bytes of {@link Serialiser#serString}, which
+ * writes a 4-byte length and the default charset. Unpaired surrogates are
+ * written as '?', as String.getBytes does. Thread-safe.
+ */
+public class Utf8StringSerialiser extends Serialiser.AbstractLookaheadSerialiser<String> {
+
+	public static final Utf8StringSerialiser serUtf8String = new Utf8StringSerialiser();
+
+	@Override
+	public String fromBytes(ByteBuffer buf) throws IOException {
+		if (buf == null)
+			return null;
+		int length;
+		try {
+			length = SerialiserUtils.getUnsignedVarInt(buf);
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt string length", e);
+		}
+		if (length > buf.remaining())
+			throw new IOException("String of " + length + " bytes but only " + buf.remaining() + " left");
+		return SerialiserUtils.getUtf8(buf, length);
+	}
+
+	@Override
+	public int sizeInBytes(String value) {
+		int length = SerialiserUtils.utf8Length(value);
+		return SerialiserUtils.unsignedVarLongSize(length) + length;
+	}
+
+	@Override
+	public void write(ByteBuffer buf, String value) throws IOException {
+		if (value == null)
+			throw new IllegalArgumentException("Cannot write null object");
+		SerialiserUtils.putUnsignedVarLong(buf, SerialiserUtils.utf8Length(value));
+		SerialiserUtils.putUtf8(buf, value);
+	}
+
+	public String toString() {
+		return "serUtf8String";
+	}
+}